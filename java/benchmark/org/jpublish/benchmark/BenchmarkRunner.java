@@ -0,0 +1,164 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.jpublish.benchmark;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Minimal harness running the benchmarks of the request pipeline, in the
+ * spirit of JMH: each operation is warmed up for a while, then measured
+ * over several rounds, and the fastest and mean times per operation are
+ * reported together with the bytes allocated per operation.  The result
+ * of each operation is kept reachable so it cannot be optimized away.
+ * <p/>
+ * The rounds are configured with the <code>benchmark.warmup</code> and
+ * <code>benchmark.time</code> system properties, in milliseconds, and the
+ * <code>benchmark.rounds</code> property.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class BenchmarkRunner {
+
+    /**
+     * An operation measured by the runner.
+     */
+
+    public interface Operation {
+
+        /**
+         * Run the operation once.
+         *
+         * @return Any result, kept reachable by the runner
+         * @throws Exception
+         */
+
+        public Object run() throws Exception;
+    }
+
+    private long warmupMillis = Long.getLong("benchmark.warmup", 2000).longValue();
+    private long roundMillis = Long.getLong("benchmark.time", 1000).longValue();
+    private int rounds = Integer.getInteger("benchmark.rounds", 5).intValue();
+    private String filter;
+
+    /**
+     * keeps the last result reachable
+     */
+    private volatile Object sink;
+
+    /**
+     * Construct a new BenchmarkRunner.
+     *
+     * @param filter Only the benchmarks whose name contains the filter are run, null to run them all
+     */
+
+    public BenchmarkRunner(String filter) {
+        this.filter = filter;
+    }
+
+    /**
+     * Return true if the benchmark with the given name is selected by the
+     * filter, so the fixture it needs is worth setting up.
+     *
+     * @param name The benchmark name
+     * @return True if the benchmark is run
+     */
+
+    public boolean isSelected(String name) {
+        return filter == null || name.indexOf(filter) >= 0;
+    }
+
+    /**
+     * Measure the given operation and print a line of results.
+     *
+     * @param name      The benchmark name
+     * @param operation The operation
+     * @throws Exception
+     */
+
+    public void run(String name, Operation operation) throws Exception {
+        if (!isSelected(name)) {
+            return;
+        }
+
+        // check the operation works before measuring it
+        sink = operation.run();
+
+        long deadline = System.currentTimeMillis() + warmupMillis;
+        while (System.currentTimeMillis() < deadline) {
+            for (int i = 0; i < 100; i++) {
+                sink = operation.run();
+            }
+        }
+
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        double best = Double.MAX_VALUE;
+        long totalNanos = 0;
+        long totalOperations = 0;
+        long totalBytes = 0;
+        for (int round = 0; round < rounds; round++) {
+            long operations = 0;
+            long bytesBefore = threads.getThreadAllocatedBytes(threadId);
+            long start = System.nanoTime();
+            long end = start + roundMillis * 1000000;
+            long now;
+            do {
+                for (int i = 0; i < 100; i++) {
+                    sink = operation.run();
+                }
+                operations += 100;
+                now = System.nanoTime();
+            } while (now < end);
+            totalBytes += threads.getThreadAllocatedBytes(threadId) - bytesBefore;
+
+            totalNanos += now - start;
+            totalOperations += operations;
+            best = Math.min(best, (double) (now - start) / operations);
+        }
+
+        System.out.println(format(name, 48) + format(formatNanos(best), 14)
+                + format(formatNanos((double) totalNanos / totalOperations), 14)
+                + format(String.valueOf(totalBytes / totalOperations), 12));
+    }
+
+    /**
+     * Print the header of the results table.
+     */
+
+    public void printHeader() {
+        System.out.println(format("benchmark", 48) + format("best ns/op", 14)
+                + format("mean ns/op", 14) + format("bytes/op", 12));
+    }
+
+    private static String formatNanos(double nanos) {
+        return String.valueOf(Math.round(nanos * 10) / 10.0);
+    }
+
+    private static String format(String value, int width) {
+        StringBuffer buffer = new StringBuffer(value);
+        while (buffer.length() < width) {
+            buffer.append(' ');
+        }
+        return buffer.toString();
+    }
+
+}
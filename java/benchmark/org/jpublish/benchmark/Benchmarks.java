@@ -0,0 +1,56 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.jpublish.benchmark;
+
+/**
+ * Runs all the benchmarks, or those whose name contains the first
+ * argument, and prints a table of results.
+ * <p/>
+ * Run with: <code>ant benchmark</code> or
+ * <code>ant benchmark -Dbenchmark.filter=render</code>
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class Benchmarks {
+
+    public static void main(String[] args) throws Exception {
+        String filter = args.length > 0 && args[0].length() > 0 ? args[0] : null;
+        BenchmarkRunner runner = new BenchmarkRunner(filter);
+
+        SiteFixture fixture = new SiteFixture();
+        try {
+            runner.printHeader();
+            new PipelineBenchmark(fixture).run(runner);
+            new PathMatchBenchmark().run(runner);
+            new TemplateManagerBenchmark(fixture).run(runner);
+            new ViewRendererBenchmark(fixture).run(runner);
+            new ConfigurationBenchmark(fixture).run(runner);
+            new CacheBenchmark().run(runner);
+        } finally {
+            fixture.destroy();
+        }
+
+        if (runner.isSelected("context")) {
+            System.out.println();
+            ContextAllocationBenchmark.main(new String[0]);
+        }
+    }
+
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.jpublish.benchmark;
+
+import org.jpublish.util.JPublishCache;
+
+/**
+ * Measures the get and put operations of each JPublishCache
+ * implementation, with a working set of cached templates-sized entries
+ * and a hit ratio of about 90%.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class CacheBenchmark {
+
+    private static final String[][] CACHES = {
+            {"simple", "org.jpublish.util.JPublishSimpleCacheImpl"},
+            {"ehcache", "org.jpublish.util.JPublishCacheImpl"},
+            {"whirlycache", "org.jpublish.util.JPublishWhirlyCacheImpl"}};
+
+    private static final int KEYS = 500;
+
+    public void run(BenchmarkRunner runner) throws Exception {
+        final String[] keys = new String[KEYS];
+        for (int i = 0; i < keys.length; i++) {
+            keys[i] = "/templates/page" + i + ".html";
+        }
+        final String value = "<html><body>cached template</body></html>";
+
+        for (int i = 0; i < CACHES.length; i++) {
+            String name = "cache." + CACHES[i][0];
+            if (!runner.isSelected(name + ".get") && !runner.isSelected(name + ".put")) {
+                continue;
+            }
+
+            final JPublishCache cache;
+            try {
+                cache = (JPublishCache) Class.forName(CACHES[i][1]).newInstance();
+                cache.addCache("benchmark-" + CACHES[i][0]);
+                for (int k = 0; k < keys.length * 9 / 10; k++) {
+                    cache.put(keys[k], value);
+                }
+            } catch (Throwable t) {
+                System.out.println(name + " skipped: " + t);
+                continue;
+            }
+
+            runner.run(name + ".get", new BenchmarkRunner.Operation() {
+                private int next;
+
+                public Object run() throws Exception {
+                    next = (next + 1) % keys.length;
+                    return cache.get(keys[next]);
+                }
+            });
+
+            runner.run(name + ".put", new BenchmarkRunner.Operation() {
+                private int next;
+
+                public Object run() throws Exception {
+                    next = (next + 1) % keys.length;
+                    cache.put(keys[next], value);
+                    return cache;
+                }
+            });
+
+            cache.destroy();
+        }
+    }
+
+}
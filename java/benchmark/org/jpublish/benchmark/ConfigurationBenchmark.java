@@ -0,0 +1,64 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.jpublish.benchmark;
+
+import com.anthonyeden.lib.config.XMLConfiguration;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+
+/**
+ * Measures the parsing of the site <code>jpublish.xml</code> file and of
+ * a page definition with <code>XMLConfiguration</code>.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class ConfigurationBenchmark {
+
+    private SiteFixture fixture;
+
+    public ConfigurationBenchmark(SiteFixture fixture) {
+        this.fixture = fixture;
+    }
+
+    public void run(BenchmarkRunner runner) throws Exception {
+        runner.run("configuration.site", new Parse(new File(fixture.getRoot(), "WEB-INF/jpublish.xml")));
+        runner.run("configuration.page", new Parse(new File(fixture.getRoot(), "pages/default.xml")));
+    }
+
+    private static class Parse implements BenchmarkRunner.Operation {
+        private File file;
+
+        Parse(File file) {
+            this.file = file;
+        }
+
+        public Object run() throws Exception {
+            InputStream in = new FileInputStream(file);
+            try {
+                return new XMLConfiguration(in);
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.jpublish.benchmark;
+
+import org.jpublish.JPublishContext;
+import org.jpublish.Repository;
+import org.jpublish.RepositoryWrapper;
+import org.jpublish.component.ComponentMap;
+import org.jpublish.util.DateUtilities;
+import org.jpublish.util.NumberUtilities;
+import org.jpublish.util.URLUtilities;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+
+/**
+ * Measures the bytes allocated per request for populating the
+ * JPublishContext the way JPublishServlet does, comparing the former eager
+ * population with the lazy population based on shared ValueSuppliers.
+ * Each scenario populates a context and reads the values a typical page
+ * template uses: the request, the site and one repository.
+ * <p/>
+ * Run with: <code>ant benchmark -Dbenchmark.filter=context</code>
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class ContextAllocationBenchmark {
+
+    private static final int REPOSITORIES = 3;
+    private static final int WARMUP_ITERATIONS = 200000;
+    private static final int ITERATIONS = 1000000;
+
+    private static final JPublishContext.ValueSupplier URL_UTILITIES_ALIAS = new JPublishContext.ValueSupplier() {
+        public Object get(JPublishContext context) {
+            return context.getUrlUtilities();
+        }
+    };
+
+    private HttpServletRequest request;
+    private HttpServletResponse response;
+    private Repository[] repositories;
+    private RepositoryWrapper.Supplier[] repositorySuppliers;
+    private Object owner = new Object();
+    private Object site = new Object();
+
+    /**
+     * keeps the last context reachable, so its allocation cannot be optimized away
+     */
+    private volatile Object sink;
+
+    public ContextAllocationBenchmark() {
+        request = (HttpServletRequest) createStub(HttpServletRequest.class, null);
+        response = (HttpServletResponse) createStub(HttpServletResponse.class, null);
+
+        repositories = new Repository[REPOSITORIES];
+        repositorySuppliers = new RepositoryWrapper.Supplier[REPOSITORIES];
+        for (int i = 0; i < REPOSITORIES; i++) {
+            repositories[i] = (Repository) createStub(Repository.class, "repository" + i);
+            repositorySuppliers[i] = new RepositoryWrapper.Supplier(repositories[i]);
+        }
+    }
+
+    /**
+     * Populate the context with every value built up front, as
+     * JPublishServlet did before the lazy context.
+     */
+
+    public void eager() {
+        JPublishContext context = new JPublishContext(owner, 16);
+        populateCommon(context);
+
+        URLUtilities urlUtilities = new URLUtilities(request, response);
+        context.put("urlUtilities", urlUtilities);
+        context.put("url_util", urlUtilities);
+        context.put("url_utils", urlUtilities);
+
+        for (int i = 0; i < repositories.length; i++) {
+            context.put(repositories[i].getName(), new RepositoryWrapper(repositories[i], context));
+        }
+        context.put("components", new ComponentMap(context));
+
+        read(context);
+    }
+
+    /**
+     * Populate the context with shared suppliers, as JPublishServlet does.
+     */
+
+    public void lazy() {
+        JPublishContext context = new JPublishContext(owner);
+        populateCommon(context);
+
+        context.put("urlUtilities", URLUtilities.SUPPLIER);
+        context.put("url_util", URL_UTILITIES_ALIAS);
+        context.put("url_utils", URL_UTILITIES_ALIAS);
+
+        for (int i = 0; i < repositories.length; i++) {
+            context.put(repositories[i].getName(), repositorySuppliers[i]);
+        }
+        context.put("components", ComponentMap.SUPPLIER);
+
+        read(context);
+    }
+
+    private void populateCommon(JPublishContext context) {
+        context.put("request", request);
+        context.put("response", response);
+        context.put("session", null);
+        context.put("application", null);
+        context.put("characterEncodingMap", null);
+        context.put("dateUtilities", DateUtilities.getInstance());
+        context.put("numberUtilities", NumberUtilities.getInstance());
+        context.put("syslog", null);
+        context.put("site", site);
+        context.put("page", null);
+    }
+
+    private void read(JPublishContext context) {
+        context.get("request");
+        context.get("site");
+        context.get("repository0");
+        sink = context;
+    }
+
+    /**
+     * Run the given scenario and return the bytes allocated per iteration.
+     *
+     * @param eager True for the eager scenario
+     * @return The bytes allocated per request
+     */
+
+    public long measure(boolean eager) {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long threadId = Thread.currentThread().getId();
+
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            run(eager);
+        }
+
+        long before = threads.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < ITERATIONS; i++) {
+            run(eager);
+        }
+        long after = threads.getThreadAllocatedBytes(threadId);
+
+        return (after - before) / ITERATIONS;
+    }
+
+    private void run(boolean eager) {
+        if (eager) {
+            eager();
+        } else {
+            lazy();
+        }
+    }
+
+    private static Object createStub(Class type, final String name) {
+        return Proxy.newProxyInstance(ContextAllocationBenchmark.class.getClassLoader(),
+                new Class[]{type}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                if (method.getName().equals("getName")) {
+                    return name;
+                }
+                if (method.getName().equals("hashCode")) {
+                    return Integer.valueOf(System.identityHashCode(proxy));
+                }
+                if (method.getName().equals("equals")) {
+                    return Boolean.valueOf(proxy == args[0]);
+                }
+                return null;
+            }
+        });
+    }
+
+    public static void main(String[] args) {
+        ContextAllocationBenchmark benchmark = new ContextAllocationBenchmark();
+
+        long eager = benchmark.measure(true);
+        long lazy = benchmark.measure(false);
+
+        System.out.println("JPublishContext population, bytes allocated per request:");
+        System.out.println("  eager: " + eager);
+        System.out.println("  lazy:  " + lazy);
+        System.out.println("  saved: " + (eager - lazy) + " (" + (eager > 0 ? (eager - lazy) * 100 / eager : 0) + "%)");
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.jpublish.benchmark;
+
+import org.jpublish.util.PathMatcher;
+import org.jpublish.util.PathUtilities;
+
+/**
+ * Measures the matching of request paths against the path patterns of
+ * the actions and of the configuration: <code>PathUtilities.match</code>
+ * tried against every pattern, as the path lists did, and the indexed
+ * PathMatcher.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class PathMatchBenchmark {
+
+    private static final String[] PATTERNS = {
+            "/admin/*", "/blog/*.html", "*.css", "*.js", "/shop/*", "/news/*.xml",
+            "/index.html", "/about.html", "/images/*", "/api/*", "*.rss", "/docs/*.html"};
+
+    private static final String[] PATHS = {
+            "/index.html", "/blog/2007/10/entry.html", "/styles/site.css", "/unknown/page.html"};
+
+    public void run(BenchmarkRunner runner) throws Exception {
+        runner.run("path.match", new BenchmarkRunner.Operation() {
+            public Object run() {
+                int matches = 0;
+                for (int i = 0; i < PATHS.length; i++) {
+                    for (int j = 0; j < PATTERNS.length; j++) {
+                        if (PathUtilities.match(PATHS[i], PATTERNS[j])) {
+                            matches++;
+                        }
+                    }
+                }
+                return Integer.valueOf(matches);
+            }
+        });
+
+        final PathMatcher matcher = new PathMatcher();
+        for (int i = 0; i < PATTERNS.length; i++) {
+            matcher.add(PATTERNS[i], PATTERNS[i]);
+        }
+        runner.run("path.matcher", new BenchmarkRunner.Operation() {
+            public Object run() {
+                Object match = null;
+                for (int i = 0; i < PATHS.length; i++) {
+                    match = matcher.getFirstMatch(PATHS[i]);
+                }
+                return match;
+            }
+        });
+    }
+
+}
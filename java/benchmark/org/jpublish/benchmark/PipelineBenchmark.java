@@ -0,0 +1,50 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.jpublish.benchmark;
+
+/**
+ * Measures <code>JPublishServlet.doPost</code> serving the static
+ * stylesheet and the dynamic Velocity page of the SiteFixture.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class PipelineBenchmark {
+
+    private SiteFixture fixture;
+
+    public PipelineBenchmark(SiteFixture fixture) {
+        this.fixture = fixture;
+    }
+
+    public void run(BenchmarkRunner runner) throws Exception {
+        runner.run("pipeline.static", new BenchmarkRunner.Operation() {
+            public Object run() throws Exception {
+                return fixture.get(SiteFixture.STATIC_PATH);
+            }
+        });
+
+        runner.run("pipeline.dynamic", new BenchmarkRunner.Operation() {
+            public Object run() throws Exception {
+                return fixture.get(SiteFixture.DYNAMIC_PATH);
+            }
+        });
+    }
+
+}
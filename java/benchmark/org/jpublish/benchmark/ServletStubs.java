@@ -0,0 +1,259 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.jpublish.benchmark;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Stand-ins for the servlet container objects, built with dynamic proxies
+ * so the JPublishServlet can be benchmarked without a container.  The
+ * methods the servlet relies on answer like a container would; every
+ * other method returns null, zero or false.  The response output is
+ * discarded.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class ServletStubs {
+
+    private ServletStubs() {
+    }
+
+    /**
+     * Create a ServletContext for the web application found in the given
+     * directory.
+     *
+     * @param root The web application root
+     * @return The ServletContext
+     */
+
+    public static ServletContext createServletContext(final File root) {
+        final Map attributes = new HashMap();
+        return (ServletContext) createStub(ServletContext.class, new Answers() {
+            public Object answer(String method, Object[] args) {
+                if (method.equals("getRealPath")) {
+                    return new File(root, (String) args[0]).getAbsolutePath();
+                } else if (method.equals("getMajorVersion")) {
+                    return Integer.valueOf(2);
+                } else if (method.equals("getMinorVersion")) {
+                    return Integer.valueOf(4);
+                } else if (method.equals("getServletContextName")) {
+                    return "benchmark";
+                } else if (method.equals("getAttribute")) {
+                    return attributes.get(args[0]);
+                } else if (method.equals("setAttribute")) {
+                    attributes.put(args[0], args[1]);
+                } else if (method.equals("getAttributeNames")) {
+                    return Collections.enumeration(attributes.keySet());
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Create a ServletConfig.
+     *
+     * @param servletContext   The ServletContext
+     * @param initParameters The servlet init parameters
+     * @return The ServletConfig
+     */
+
+    public static ServletConfig createServletConfig(final ServletContext servletContext,
+                                                    final Map initParameters) {
+        return (ServletConfig) createStub(ServletConfig.class, new Answers() {
+            public Object answer(String method, Object[] args) {
+                if (method.equals("getServletContext")) {
+                    return servletContext;
+                } else if (method.equals("getInitParameter")) {
+                    return initParameters.get(args[0]);
+                } else if (method.equals("getInitParameterNames")) {
+                    return Collections.enumeration(initParameters.keySet());
+                } else if (method.equals("getServletName")) {
+                    return "jpublish";
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Create a request without parameters, headers nor session.
+     *
+     * @param method The HTTP method
+     * @param path   The request path, relative to the servlet
+     * @return The HttpServletRequest
+     */
+
+    public static HttpServletRequest createRequest(final String method, final String path) {
+        final Map attributes = new HashMap();
+        return (HttpServletRequest) createStub(HttpServletRequest.class, new Answers() {
+            public Object answer(String name, Object[] args) {
+                if (name.equals("getMethod")) {
+                    return method;
+                } else if (name.equals("getPathInfo")) {
+                    return path;
+                } else if (name.equals("getRequestURI")) {
+                    return path;
+                } else if (name.equals("getServletPath") || name.equals("getContextPath")) {
+                    return "";
+                } else if (name.equals("getDateHeader")) {
+                    return Long.valueOf(-1);
+                } else if (name.equals("getParameterNames") || name.equals("getHeaderNames")) {
+                    return Collections.enumeration(Collections.EMPTY_LIST);
+                } else if (name.equals("getParameterMap")) {
+                    return Collections.EMPTY_MAP;
+                } else if (name.equals("getAttribute")) {
+                    return attributes.get(args[0]);
+                } else if (name.equals("setAttribute")) {
+                    attributes.put(args[0], args[1]);
+                } else if (name.equals("removeAttribute")) {
+                    attributes.remove(args[0]);
+                } else if (name.equals("getLocale")) {
+                    return Locale.getDefault();
+                } else if (name.equals("getServerName")) {
+                    return "localhost";
+                } else if (name.equals("getScheme")) {
+                    return "http";
+                } else if (name.equals("getServerPort")) {
+                    return Integer.valueOf(80);
+                } else if (name.equals("getCharacterEncoding")) {
+                    return "UTF-8";
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * Create a response discarding its content.
+     *
+     * @return The HttpServletResponse
+     */
+
+    public static HttpServletResponse createResponse() {
+        final ServletOutputStream out = new ServletOutputStream() {
+            public void write(int b) {
+            }
+
+            public void write(byte[] b, int off, int len) {
+            }
+        };
+        final PrintWriter writer = new PrintWriter(new OutputStream() {
+            public void write(int b) {
+            }
+
+            public void write(byte[] b, int off, int len) {
+            }
+        });
+        final String[] contentType = new String[1];
+
+        return (HttpServletResponse) createStub(HttpServletResponse.class, new Answers() {
+            public Object answer(String method, Object[] args) throws IOException {
+                if (method.equals("getOutputStream")) {
+                    return out;
+                } else if (method.equals("getWriter")) {
+                    return writer;
+                } else if (method.equals("setContentType")) {
+                    contentType[0] = (String) args[0];
+                } else if (method.equals("getContentType")) {
+                    return contentType[0];
+                } else if (method.equals("getCharacterEncoding")) {
+                    return "UTF-8";
+                } else if (method.equals("getLocale")) {
+                    return Locale.getDefault();
+                } else if (method.startsWith("encode")) {
+                    return args[0];
+                } else if (method.equals("sendError")) {
+                    throw new IOException("Error " + args[0]);
+                }
+                return null;
+            }
+        });
+    }
+
+    /**
+     * The answers of a stub, null for the default answer.
+     */
+
+    private interface Answers {
+        public Object answer(String method, Object[] args) throws Exception;
+    }
+
+    private static Object createStub(Class type, final Answers answers) {
+        return Proxy.newProxyInstance(ServletStubs.class.getClassLoader(),
+                new Class[]{type}, new InvocationHandler() {
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                if (method.getName().equals("hashCode")) {
+                    return Integer.valueOf(System.identityHashCode(proxy));
+                }
+                if (method.getName().equals("equals")) {
+                    return Boolean.valueOf(proxy == args[0]);
+                }
+                if (method.getName().equals("toString")) {
+                    return type(proxy) + " stub";
+                }
+
+                Object answer = answers.answer(method.getName(), args);
+                return answer != null ? answer : getDefault(method.getReturnType());
+            }
+        });
+    }
+
+    private static String type(Object proxy) {
+        return proxy.getClass().getInterfaces()[0].getName();
+    }
+
+    private static Object getDefault(Class type) {
+        if (!type.isPrimitive() || type == Void.TYPE) {
+            return null;
+        } else if (type == Boolean.TYPE) {
+            return Boolean.FALSE;
+        } else if (type == Long.TYPE) {
+            return Long.valueOf(0);
+        } else if (type == Character.TYPE) {
+            return Character.valueOf((char) 0);
+        } else if (type == Double.TYPE) {
+            return Double.valueOf(0);
+        } else if (type == Float.TYPE) {
+            return new Float(0);
+        } else if (type == Short.TYPE) {
+            return new Short((short) 0);
+        } else if (type == Byte.TYPE) {
+            return new Byte((byte) 0);
+        }
+        return Integer.valueOf(0);
+    }
+
+}
@@ -0,0 +1,234 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.jpublish.benchmark;
+
+import org.jpublish.JPublishContext;
+import org.jpublish.Page;
+import org.jpublish.SiteContext;
+import org.jpublish.servlet.JPublishServlet;
+
+import javax.servlet.ServletContext;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A small web application written to a temporary directory and served by
+ * a JPublishServlet running on stubs: a Velocity page including a content
+ * file from a repository, a static stylesheet and the same template
+ * written for each of the view renderers.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class SiteFixture {
+
+    public static final String DYNAMIC_PATH = "/index.html";
+    public static final String STATIC_PATH = "/styles/site.css";
+
+    private static final String JPUBLISH_XML =
+            "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                    + "<jpublish>\n"
+                    + "    <name>benchmark</name>\n"
+                    + "    <static-root>public</static-root>\n"
+                    + "    <action-root>actions</action-root>\n"
+                    + "    <template-root>templates</template-root>\n"
+                    + "    <page-root>pages</page-root>\n"
+                    + "    <page-manager classname=\"org.jpublish.page.filesystem.FileSystemPageManagerWithDefault\"/>\n"
+                    + "    <default-template>velocity</default-template>\n"
+                    + "    <view-renderer classname=\"org.jpublish.view.velocity.VelocityViewRenderer\">\n"
+                    + "        <velocity-properties relative-paths=\"true\">WEB-INF/velocity.properties</velocity-properties>\n"
+                    + "    </view-renderer>\n"
+                    + "    <repository name=\"fs_repository\" classname=\"org.jpublish.repository.filesystem.FileSystemRepository\">\n"
+                    + "        <root>content</root>\n"
+                    + "        <cache>default</cache>\n"
+                    + "    </repository>\n"
+                    + "    <cache-manager>\n"
+                    + "        <jpublish.cache.provider>\n"
+                    + "            <implementation name=\"default\" class=\"org.jpublish.util.JPublishSimpleCacheImpl\"/>\n"
+                    + "        </jpublish.cache.provider>\n"
+                    + "    </cache-manager>\n"
+                    + "    <character-encoding-map path=\"*\">\n"
+                    + "        <page-encoding>utf-8</page-encoding>\n"
+                    + "        <template-encoding>utf-8</template-encoding>\n"
+                    + "        <request-encoding>utf-8</request-encoding>\n"
+                    + "        <response-encoding>utf-8</response-encoding>\n"
+                    + "    </character-encoding-map>\n"
+                    + "    <debug>false</debug>\n"
+                    + "</jpublish>\n";
+
+    private static final String VELOCITY_PROPERTIES =
+            "runtime.log.logsystem.class = org.apache.velocity.runtime.log.NullLogChute\n"
+                    + "input.encoding = utf-8\n"
+                    + "output.encoding = utf-8\n";
+
+    private static final String VELOCITY_TEMPLATE =
+            "<html><head><title>$page.Title</title>"
+                    + "<link rel=\"stylesheet\" href=\"$!request.ContextPath/styles/site.css\"></head>\n"
+                    + "<body>\n$fs_repository.get($page.Path)\n<ul>\n"
+                    + "#foreach ($i in [1..20])<li class=\"item$i\">item $i of $page.Path</li>\n#end"
+                    + "</ul></body></html>\n";
+
+    private static final String FREEMARKER_TEMPLATE =
+            "<html><head><title>${page.title}</title></head>\n<body>\n<ul>\n"
+                    + "<#list 1..20 as i><li class=\"item${i}\">item ${i} of ${page.path}</li>\n</#list>"
+                    + "</ul></body></html>\n";
+
+    private static final String WEBMACRO_TEMPLATE =
+            "<html><head><title>$page.Title</title></head>\n<body>\n<ul>\n"
+                    + "#foreach $i in $items { <li class=\"item$i\">item $i of $page.Path</li>\n}"
+                    + "</ul></body></html>\n";
+
+    private static final String STRINGTEMPLATE_TEMPLATE =
+            "<html><head><title>$page.title$</title></head>\n<body>\n<ul>\n"
+                    + "$items:{<li class=\"item$it$\">item $it$ of $page.path$</li>\n}$"
+                    + "</ul></body></html>\n";
+
+    private File root;
+    private JPublishServlet servlet;
+
+    /**
+     * Write the site to a new temporary directory and start a
+     * JPublishServlet serving it.
+     *
+     * @throws Exception
+     */
+
+    public SiteFixture() throws Exception {
+        root = File.createTempFile("jpublish-benchmark", "");
+        root.delete();
+        root.mkdirs();
+
+        write("WEB-INF/jpublish.xml", JPUBLISH_XML);
+        write("WEB-INF/velocity.properties", VELOCITY_PROPERTIES);
+        write("pages/default.xml", "<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+                + "<page><title>Benchmark</title><template>velocity</template></page>\n");
+        write("actions/readme.txt", "");
+        write("content/index.html", repeat("<p>Lorem ipsum dolor sit amet, consectetur adipiscing elit.</p>\n", 40));
+        write("public/styles/site.css", repeat("body { margin: 0; padding: 0; font-family: sans-serif; }\n", 60));
+        write("templates/velocity.html", VELOCITY_TEMPLATE);
+        write("templates/freemarker.html", FREEMARKER_TEMPLATE);
+        write("templates/webmacro.html", WEBMACRO_TEMPLATE);
+        write("templates/stringtemplate.st", STRINGTEMPLATE_TEMPLATE);
+        write("templates/raw.html", repeat("<p>raw template line</p>\n", 40));
+
+        ServletContext servletContext = ServletStubs.createServletContext(root);
+        Map initParameters = new HashMap();
+        initParameters.put("config", "WEB-INF/jpublish.xml");
+
+        servlet = new JPublishServlet();
+        servlet.init(ServletStubs.createServletConfig(servletContext, initParameters));
+    }
+
+    public File getRoot() {
+        return root;
+    }
+
+    public JPublishServlet getServlet() {
+        return servlet;
+    }
+
+    public SiteContext getSiteContext() {
+        return (SiteContext) servlet.getServletContext().getAttribute(SiteContext.NAME);
+    }
+
+    /**
+     * Serve a GET request for the given path.
+     *
+     * @param path The request path
+     * @return The response
+     * @throws Exception
+     */
+
+    public HttpServletResponse get(String path) throws Exception {
+        HttpServletRequest request = ServletStubs.createRequest("GET", path);
+        HttpServletResponse response = ServletStubs.createResponse();
+        servlet.doPost(request, response);
+        return response;
+    }
+
+    /**
+     * Create a context holding what the templates of the site use, as
+     * JPublishServlet would when serving the dynamic page.
+     *
+     * @return The context
+     * @throws Exception
+     */
+
+    public JPublishContext createContext() throws Exception {
+        SiteContext siteContext = getSiteContext();
+        JPublishContext context = new JPublishContext(this);
+        context.put("request", ServletStubs.createRequest("GET", DYNAMIC_PATH));
+        context.put("site", siteContext);
+        context.put("characterEncodingMap", siteContext.getCharacterEncodingManager().getMap(DYNAMIC_PATH));
+        context.put("page", new Page(siteContext.getPageManager().getPage(DYNAMIC_PATH)));
+
+        Integer[] items = new Integer[20];
+        for (int i = 0; i < items.length; i++) {
+            items[i] = Integer.valueOf(i + 1);
+        }
+        context.put("items", items);
+        return context;
+    }
+
+    /**
+     * Stop the servlet and delete the site.
+     */
+
+    public void destroy() {
+        servlet.destroy();
+        delete(root);
+    }
+
+    private void write(String path, String content) throws IOException {
+        File file = new File(root, path);
+        file.getParentFile().mkdirs();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(content);
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String repeat(String text, int count) {
+        StringBuffer buffer = new StringBuffer(text.length() * count);
+        for (int i = 0; i < count; i++) {
+            buffer.append(text);
+        }
+        return buffer.toString();
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (int i = 0; i < children.length; i++) {
+                delete(children[i]);
+            }
+        }
+        file.delete();
+    }
+
+}
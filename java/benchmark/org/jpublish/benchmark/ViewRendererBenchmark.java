@@ -0,0 +1,121 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.jpublish.benchmark;
+
+import com.anthonyeden.lib.config.XMLConfiguration;
+import org.jpublish.JPublishContext;
+import org.jpublish.SiteContext;
+import org.jpublish.util.FileCopyUtils;
+import org.jpublish.util.PathUtilities;
+import org.jpublish.view.ViewRenderer;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.StringReader;
+import java.io.Writer;
+
+/**
+ * Measures the rendering of the same page by each ViewRenderer
+ * implementation, with the template of the SiteFixture written for it.
+ * A renderer whose engine cannot be set up is reported and skipped.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class ViewRendererBenchmark {
+
+    private static final String[][] RENDERERS = {
+            {"velocity", "org.jpublish.view.velocity.VelocityViewRenderer", "velocity.html"},
+            {"freemarker", "org.jpublish.view.freemarker.FreeMarkerViewRenderer", "freemarker.html"},
+            {"webmacro", "org.jpublish.view.webmacro.WebMacroViewRenderer", "webmacro.html"},
+            {"stringtemplate", "org.jpublish.view.stringtemplate.StringTemplateViewRenderer", "stringtemplate.html"},
+            {"raw", "org.jpublish.view.raw.RawViewRenderer", "raw.html"}};
+
+    private static final String VELOCITY_CONFIGURATION =
+            "<view-renderer><velocity-properties relative-paths=\"true\">"
+                    + "WEB-INF/velocity.properties</velocity-properties></view-renderer>";
+
+    /**
+     * discards the rendered output
+     */
+    private static final Writer NULL_WRITER = new Writer() {
+        public void write(char[] buffer, int offset, int length) {
+        }
+
+        public void write(String text) {
+        }
+
+        public void flush() {
+        }
+
+        public void close() {
+        }
+    };
+
+    private SiteFixture fixture;
+
+    public ViewRendererBenchmark(SiteFixture fixture) {
+        this.fixture = fixture;
+    }
+
+    public void run(BenchmarkRunner runner) throws Exception {
+        SiteContext siteContext = fixture.getSiteContext();
+        for (int i = 0; i < RENDERERS.length; i++) {
+            final String name = "render." + RENDERERS[i][0];
+            if (!runner.isSelected(name)) {
+                continue;
+            }
+
+            final ViewRenderer renderer;
+            final JPublishContext context = fixture.createContext();
+            final String path = PathUtilities.makeTemplateURI(RENDERERS[i][2]);
+            final String text = read(new File(siteContext.getRealTemplateRoot(), RENDERERS[i][2]));
+            try {
+                renderer = (ViewRenderer) Class.forName(RENDERERS[i][1]).newInstance();
+                renderer.setSiteContext(siteContext);
+                String configuration = RENDERERS[i][0].equals("velocity") ?
+                        VELOCITY_CONFIGURATION : "<view-renderer/>";
+                renderer.loadConfiguration(new XMLConfiguration(new StringReader(configuration)));
+                renderer.init();
+                renderer.render(context, path, new StringReader(text), NULL_WRITER);
+            } catch (Throwable t) {
+                System.out.println(name + " skipped: " + t);
+                continue;
+            }
+
+            runner.run(name, new BenchmarkRunner.Operation() {
+                public Object run() throws Exception {
+                    renderer.render(context, path, new StringReader(text), NULL_WRITER);
+                    return renderer;
+                }
+            });
+        }
+    }
+
+    private static String read(File file) throws IOException {
+        if (!file.exists()) {
+            // the StringTemplate templates are .st files
+            return "";
+        }
+        return FileCopyUtils.copyToString(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+    }
+
+}
@@ -20,6 +20,7 @@ package org.jpublish;
 import org.apache.commons.logging.Log;
 import org.apache.velocity.VelocityContext;
 import org.apache.velocity.context.Context;
+import org.jpublish.metrics.RequestTimer;
 import org.jpublish.util.CharacterEncodingMap;
 import org.jpublish.util.DateUtilities;
 import org.jpublish.util.NumberUtilities;
@@ -29,11 +30,23 @@ import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 /**
  * The JPublishContext overrides the Velocity context to add name
  * checking as a security measure so that code cannot replace
  * standard variables.
+ * <p/>
+ * A value can be stored as a {@link ValueSupplier}; the supplier is called
+ * the first time the value is read and the result replaces it in the
+ * context.  Values a template never reads are therefore never built, and
+ * the suppliers themselves, being stateless, can be shared by all the
+ * requests.
  *
  * @author Anthony Eden
  * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
@@ -66,9 +79,44 @@ public class JPublishContext extends VelocityContext {
             "page", "site", "components"
     };
 
+    /**
+     * initial capacity of the context map, large enough for the standard
+     * variables, the repositories and the values added by the actions
+     */
+    public static final int DEFAULT_INITIAL_CAPACITY = 32;
+
+    /**
+     * Supplies a context value when it is read for the first time.
+     */
+
+    public interface ValueSupplier {
+
+        /**
+         * Build the value.
+         *
+         * @param context The context the value is read from
+         * @return The value
+         */
+
+        Object get(JPublishContext context);
+    }
+
     private Object owner;
     private boolean checkReservedNames = false;
 
+    /**
+     * the suppliers of the values built so far, as key and supplier pairs;
+     * a few values are built per request, an array is cheaper than a map
+     */
+    private Object[] resolvedSuppliers;
+    private int resolvedCount;
+
+    /**
+     * the keys a child context holds the suppliers of its parent for
+     */
+    private Set inheritedSuppliers;
+    private RequestTimer requestTimer;
+
     /**
      * Construct a new JPublishContext.  The owner object is used
      * to enable and disable modification of protected keys.
@@ -77,6 +125,20 @@ public class JPublishContext extends VelocityContext {
      */
 
     public JPublishContext(Object owner) {
+        this(owner, DEFAULT_INITIAL_CAPACITY);
+    }
+
+    /**
+     * Construct a new JPublishContext whose map is sized for the given
+     * number of values.  The owner object is used to enable and disable
+     * modification of protected keys.
+     *
+     * @param owner           The context "owner" object
+     * @param initialCapacity The initial capacity of the context map
+     */
+
+    public JPublishContext(Object owner, int initialCapacity) {
+        super(new HashMap(initialCapacity));
         this.owner = owner;
     }
 
@@ -105,6 +167,141 @@ public class JPublishContext extends VelocityContext {
         return super.get(key);
     }
 
+    /**
+     * Get the value stored in this context for the specified key, calling
+     * its ValueSupplier if the value was not built yet.
+     *
+     * @param key The key
+     * @return The value or null
+     */
+
+    public Object internalGet(String key) {
+        Object value = super.internalGet(key);
+        if (value instanceof ValueSupplier) {
+            value = resolve(key);
+        }
+        return value;
+    }
+
+    /**
+     * Put a value into this context, bypassing the reserved names check.
+     *
+     * @param key   The key
+     * @param value The value
+     * @return The previous value, its ValueSupplier if it was never read, or null
+     */
+
+    public Object internalPut(String key, Object value) {
+        forgetSupplier(key);
+        return super.internalPut(key, value);
+    }
+
+    /**
+     * Remove a value from this context, bypassing the reserved names check.
+     *
+     * @param key The key
+     * @return The removed value, its ValueSupplier if it was never read, or null
+     */
+
+    public Object internalRemove(Object key) {
+        forgetSupplier(key);
+        return super.internalRemove(key);
+    }
+
+
+    /**
+     * Create a context for an action running concurrently with other
+     * actions of the same request.  The child reads the values of this
+     * context and keeps the values it is given to itself, until they are
+     * copied back with <code>merge()</code>; this context must not be
+     * modified while children are in use.  The values built by a
+     * ValueSupplier, such as the repository wrappers and the components
+     * map, are built again for the child and bound to it, so that the
+     * child never writes into this context.
+     *
+     * @return The child context
+     */
+
+    public JPublishContext createChildContext() {
+        JPublishContext child = new JPublishContext(this, owner);
+        child.checkReservedNames = checkReservedNames;
+        child.requestTimer = requestTimer;
+
+        Object[] keys = internalGetKeys();
+        for (int i = 0; i < keys.length; i++) {
+            String key = (String) keys[i];
+            Object value = getStored(key);
+            if (!(value instanceof ValueSupplier)) {
+                value = getResolvedSupplier(key);
+            }
+            if (value instanceof ValueSupplier) {
+                if (child.inheritedSuppliers == null) {
+                    child.inheritedSuppliers = new HashSet();
+                }
+                child.putStored(key, value);
+                child.inheritedSuppliers.add(key);
+            }
+        }
+        return child;
+    }
+
+    /**
+     * Copy the values put into the given child context into this context.
+     * Values removed from the child are not removed from this context.
+     *
+     * @param child A context created by <code>createChildContext()</code>
+     */
+
+    public void merge(JPublishContext child) {
+        Object[] keys = child.getChildKeys();
+        for (int i = 0; i < keys.length; i++) {
+            String key = (String) keys[i];
+            forgetSupplier(key);
+            super.internalPut(key, child.getStored(key));
+        }
+    }
+
+    /**
+     * Get the keys of the values put into this child context, leaving out
+     * the values it builds again from the suppliers of its parent.
+     *
+     * @return The keys
+     */
+
+    public Object[] getChildKeys() {
+        Object[] keys = internalGetKeys();
+        if (inheritedSuppliers == null || inheritedSuppliers.isEmpty()) {
+            return keys;
+        }
+
+        List childKeys = new ArrayList(keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            if (!inheritedSuppliers.contains(keys[i])) {
+                childKeys.add(keys[i]);
+            }
+        }
+        return childKeys.toArray();
+    }
+
+    /**
+     * Get the timer of the request this context was created for.
+     *
+     * @return The RequestTimer or null if the request is not timed
+     */
+
+    public RequestTimer getRequestTimer() {
+        return requestTimer;
+    }
+
+    /**
+     * Set the timer of the request this context was created for.
+     *
+     * @param requestTimer The RequestTimer
+     */
+
+    public void setRequestTimer(RequestTimer requestTimer) {
+        this.requestTimer = requestTimer;
+    }
 
     /**
      * Get the stop-processing lag.  This method will return null unless request processing should be stopped.
@@ -309,6 +506,58 @@ public class JPublishContext extends VelocityContext {
         return (Page) get(JPUBLISH_PAGE);
     }
 
+    private Object getStored(String key) {
+        return super.internalGet(key);
+    }
+
+    private void putStored(String key, Object value) {
+        super.internalPut(key, value);
+    }
+
+    private synchronized Object resolve(String key) {
+        // checked again, another thread may have resolved the value
+        Object value = super.internalGet(key);
+        if (value instanceof ValueSupplier) {
+            ValueSupplier supplier = (ValueSupplier) value;
+            value = supplier.get(this);
+            super.internalPut(key, value);
+            if (resolvedSuppliers == null) {
+                resolvedSuppliers = new Object[4];
+            } else if (resolvedCount == resolvedSuppliers.length) {
+                resolvedSuppliers = Arrays.copyOf(resolvedSuppliers, resolvedCount * 2);
+            }
+            resolvedSuppliers[resolvedCount++] = key;
+            resolvedSuppliers[resolvedCount++] = supplier;
+        }
+        return value;
+    }
+
+    private Object getResolvedSupplier(Object key) {
+        for (int i = 0; i < resolvedCount; i += 2) {
+            if (resolvedSuppliers[i].equals(key)) {
+                return resolvedSuppliers[i + 1];
+            }
+        }
+        return null;
+    }
+
+    private void forgetSupplier(Object key) {
+        // the value is replaced, it no longer comes from a supplier
+        for (int i = 0; i < resolvedCount; i += 2) {
+            if (resolvedSuppliers[i].equals(key)) {
+                resolvedCount -= 2;
+                resolvedSuppliers[i] = resolvedSuppliers[resolvedCount];
+                resolvedSuppliers[i + 1] = resolvedSuppliers[resolvedCount + 1];
+                resolvedSuppliers[resolvedCount] = null;
+                resolvedSuppliers[resolvedCount + 1] = null;
+                break;
+            }
+        }
+        if (inheritedSuppliers != null) {
+            inheritedSuppliers.remove(key);
+        }
+    }
+
     /**
      * Return true if the given variable is a reserved name
      * used by the JPublish engine. If checkReservedNames is
@@ -19,6 +19,8 @@ package org.jpublish;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.jpublish.metrics.RequestTimer;
+import org.jpublish.util.OutputCacheManager;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -59,6 +61,27 @@ public class RepositoryWrapper implements Map {
         this.context = context;
     }
 
+    /**
+     * Builds the RepositoryWrapper of a repository the first time the
+     * repository is read from a context.  A Supplier holds no request
+     * state and can be shared by all the requests.
+     */
+    public static class Supplier implements JPublishContext.ValueSupplier {
+        private Repository repository;
+
+        public Supplier(Repository repository) {
+            this.repository = repository;
+        }
+
+        public Repository getRepository() {
+            return repository;
+        }
+
+        public Object get(JPublishContext context) {
+            return new RepositoryWrapper(repository, context);
+        }
+    }
+
 
     /**
      * Get the content at the given path.  Errors will be caught and the
@@ -94,7 +117,11 @@ public class RepositoryWrapper implements Map {
      * @return The content as a String
      */
     public String get(String path, boolean merged) {
+        RequestTimer timer = context.getRequestTimer();
+        long start = timer != null && timer.isTracing() ? System.nanoTime() : 0;
         try {
+            OutputCacheManager.recordDependency(context, repository, path);
+
             if (merged)
                 return repository.get(path, context);
             else
@@ -110,6 +137,10 @@ public class RepositoryWrapper implements Map {
             String err = path + ", error: " + e.getMessage();
             log.error(err);
             return err;
+        } finally {
+            if (start != 0) {
+                timer.record(RequestTimer.INCLUDE, path, System.nanoTime() - start);
+            }
         }
     }
 
@@ -29,6 +29,7 @@ import com.atlassian.util.profiling.UtilTimerStack;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jpublish.action.ActionManager;
+import org.jpublish.metrics.RequestMetrics;
 import org.jpublish.repository.RepositoryContent;
 import org.jpublish.template.TemplateContent;
 import org.jpublish.util.*;
@@ -103,10 +104,14 @@ public class SiteContext implements ResourceRecipient {
     private List defaultErrorHandlers;
     private List disableSessionPaths;
     private Map errorHandlerMap;
-    private Map cachedErrorHandlers;
+    private PathMatcher errorHandlerMatcher;
 
     private PathDispatcherManager pathDispatcherManager;
     private JPublishCacheManager jPublishCacheManager;
+    private OutputCacheManager outputCacheManager;
+    private CompressionManager compressionManager;
+    private RequestMetrics requestMetrics;
+    private FileChangeMonitor fileChangeMonitor;
 
     private PageManager pageManager;
     private ActionManager actionManager;
@@ -149,12 +154,17 @@ public class SiteContext implements ResourceRecipient {
         modules = new ArrayList();
         repositories = new ArrayList();
         defaultErrorHandlers = new ArrayList();
-        errorHandlerMap = new HashMap();
-        cachedErrorHandlers = new HashMap();
+        errorHandlerMap = new LinkedHashMap();
+        errorHandlerMatcher = new PathMatcher();
         mimeTypeMap = new MimeTypeMap();
         characterEncodingManager = new CharacterEncodingManager();
+        requestMetrics = new RequestMetrics();
 
-        disableSessionPaths = new ArrayList();
+        disableSessionPaths = new PathIndexedList(new PathIndexedList.PathResolver() {
+            public String getPath(Object element) {
+                return element.toString();
+            }
+        });
 
         attributes = new HashMap();
         if (systemProfilingProperty != null) {
@@ -743,18 +753,8 @@ public class SiteContext implements ResourceRecipient {
      */
 
     public List getErrorHandlers(String path) {
-        List errorHandlers = (List) cachedErrorHandlers.get(path);
-
+        List errorHandlers = (List) errorHandlerMatcher.getFirstMatch(path);
         if (errorHandlers == null) {
-            Iterator keys = errorHandlerMap.keySet().iterator();
-            while (keys.hasNext()) {
-                String key = (String) keys.next();
-                if (PathUtilities.match(path, key)) {
-                    errorHandlers = (List) errorHandlerMap.get(key);
-                    cachedErrorHandlers.put(path, errorHandlers);
-                    return errorHandlers;
-                }
-            }
             return getDefaultErrorHandlers();
         } else {
             return errorHandlers;
@@ -1043,6 +1043,9 @@ public class SiteContext implements ResourceRecipient {
         Configuration configuration = new XMLConfiguration(in);
 
         // construct the ActionManager
+        if (actionManager != null) {
+            actionManager.destroy();
+        }
         actionManager = new ActionManager(this);
 
         // setup the ActionManager
@@ -1050,10 +1053,12 @@ public class SiteContext implements ResourceRecipient {
         if (actionManagerConfiguration != null) {
             List classPathElements = actionManager.getClassPathElements();
             Configuration classpathConfiguration = actionManagerConfiguration.getChild("classpath");
-            Iterator pathElements = classpathConfiguration.getChildren("pathelement").iterator();
-            while (pathElements.hasNext()) {
-                Configuration pathElement = (Configuration) pathElements.next();
-                classPathElements.add(pathElement.getValue());
+            if (classpathConfiguration != null) {
+                Iterator pathElements = classpathConfiguration.getChildren("pathelement").iterator();
+                while (pathElements.hasNext()) {
+                    Configuration pathElement = (Configuration) pathElements.next();
+                    classPathElements.add(pathElement.getValue());
+                }
             }
         }
         // setup alien dispatcher
@@ -1068,6 +1073,14 @@ public class SiteContext implements ResourceRecipient {
             pathDispatcherManager.loadConfiguration(configuration);
         }
 
+        // start watching the file system for changes
+        if (fileChangeMonitor != null) {
+            fileChangeMonitor.stop();
+        }
+        fileChangeMonitor = new FileChangeMonitor();
+        fileChangeMonitor.loadConfiguration(configuration);
+        fileChangeMonitor.start();
+
         /**
          * Create a default Cache manager
          *
@@ -1304,6 +1317,17 @@ public class SiteContext implements ResourceRecipient {
         // load all actions
         actionManager.loadConfiguration(configuration);
 
+        // load the output cache mappings
+        outputCacheManager = new OutputCacheManager(this);
+        outputCacheManager.loadConfiguration(configuration);
+
+        // load the response compression settings
+        compressionManager = new CompressionManager();
+        compressionManager.loadConfiguration(configuration);
+
+        // load the request metrics settings
+        requestMetrics.loadConfiguration(configuration);
+
         // load the mime type map
         Iterator mimeTypeMapElements = configuration.getChildren("mime-mapping").iterator();
         while (mimeTypeMapElements.hasNext()) {
@@ -1346,6 +1370,15 @@ public class SiteContext implements ResourceRecipient {
             }
         }
 
+        // compile the error handler paths
+        PathMatcher matcher = new PathMatcher();
+        Iterator errorHandlerPaths = errorHandlerMap.keySet().iterator();
+        while (errorHandlerPaths.hasNext()) {
+            String path = (String) errorHandlerPaths.next();
+            matcher.add(path, errorHandlerMap.get(path));
+        }
+        errorHandlerMatcher = matcher;
+
         // load session disable paths
         Iterator disableSessionElements = configuration.getChildren("disable-session").iterator();
         while (disableSessionElements.hasNext()) {
@@ -1459,6 +1492,46 @@ public class SiteContext implements ResourceRecipient {
         return jPublishCacheManager;
     }
 
+    /**
+     * Get the manager of the rendered pages cache.
+     *
+     * @return The OutputCacheManager
+     */
+
+    public OutputCacheManager getOutputCacheManager() {
+        return outputCacheManager;
+    }
+
+    /**
+     * Get the manager of the response compression.
+     *
+     * @return The CompressionManager
+     */
+
+    public CompressionManager getCompressionManager() {
+        return compressionManager;
+    }
+
+    /**
+     * Get the timings of the request processing phases.
+     *
+     * @return The RequestMetrics
+     */
+
+    public RequestMetrics getRequestMetrics() {
+        return requestMetrics;
+    }
+
+    /**
+     * Get the service used for checking the state of the site files.
+     *
+     * @return The FileChangeMonitor
+     */
+
+    public FileChangeMonitor getFileChangeMonitor() {
+        return fileChangeMonitor;
+    }
+
     public boolean isEval() {
         return evaluateVelocityTemplates.equalsIgnoreCase("true");
     }
@@ -1486,7 +1559,12 @@ public class SiteContext implements ResourceRecipient {
     }
 
     public void destroy() {
-        //todo implement
+        if (fileChangeMonitor != null) {
+            fileChangeMonitor.stop();
+        }
+        if (actionManager != null) {
+            actionManager.destroy();
+        }
     }
 
     public void setServletConfig(ServletConfig servletConfig) {
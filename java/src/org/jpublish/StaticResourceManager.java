@@ -19,6 +19,7 @@ package org.jpublish;
 
 import com.anthonyeden.lib.config.Configuration;
 import com.anthonyeden.lib.config.ConfigurationException;
+import org.jpublish.resource.StaticAsset;
 import org.jpublish.util.vfs.VFSFile;
 
 import java.io.InputStream;
@@ -74,6 +75,30 @@ public interface StaticResourceManager{
 
     public void load(String path, OutputStream out) throws Exception;
 
+    /** Load a part of the static resource data at the given path and write
+        it to the specified OutputStream.  Used for answering HTTP Range
+        requests.
+
+        @param path The resource path
+        @param offset The position of the first byte to write
+        @param length The number of bytes to write
+        @param out The OutputStream
+        @throws Exception Any Exception
+    */
+
+    public void load(String path, long offset, long length, OutputStream out)
+    throws Exception;
+
+    /** Get the static resource at the given path from the in-memory asset
+        cache, together with its precomputed response headers.
+
+        @param path The resource path
+        @return The StaticAsset or null if the resource cannot be cached
+        @throws Exception Any Exception
+    */
+
+    public StaticAsset getAsset(String path) throws Exception;
+
     /** Read the static resource data from the given InputStream and write
         it to the specified path location.
 
@@ -25,7 +25,6 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jpublish.action.Action;
 import org.jpublish.action.ActionWrapper;
-import org.jpublish.util.CharacterEncodingMap;
 import org.jpublish.util.PathUtilities;
 import org.jpublish.view.ViewRenderer;
 
@@ -134,16 +133,7 @@ public class Template {
      */
 
     public String executeActions(JPublishContext context) throws Exception {
-        Iterator templateActions = getTemplateActions().iterator();
-        while (templateActions.hasNext()) {
-            ((ActionWrapper) templateActions.next()).execute(context);
-
-            String redirect = (String) context.get("redirect");
-            if (redirect != null) {
-                return redirect;
-            }
-        }
-        return null;
+        return siteContext.getActionManager().executeActions(getTemplateActions(), context, true);
     }
 
     /**
@@ -162,12 +152,9 @@ public class Template {
         try {
             executeActions(context);
 
-            CharacterEncodingMap characterEncodingMap = (CharacterEncodingMap) context.get("characterEncodingMap");
-            String templateEncoding = characterEncodingMap.getTemplateEncoding();
-
             String path = PathUtilities.makeTemplateURI(getPath());
             ViewRenderer renderer = siteContext.getViewRenderer();
-            reader = getReader(templateEncoding);
+            reader = getReader();
             renderer.render(context, path, reader, out);
 
             if (log.isDebugEnabled()) {
@@ -233,20 +220,14 @@ public class Template {
 
     /**
      * Get a Reader which returns the contents of this template to
-     * be used for rendering.
+     * be used for rendering.  The text was decoded by the TemplateManager
+     * when the template was loaded; the Reader reads it without copying.
      *
      * @return The Reader
      */
 
-    protected Reader getReader(String templateEncoding) {
-        String result="";
-        try {
-            result = new String(templateText.getBytes(), templateEncoding);
-        } catch (UnsupportedEncodingException e) {
-            log.info("Unsupported encoding, using default encoding");
-            result = templateText;
-        }
-        return new StringReader(result);
+    protected Reader getReader() {
+        return new StringReader(templateText);
     }
 
 }
@@ -0,0 +1,154 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.jpublish.action;
+
+import org.jpublish.JPublishContext;
+
+import java.util.List;
+
+/**
+ * The actions applying to a request path, compiled once by the
+ * ActionManager: the pre-evaluation, global, path and post-evaluation
+ * actions matching the path, each phase kept as an immutable array of
+ * ActionWrappers.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ * @see ActionManager#getActionChain(String)
+ */
+
+public class ActionChain {
+
+    private static final ActionWrapper[] NO_ACTIONS = new ActionWrapper[0];
+
+    private ActionWrapper[] preEvaluationActions;
+    private ActionWrapper[] globalActions;
+    private ActionWrapper[] pathActions;
+    private ActionWrapper[] postEvaluationActions;
+    private int version;
+
+    /**
+     * Construct a new ActionChain.
+     *
+     * @param preEvaluationActions  The matching pre-evaluation ActionWrappers
+     * @param globalActions         The global ActionWrappers
+     * @param pathActions           The matching path ActionWrappers
+     * @param postEvaluationActions The matching post-evaluation ActionWrappers
+     * @param version               The version of the action lists the chain was built from
+     */
+
+    ActionChain(List preEvaluationActions, List globalActions, List pathActions,
+                List postEvaluationActions, int version) {
+        this.preEvaluationActions = toArray(preEvaluationActions);
+        this.globalActions = toArray(globalActions);
+        this.pathActions = toArray(pathActions);
+        this.postEvaluationActions = toArray(postEvaluationActions);
+        this.version = version;
+    }
+
+    int getVersion() {
+        return version;
+    }
+
+    /**
+     * Return true if no action applies to the path.
+     *
+     * @return True if the chain is empty
+     */
+
+    public boolean isEmpty() {
+        return preEvaluationActions.length == 0 && globalActions.length == 0
+                && pathActions.length == 0 && postEvaluationActions.length == 0;
+    }
+
+    /**
+     * Execute the pre-evaluation actions, stopping as soon as one of them
+     * sets the value <code>stop-processing</code> in the context.
+     *
+     * @param context The current context
+     * @return True if the processing should stop
+     * @throws Exception
+     */
+
+    public boolean executePreEvaluationActions(JPublishContext context) throws Exception {
+        for (int i = 0; i < preEvaluationActions.length; i++) {
+            preEvaluationActions[i].execute(context);
+            if (context.get("stop-processing") != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Execute the global actions, stopping as soon as one of them sets the
+     * value <code>redirect</code> in the context.
+     *
+     * @param context The current context
+     * @return The redirect value or null
+     * @throws Exception
+     */
+
+    public String executeGlobalActions(JPublishContext context) throws Exception {
+        return execute(globalActions, context);
+    }
+
+    /**
+     * Execute the path actions, stopping as soon as one of them sets the
+     * value <code>redirect</code> in the context.
+     *
+     * @param context The current context
+     * @return The redirect value or null
+     * @throws Exception
+     */
+
+    public String executePathActions(JPublishContext context) throws Exception {
+        return execute(pathActions, context);
+    }
+
+    /**
+     * Execute the post-evaluation actions.
+     *
+     * @param context The current context
+     * @throws Exception
+     */
+
+    public void executePostEvaluationActions(JPublishContext context) throws Exception {
+        for (int i = 0; i < postEvaluationActions.length; i++) {
+            postEvaluationActions[i].execute(context);
+        }
+    }
+
+    private static String execute(ActionWrapper[] actions, JPublishContext context) throws Exception {
+        for (int i = 0; i < actions.length; i++) {
+            actions[i].execute(context);
+            String redirect = (String) context.get("redirect");
+            if (redirect != null) {
+                return redirect;
+            }
+        }
+        return null;
+    }
+
+    private static ActionWrapper[] toArray(List actions) {
+        if (actions.isEmpty()) {
+            return NO_ACTIONS;
+        }
+        return (ActionWrapper[]) actions.toArray(new ActionWrapper[actions.size()]);
+    }
+
+}
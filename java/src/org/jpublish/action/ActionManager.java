@@ -22,7 +22,6 @@ import com.anthonyeden.lib.config.ConfigurationException;
 import com.anthonyeden.lib.util.ClassUtilities;
 import com.anthonyeden.lib.util.IOUtilities;
 import com.atlassian.util.profiling.UtilTimerStack;
-import com.atlassian.util.profiling.object.ObjectProfiler;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jpublish.JPublishContext;
@@ -34,11 +33,37 @@ import org.jpublish.util.vfs.VFSProvider;
 import org.jpublish.util.vfs.provider.filesystem.FileSystemProvider;
 
 import java.io.*;
-import java.lang.reflect.Method;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Class which manages all actions in the JPublish framework.
+ * <p/>
+ * Consecutive page, template and content actions configured with
+ * <code>parallel="true"</code> are executed concurrently, by a pool of at
+ * most 16 threads unless configured otherwise:
+ * <p/>
+ * <pre>
+ * &lt;action-manager&gt;
+ *     &lt;parallel-actions threads="16"/&gt;
+ * &lt;/action-manager&gt;
+ * </pre>
+ * <p/>
+ * The JSR-223 engines evaluating the script actions are pooled per site;
+ * at most 8 engines are created per language which is not thread safe,
+ * unless configured otherwise with
+ * <code>&lt;script-engines max="8"/&gt;</code> in the same element.
  *
  * @author Anthony Eden
  * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
@@ -55,19 +80,58 @@ public class ActionManager {
     private List classPathElements;
     private List startupActions;
     private List shutdownActions;
-    private List globalActions;
-    private List pathActions;
-    private List preEvaluationActions;
-    private List postEvaluationActions;
+    private VersionedList globalActions;
+    private PathIndexedList pathActions;
+    private PathIndexedList preEvaluationActions;
+    private PathIndexedList postEvaluationActions;
     private SiteContext siteContext;
     private VFSProvider provider;
     private JPublishContext startupContext;
 
-    private Map cachedScriptActions = new HashMap();
+    /**
+     * actions resolved from the modules, the action root or the classpath
+     */
+    private ConcurrentMap resolvedActions = new ConcurrentHashMap();
+
+    /**
+     * names which could not be resolved, mapped to the resolution error
+     * message; the names may come from the request parameters, so they are
+     * kept at most MAX_MISSING_ACTIONS
+     */
+    private ConcurrentMap missingActions = new ConcurrentHashMap();
+    public static final int MAX_MISSING_ACTIONS = 256;
+
+    /**
+     * the ActionChains of the most recently requested paths
+     */
+    private ConcurrentMap actionChains = new ConcurrentHashMap();
+    public static final int MAX_ACTION_CHAINS = 1024;
+
+    /**
+     * runs the parallel-safe actions, created on first use
+     */
+    private volatile ExecutorService executor;
+    private int parallelThreads = DEFAULT_PARALLEL_THREADS;
+    public static final int DEFAULT_PARALLEL_THREADS = 16;
+    /**
+     * the engines evaluating the script actions, created on first use
+     */
+    private volatile ScriptEnginePool scriptEnginePool;
+    private int maxScriptEngines = ScriptEnginePool.DEFAULT_MAX_ENGINES;
+
     public static final String SCRIPT_ACTION = "ScriptAction";
     public static final String EXECUTE_METHOD_NAME = "execute";
     public static final String PATH_ACTION = "PathAction";
 
+    /**
+     * resolves the path of the PathAction wrapped by an ActionWrapper
+     */
+    private static final PathIndexedList.PathResolver PATH_ACTION_RESOLVER = new PathIndexedList.PathResolver() {
+        public String getPath(Object element) {
+            return ((PathAction) ((ActionWrapper) element).getAction()).getPath();
+        }
+    };
+
     /**
      * Construct a new ActionManager with the given SiteContext.
      *
@@ -76,13 +140,13 @@ public class ActionManager {
 
     public ActionManager(SiteContext siteContext) {
         this.siteContext = siteContext;
-        this.definedActions = new HashMap();
+        this.definedActions = new ConcurrentHashMap();
         this.startupActions = new ArrayList();
         this.shutdownActions = new ArrayList();
-        this.globalActions = new ArrayList();
-        this.pathActions = new ArrayList();
-        this.preEvaluationActions = new ArrayList();
-        this.postEvaluationActions = new ArrayList();
+        this.globalActions = new VersionedList();
+        this.pathActions = new PathIndexedList(PATH_ACTION_RESOLVER);
+        this.preEvaluationActions = new PathIndexedList(PATH_ACTION_RESOLVER);
+        this.postEvaluationActions = new PathIndexedList(PATH_ACTION_RESOLVER);
         this.classPathElements = new ArrayList();
         this.startupContext = new JPublishContext(null);
 
@@ -121,6 +185,7 @@ public class ActionManager {
 
     public void addAction(String name, Action action) {
         definedActions.put(name, action);
+        missingActions.remove(name);
     }
 
     /**
@@ -131,6 +196,7 @@ public class ActionManager {
 
     public void removeAction(String name) {
         definedActions.remove(name);
+        resolvedActions.remove(name);
     }
 
     /**
@@ -262,37 +328,69 @@ public class ActionManager {
     }
 
     /**
-     * Execute all global actions using the given context.
+     * Return true if any global, pre-evaluation, path or post-evaluation
+     * action applies to the given path.
      *
-     * @param context The current context
-     * @return Redirection URL or null
-     * @throws Exception
+     * @param path The request path
+     * @return True if an action applies to the path
      */
 
-    public String executeGlobalActions(JPublishContext context) throws Exception {
-        List globalActions = getGlobalActions();
+    public boolean hasActions(String path) {
+        return !getActionChain(path).isEmpty();
+    }
 
-        if (globalActions == null) {
-            log.error("Global actions list is null");
-            throw new NullPointerException("Global actions is null");
-        }
+    /**
+     * Get the chain of the actions applying to the given path.  The chains
+     * are built once per path and cached, up to MAX_ACTION_CHAINS paths;
+     * a chain is built again when actions were added or removed since.
+     *
+     * @param path The request path
+     * @return The ActionChain, never null
+     */
 
-        Iterator actions = globalActions.iterator();
-        while (actions.hasNext()) {
-            ActionWrapper action = (ActionWrapper) actions.next();
+    public ActionChain getActionChain(String path) {
+        int version = globalActions.getVersion() + preEvaluationActions.getVersion()
+                + pathActions.getVersion() + postEvaluationActions.getVersion();
 
-            if (action != null) {
-                action.execute(context);
-                String redirect = (String) context.get("redirect");
-                if (redirect != null) {
-                    return redirect;
-                }
+        ActionChain chain = (ActionChain) actionChains.get(path);
+        if (chain == null || chain.getVersion() != version) {
+            chain = new ActionChain(preEvaluationActions.getMatches(path), globalActions,
+                    pathActions.getMatches(path), postEvaluationActions.getMatches(path), version);
 
-            } else {
-                log.error("Action retrieved from iterator is null");
+            if (actionChains.size() >= MAX_ACTION_CHAINS) {
+                actionChains.clear();
             }
+            actionChains.put(path, chain);
         }
-        return null;
+        return chain;
+    }
+
+    /**
+     * Execute all global actions using the given context.  The global
+     * actions do not depend on the request path, they are executed from
+     * the action chain of the root path.
+     *
+     * @param context The current context
+     * @return Redirection URL or null
+     * @throws Exception
+     */
+
+    public String executeGlobalActions(JPublishContext context) throws Exception {
+        return executeGlobalActions("/", context);
+    }
+
+    /**
+     * Execute all global actions using the given context, from the action
+     * chain of the request path.
+     *
+     * @param path    The request path
+     * @param context The current context
+     * @return Redirection URL or null
+     * @throws Exception
+     */
+
+    public String executeGlobalActions(String path, JPublishContext context) throws Exception {
+        return getActionChain(path).executeGlobalActions(context);
     }
 
     /**
@@ -307,20 +405,7 @@ public class ActionManager {
      */
 
     public String executePathActions(String path, JPublishContext context) throws Exception {
-        Iterator actions = getPathActions().iterator();
-        while (actions.hasNext()) {
-            ActionWrapper actionWrapper = (ActionWrapper) actions.next();
-            PathAction action = (PathAction) actionWrapper.getAction();
-            if (PathUtilities.match(path, action.getPath())) {
-                actionWrapper.execute(context);
-
-                String redirect = (String) context.get("redirect");
-                if (redirect != null) {
-                    return redirect;
-                }
-            }
-        }
-        return null;
+        return getActionChain(path).executePathActions(context);
     }
 
     /**
@@ -341,20 +426,7 @@ public class ActionManager {
      */
 
     public boolean executePreEvaluationActions(String path, JPublishContext context) throws Exception {
-        Iterator actions = getPreEvaluationActions().iterator();
-        while (actions.hasNext()) {
-            ActionWrapper actionWrapper = (ActionWrapper) actions.next();
-            PathAction action = (PathAction) actionWrapper.getAction();
-            if (PathUtilities.match(path, action.getPath())) {
-                actionWrapper.execute(context);
-
-                String stopProcessingFlag = (String) context.get("stop-processing");
-                if (stopProcessingFlag != null) {
-                    return true;
-                }
-            }
-        }
-        return false;
+        return getActionChain(path).executePreEvaluationActions(context);
     }
 
     /**
@@ -367,19 +439,168 @@ public class ActionManager {
      */
 
     public void executePostEvaluationActions(String path, JPublishContext context) throws Exception {
-        Iterator actions = getPostEvaluationActions().iterator();
-        while (actions.hasNext()) {
-            ActionWrapper actionWrapper = (ActionWrapper) actions.next();
-            PathAction action = (PathAction) actionWrapper.getAction();
-            if (PathUtilities.match(path, action.getPath())) {
-                actionWrapper.execute(context);
-
-                //String redirect = (String)context.get("redirect");
-                //if(redirect != null){
-                //  return redirect;
-                //}
+        getActionChain(path).executePostEvaluationActions(context);
+    }
+
+    /**
+     * Execute the given actions in order.  Consecutive actions configured
+     * with <code>parallel="true"</code> are executed concurrently, each
+     * with a child of the given context, and their values are merged back
+     * into the context in the list order once they all completed.  The
+     * redirect value is checked after each action or group of parallel
+     * actions.
+     *
+     * @param actions         A List of ActionWrappers
+     * @param context         The current context
+     * @param stopOnRedirect  True for returning as soon as the redirect value is set
+     * @return The redirect value or null
+     * @throws Exception The error of the first failed action
+     */
+
+    public String executeActions(List actions, JPublishContext context, boolean stopOnRedirect)
+            throws Exception {
+        String redirect = null;
+        int size = actions.size();
+        int start = 0;
+        while (start < size) {
+            ActionWrapper action = (ActionWrapper) actions.get(start);
+            int end = start + 1;
+            if (action.isParallel()) {
+                while (end < size && ((ActionWrapper) actions.get(end)).isParallel()) {
+                    end++;
+                }
+            }
+
+            if (end - start == 1) {
+                action.execute(context);
+            } else {
+                executeParallel(actions.subList(start, end), context);
+            }
+            start = end;
+
+            redirect = (String) context.get("redirect");
+            if (redirect != null && stopOnRedirect) {
+                return redirect;
             }
         }
+        return redirect;
+    }
+
+    /**
+     * Execute a group of parallel-safe actions.  The last action of the
+     * group runs on the current thread; when the executor is busy, the
+     * others do as well.
+     */
+
+    private void executeParallel(List group, JPublishContext context) throws Exception {
+        int count = group.size();
+        JPublishContext[] children = new JPublishContext[count];
+        Future[] futures = new Future[count];
+        Throwable[] errors = new Throwable[count];
+
+        for (int i = 0; i < count; i++) {
+            children[i] = context.createChildContext();
+        }
+
+        ExecutorService executor = getExecutor();
+        for (int i = 0; i < count - 1; i++) {
+            final ActionWrapper action = (ActionWrapper) group.get(i);
+            final JPublishContext child = children[i];
+            futures[i] = executor.submit(new Callable() {
+                public Object call() throws Exception {
+                    action.execute(child);
+                    return null;
+                }
+            });
+        }
+
+        try {
+            ((ActionWrapper) group.get(count - 1)).execute(children[count - 1]);
+        } catch (Exception e) {
+            errors[count - 1] = e;
+        }
+
+        for (int i = 0; i < count - 1; i++) {
+            try {
+                futures[i].get();
+            } catch (ExecutionException e) {
+                errors[i] = e.getCause();
+            } catch (InterruptedException e) {
+                for (int j = i; j < count - 1; j++) {
+                    futures[j].cancel(true);
+                }
+                Thread.currentThread().interrupt();
+                throw e;
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            if (errors[i] instanceof Exception) {
+                throw (Exception) errors[i];
+            } else if (errors[i] instanceof Error) {
+                throw (Error) errors[i];
+            }
+        }
+
+        for (int i = 0; i < count; i++) {
+            context.merge(children[i]);
+        }
+    }
+
+    private ExecutorService getExecutor() {
+        ExecutorService current = executor;
+        if (current == null) {
+            synchronized (this) {
+                current = executor;
+                if (current == null) {
+                    ThreadPoolExecutor pool = new ThreadPoolExecutor(parallelThreads, parallelThreads,
+                            60, TimeUnit.SECONDS, new SynchronousQueue(), new ActionThreadFactory(),
+                            new RejectedExecutionHandler() {
+                                public void rejectedExecution(Runnable task, ThreadPoolExecutor pool) {
+                                    // all the threads are busy or the pool is shut down
+                                    task.run();
+                                }
+                            });
+                    pool.allowCoreThreadTimeOut(true);
+                    executor = current = pool;
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Get the pool of script engines used by the script actions of this
+     * site.
+     *
+     * @return The ScriptEnginePool
+     */
+
+    public ScriptEnginePool getScriptEnginePool() {
+        ScriptEnginePool current = scriptEnginePool;
+        if (current == null) {
+            synchronized (this) {
+                current = scriptEnginePool;
+                if (current == null) {
+                    scriptEnginePool = current = new ScriptEnginePool(maxScriptEngines);
+                }
+            }
+        }
+        return current;
+    }
+
+    /**
+     * Release the threads used for executing the parallel actions and the
+     * script engines.
+     */
+
+    public synchronized void destroy() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+        if (scriptEnginePool != null) {
+            scriptEnginePool.destroy();
+        }
     }
 
     /**
@@ -415,19 +636,12 @@ public class ActionManager {
             log.debug("Executing action: " + name);
 
         Action action = findAction(name);
-        final String className = action.getClass().getName();
-        boolean scriptActionWrapper = action.getClass().getName().indexOf(SCRIPT_ACTION) >= 0;
-
-        if (SiteContext.getProfiling() && !scriptActionWrapper) {
 
+        if (SiteContext.getProfiling() && !(action instanceof ScriptAction)) {
+            String className = action.getClass().getName();
             try {
-
                 UtilTimerStack.push(className);
-                Class[] paramTypes = {JPublishContext.class, Configuration.class};
-                Object[] params = {context, configuration};
-                Method execute = action.getClass().getMethod(EXECUTE_METHOD_NAME, paramTypes);
-                ObjectProfiler.profiledInvoke(execute, action, params);
-
+                action.execute(context, configuration);
             } finally {
                 UtilTimerStack.pop(className);
             }
@@ -543,7 +757,10 @@ public class ActionManager {
      * Find an action with the given name.  The name may be the name of an
      * action registered with the ActionManager at startup, an action from a
      * module, a partial file path rooted in the action root directory or a
-     * fully qualified Java class.
+     * fully qualified Java class.  Action files with the <code>.java</code>
+     * extension are compiled in memory, see JavaAction.  Resolved actions
+     * and the names which cannot be resolved are both remembered, so that
+     * the lookup is done only once per name.
      *
      * @param name The name of the action
      * @return The action
@@ -552,13 +769,53 @@ public class ActionManager {
 
     public Action findAction(String name) {
         // look in registered classes first
-        if (log.isDebugEnabled())
-            log.debug("Looking for registered action: " + name);
         Action action = (Action) definedActions.get(name);
         if (action != null) {
             return action;
         }
 
+        // then in the actions already resolved
+        action = (Action) resolvedActions.get(name);
+        if (action != null) {
+            return action;
+        }
+
+        String missing = (String) missingActions.get(name);
+        if (missing != null) {
+            // an action file may have been created since the last lookup
+            if (!exists(new File(siteContext.getRealActionRoot(), name))) {
+                throw new ActionNotFoundException(missing, name);
+            }
+            missingActions.remove(name);
+        }
+
+        try {
+            action = resolveAction(name);
+        } catch (Exception e) {
+            if (log.isDebugEnabled())
+                log.debug("Action not found: " + name + ", " + e);
+            if (missingActions.size() >= MAX_MISSING_ACTIONS) {
+                missingActions.clear();
+            }
+            missingActions.put(name, e.toString());
+            throw new ActionNotFoundException(e, name);
+        }
+
+        Action existing = (Action) resolvedActions.putIfAbsent(name, action);
+        return existing == null ? action : existing;
+    }
+
+    /**
+     * Resolve the action with the given name from the modules, the action
+     * root directory or the classpath.  Actions loaded from the classpath
+     * are instantiated once, just like the defined actions.
+     *
+     * @param name The name of the action
+     * @return The action
+     * @throws Exception If the action cannot be resolved
+     */
+
+    private Action resolveAction(String name) throws Exception {
         // look in modules
         if (log.isDebugEnabled())
             log.debug("Looking for action in modules.");
@@ -566,21 +823,13 @@ public class ActionManager {
         while (modules.hasNext()) {
             JPublishModule module = (JPublishModule) modules.next();
             if (module.getDefinedActions() != null && !module.getDefinedActions().isEmpty()) {
-                action = (Action) (module.getDefinedActions().get(name));
+                Action action = (Action) (module.getDefinedActions().get(name));
                 if (action != null) {
                     return action;
                 }
             }
         }
 
-        // look in the action directory for scripts
-        action = (Action) cachedScriptActions.get(name);
-        if (action != null) {
-            if (log.isDebugEnabled())
-                log.debug("Action: " + name + ", found in script actions cache.");
-            return action;
-        }
-
         if (log.isDebugEnabled())
             log.debug("Looking for action in action root.");
 
@@ -590,25 +839,24 @@ public class ActionManager {
             log.debug("Action root: " + actionRoot);
 
         File actionFile = new File(actionRoot, name);
-        if (actionFile.exists()) {
+        if (exists(actionFile)) {
             if (log.isDebugEnabled())
                 log.debug("Action found [" + actionFile + "]");
-            action = new ScriptAction(siteContext, actionFile);
-            cachedScriptActions.put(name, action);
-            return action;
+            if (actionFile.getName().endsWith(JavaAction.EXTENSION)) {
+                return new JavaAction(siteContext, actionFile);
+            }
+            return new ScriptAction(siteContext, actionFile);
         }
 
         // look in classpath
-        try {
-            if (log.isDebugEnabled())
-                log.debug("Looking for action in the classpath.");
-            action = (Action) ClassUtilities.loadClass(name).newInstance();
-            return action;
-        } catch (Exception e) {
-            e.printStackTrace();
-            throw new ActionNotFoundException(e, name);
-        }
+        if (log.isDebugEnabled())
+            log.debug("Looking for action in the classpath.");
+        return (Action) ClassUtilities.loadClass(name).newInstance();
+    }
 
+    private boolean exists(File file) {
+        FileChangeMonitor fileChangeMonitor = siteContext.getFileChangeMonitor();
+        return fileChangeMonitor == null ? file.exists() : fileChangeMonitor.exists(file);
     }
 
     /**
@@ -620,6 +868,26 @@ public class ActionManager {
      */
 
     public void loadConfiguration(Configuration configuration) throws ConfigurationException {
+        Configuration actionManagerElement = configuration.getChild("action-manager");
+        if (actionManagerElement != null && actionManagerElement.getChild("parallel-actions") != null) {
+            Configuration parallelActionsElement = actionManagerElement.getChild("parallel-actions");
+            try {
+                parallelThreads = Integer.parseInt(parallelActionsElement.getAttribute("threads",
+                        String.valueOf(DEFAULT_PARALLEL_THREADS)));
+            } catch (NumberFormatException e) {
+                throw new ConfigurationException("Invalid threads value", e, parallelActionsElement);
+            }
+        }
+        if (actionManagerElement != null && actionManagerElement.getChild("script-engines") != null) {
+            Configuration scriptEnginesElement = actionManagerElement.getChild("script-engines");
+            try {
+                maxScriptEngines = Integer.parseInt(scriptEnginesElement.getAttribute("max",
+                        String.valueOf(ScriptEnginePool.DEFAULT_MAX_ENGINES)));
+            } catch (NumberFormatException e) {
+                throw new ConfigurationException("Invalid max value", e, scriptEnginesElement);
+            }
+        }
+
         try {
             // load action definitions
             Iterator defineActionElements = configuration.getChildren("define-action").iterator();
@@ -744,4 +1012,18 @@ public class ActionManager {
                 new BreadthFirstFileTreeIterator(baseFile));
     }
 
+    /**
+     * Creates the daemon threads executing the parallel actions.
+     */
+
+    private static class ActionThreadFactory implements ThreadFactory {
+        private AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable task) {
+            Thread thread = new Thread(task, "jpublish-action-" + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
 }
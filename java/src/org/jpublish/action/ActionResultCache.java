@@ -0,0 +1,301 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.jpublish.action;
+
+import com.anthonyeden.lib.config.Configuration;
+import com.anthonyeden.lib.config.ConfigurationException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jpublish.JPublishCacheException;
+import org.jpublish.JPublishContext;
+import org.jpublish.Page;
+import org.jpublish.SiteContext;
+import org.jpublish.util.JPublishCache;
+import org.jpublish.util.JPublishCacheManager;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpSession;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+/**
+ * Remembers the context values produced by an action, so that the action is
+ * executed once per cache key and TTL instead of once per request.  It is
+ * declared with a <code>cache</code> element in the action configuration:
+ * <p/>
+ * <pre>
+ * &lt;page-action name="menu.bsh"&gt;
+ *     &lt;cache name="actions" ttl="300" key="path, parameter:section, locale, session:user"/&gt;
+ * &lt;/page-action&gt;
+ * </pre>
+ * <p/>
+ * <code>name</code> is the JPublishCacheManager cache holding the results,
+ * <code>actions</code> by default or the <code>default</code> cache when
+ * no <code>actions</code> cache is configured, and <code>ttl</code> their
+ * time to live in seconds, 0 for keeping them as long as the cache does.
+ * The key is made of the action id, the <code>id</code> attribute or the
+ * action name by default, and of the values of the listed expressions:
+ * <code>path</code>, the page path; <code>locale</code>, the page or
+ * request locale; <code>parameter:name</code>, a request parameter and
+ * <code>session:name</code>, a session attribute.  The keys are prefixed
+ * with <code>action:</code>, so they do not collide with the other entries
+ * of a shared cache.
+ * <p/>
+ * Results setting the <code>redirect</code> or <code>stop-processing</code>
+ * values are not cached.  The cached values are shared by the requests and
+ * must not be modified by the templates.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class ActionResultCache {
+    private static Log log = LogFactory.getLog(ActionResultCache.class);
+
+    public static final String ELEMENT_CACHE = "cache";
+    public static final String DEFAULT_CACHE_NAME = "actions";
+
+    private static final String KEY_NAMESPACE = "action:";
+
+    private static final String KEY_PATH = "path";
+    private static final String KEY_LOCALE = "locale";
+    private static final String KEY_PARAMETER = "parameter:";
+    private static final String KEY_SESSION = "session:";
+
+    private String cacheName;
+    private long ttl;
+    private String id;
+    private String[] keyExpressions;
+
+    private volatile JPublishCache cache;
+    private volatile boolean cacheResolved = false;
+
+    /**
+     * Construct a new ActionResultCache from the <code>cache</code> element
+     * of an action configuration.
+     *
+     * @param actionConfiguration The action configuration
+     * @param cacheElement        The cache element
+     * @throws ConfigurationException
+     */
+
+    public ActionResultCache(Configuration actionConfiguration, Configuration cacheElement)
+            throws ConfigurationException {
+        cacheName = cacheElement.getAttribute("name", DEFAULT_CACHE_NAME);
+        id = cacheElement.getAttribute("id", actionConfiguration.getAttribute("name"));
+        if (id == null) {
+            id = actionConfiguration.getValue();
+        }
+
+        try {
+            ttl = Long.parseLong(cacheElement.getAttribute("ttl", "0")) * 1000;
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("Invalid ttl value", e, cacheElement);
+        }
+
+        List expressions = new ArrayList();
+        StringTokenizer tokens = new StringTokenizer(cacheElement.getAttribute("key", ""), ", ");
+        while (tokens.hasMoreTokens()) {
+            String expression = tokens.nextToken();
+            if (!expression.equals(KEY_PATH) && !expression.equals(KEY_LOCALE)
+                    && !expression.startsWith(KEY_PARAMETER) && !expression.startsWith(KEY_SESSION)) {
+                throw new ConfigurationException("Invalid cache key expression: " + expression, cacheElement);
+            }
+            expressions.add(expression);
+        }
+        keyExpressions = (String[]) expressions.toArray(new String[expressions.size()]);
+    }
+
+    /**
+     * Create the ActionResultCache declared in the given action
+     * configuration.
+     *
+     * @param actionConfiguration The action configuration or null
+     * @return The ActionResultCache or null if the action is not cached
+     * @throws ConfigurationException
+     */
+
+    public static ActionResultCache create(Configuration actionConfiguration) throws ConfigurationException {
+        if (actionConfiguration == null) {
+            return null;
+        }
+
+        Configuration cacheElement = actionConfiguration.getChild(ELEMENT_CACHE);
+        return cacheElement == null ? null : new ActionResultCache(actionConfiguration, cacheElement);
+    }
+
+    /**
+     * Build the cache key of the result for the current request.  Each
+     * part of the key is prefixed with its length, or is a single
+     * <code>-</code> when the value is null, therefore no value can be
+     * mistaken for a separator.
+     *
+     * @param context The current context
+     * @return The cache key
+     */
+
+    public String getKey(JPublishContext context) {
+        StringBuffer key = new StringBuffer(64);
+        key.append(KEY_NAMESPACE);
+        appendKeyPart(key, id);
+
+        HttpServletRequest request = context.getRequest();
+        Page page = context.getPage();
+
+        for (int i = 0; i < keyExpressions.length; i++) {
+            String expression = keyExpressions[i];
+            Object value = null;
+
+            if (expression.equals(KEY_PATH)) {
+                if (page != null) {
+                    value = page.getPath();
+                } else if (request != null) {
+                    value = request.getRequestURI();
+                }
+            } else if (expression.equals(KEY_LOCALE)) {
+                Locale locale = page == null ? null : page.getLocale();
+                if (locale == null && request != null) {
+                    locale = request.getLocale();
+                }
+                value = locale;
+            } else if (expression.startsWith(KEY_PARAMETER)) {
+                if (request != null) {
+                    value = request.getParameter(expression.substring(KEY_PARAMETER.length()));
+                }
+            } else if (request != null) {
+                HttpSession session = request.getSession(false);
+                if (session != null) {
+                    value = session.getAttribute(expression.substring(KEY_SESSION.length()));
+                }
+            }
+
+            appendKeyPart(key, value);
+        }
+        return key.toString();
+    }
+
+    private static void appendKeyPart(StringBuffer key, Object value) {
+        if (value == null) {
+            key.append('-');
+        } else {
+            String text = value.toString();
+            key.append(text.length()).append(':').append(text);
+        }
+    }
+
+    /**
+     * Get the values cached for the given key.
+     *
+     * @param context The current context
+     * @param key     The cache key
+     * @return A Map of the context values or null if there is no valid result
+     */
+
+    public Map get(JPublishContext context, String key) {
+        JPublishCache cache = getCache(context);
+        if (cache == null) {
+            return null;
+        }
+
+        try {
+            Result result = (Result) cache.get(key);
+            if (result == null) {
+                return null;
+            }
+            if (result.expires > 0 && result.expires <= System.currentTimeMillis()) {
+                cache.remove(key);
+                return null;
+            }
+            return result.values;
+        } catch (JPublishCacheException e) {
+            log.error("Cannot read the cached result of: " + id, e);
+            return null;
+        }
+    }
+
+    /**
+     * Cache the values put by the action into the given child context.
+     *
+     * @param context The current context
+     * @param key     The cache key
+     * @param child   The context the action was executed with
+     */
+
+    public void put(JPublishContext context, String key, JPublishContext child) {
+        JPublishCache cache = getCache(context);
+        if (cache == null) {
+            return;
+        }
+
+        Object[] keys = child.getChildKeys();
+        HashMap values = new HashMap(keys.length * 2);
+        for (int i = 0; i < keys.length; i++) {
+            String name = (String) keys[i];
+            if (name.equals("redirect") || name.equals(JPublishContext.JPUBLISH_STOP_PROCESSING)) {
+                return;
+            }
+            values.put(name, child.internalGet(name));
+        }
+
+        try {
+            cache.put(key, new Result(values, ttl > 0 ? System.currentTimeMillis() + ttl : 0));
+        } catch (JPublishCacheException e) {
+            log.error("Cannot cache the result of: " + id, e);
+        }
+    }
+
+    private JPublishCache getCache(JPublishContext context) {
+        if (!cacheResolved) {
+            SiteContext siteContext = context.getSiteContext();
+            if (siteContext == null) {
+                return null;
+            }
+
+            JPublishCacheManager cacheManager = siteContext.getJPublishCacheManager();
+            cache = cacheManager.getCache(cacheName);
+            if (cache == null && cacheName.equals(DEFAULT_CACHE_NAME)) {
+                // the keys are namespaced, the results can share the site cache
+                cache = cacheManager.getCache(SiteContext.DEFAULT_CACHE_NAME);
+            }
+            cacheResolved = true;
+            if (cache == null) {
+                log.warn("Cache " + cacheName + " not found, the results of " + id + " are not cached");
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * The context values produced by an action and their expiration time.
+     */
+
+    private static class Result implements Serializable {
+        private HashMap values;
+        private long expires;
+
+        Result(HashMap values, long expires) {
+            this.values = values;
+            this.expires = expires;
+        }
+    }
+
+}
@@ -18,13 +18,21 @@
 package org.jpublish.action;
 
 import com.anthonyeden.lib.config.Configuration;
+import com.anthonyeden.lib.config.ConfigurationException;
 import com.atlassian.util.profiling.UtilTimerStack;
 import org.jpublish.JPublishContext;
+import org.jpublish.JPublishRuntimeException;
 import org.jpublish.SiteContext;
+import org.jpublish.metrics.RequestTimer;
+
+import java.util.Iterator;
+import java.util.Map;
 
 /**
  * Wrap an Action allowing configuration information to be passed to the
- * action during the invocation of the execute() method.
+ * action during the invocation of the execute() method.  When the
+ * configuration has a <code>cache</code> element, the values the action
+ * puts into the context are cached, see ActionResultCache.
  *
  * @author Anthony Eden
  * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
@@ -32,8 +40,21 @@ import org.jpublish.SiteContext;
 
 public class ActionWrapper {
 
+    /**
+     * marks an action which may run concurrently with its parallel neighbours
+     */
+    public static final String ATTRIBUTE_PARALLEL = "parallel";
+
     private Action action;
     private Configuration configuration;
+    private String name;
+
+    /**
+     * script and path actions report their own timings
+     */
+    private boolean profiled;
+    private boolean parallel;
+    private ActionResultCache resultCache;
 
     /**
      * Construct a new ActionWrapper for the given Action and configuration.
@@ -45,6 +66,19 @@ public class ActionWrapper {
     public ActionWrapper(Action action, Configuration configuration) {
         this.action = action;
         this.configuration = configuration;
+
+        String className = action.getClass().getName();
+        this.name = configuration != null ? configuration.getAttribute("name", className) : className;
+        this.profiled = className.indexOf(ActionManager.SCRIPT_ACTION) < 0
+                && className.indexOf(ActionManager.PATH_ACTION) < 0;
+        this.parallel = configuration != null
+                && "true".equalsIgnoreCase(configuration.getAttribute(ATTRIBUTE_PARALLEL));
+
+        try {
+            this.resultCache = ActionResultCache.create(configuration);
+        } catch (ConfigurationException e) {
+            throw new JPublishRuntimeException(e.getMessage(), e);
+        }
     }
 
     /**
@@ -58,25 +92,69 @@ public class ActionWrapper {
     }
 
     /**
-     * Execute the action using the given context.
+     * Return true if the action was configured with
+     * <code>parallel="true"</code>, meaning it does not depend on the
+     * actions next to it and may run concurrently with them.
+     *
+     * @return True if the action is parallel-safe
+     */
+
+    public boolean isParallel() {
+        return parallel;
+    }
+
+    /**
+     * Execute the action using the given context.  A cached action puts
+     * its cached values into the context instead, when there are any.
      *
      * @param context The current JPublish context
      * @throws Exception Any Exception
      */
     public void execute(JPublishContext context) throws Exception {
-        boolean scriptOrPathActionWrapper = action.getClass().getName()
-                .indexOf(ActionManager.SCRIPT_ACTION) >= 0 || action.getClass().getName()
-                .indexOf(ActionManager.PATH_ACTION) >=0;
+        if (resultCache == null) {
+            invoke(context);
+            return;
+        }
+
+        String key = resultCache.getKey(context);
+        Map values = resultCache.get(context, key);
+        if (values != null) {
+            Iterator entries = values.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry entry = (Map.Entry) entries.next();
+                context.put((String) entry.getKey(), entry.getValue());
+            }
+            return;
+        }
+
+        JPublishContext child = context.createChildContext();
+        invoke(child);
+        context.merge(child);
+        resultCache.put(context, key, child);
+    }
+
+    private void invoke(JPublishContext context) throws Exception {
+        boolean profiling = profiled && SiteContext.getProfiling();
+        long start = System.nanoTime();
 
         try {
-            if (SiteContext.getProfiling() && !scriptOrPathActionWrapper) {
+            if (profiling) {
                 UtilTimerStack.push(action.getClass().getName());
             }
             action.execute(context, configuration);
         } finally {
-            if (SiteContext.getProfiling() && !scriptOrPathActionWrapper) {
+            if (profiling) {
                 UtilTimerStack.pop(action.getClass().getName());
             }
+            long elapsed = System.nanoTime() - start;
+            SiteContext siteContext = context.getSiteContext();
+            if (siteContext != null) {
+                siteContext.getRequestMetrics().recordAction(name, elapsed);
+            }
+            RequestTimer timer = context.getRequestTimer();
+            if (timer != null) {
+                timer.record(RequestTimer.ACTION, name, elapsed);
+            }
         }
     }
 
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.jpublish.action;
+
+import com.anthonyeden.lib.config.Configuration;
+import com.atlassian.util.profiling.UtilTimerStack;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.codehaus.janino.Scanner;
+import org.codehaus.janino.SimpleCompiler;
+import org.jpublish.JPublishContext;
+import org.jpublish.SiteContext;
+import org.jpublish.util.FileCopyUtils;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.StringReader;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An action written as a Java source file in the action root.  The file is
+ * compiled in memory with Janino the first time the action is executed,
+ * and compiled again whenever it is modified; the actions run as regular
+ * bytecode afterwards.
+ * <p/>
+ * The file must declare a public class implementing
+ * <code>org.jpublish.action.Action</code>, named after the file and having
+ * a public no-argument constructor:
+ * <p/>
+ * <pre>
+ * package actions;
+ *
+ * import org.jpublish.JPublishContext;
+ * import org.jpublish.action.Action;
+ * import com.anthonyeden.lib.config.Configuration;
+ *
+ * public class HelloAction implements Action {
+ *     public void execute(JPublishContext context, Configuration configuration) {
+ *         context.put("message", "Hello");
+ *     }
+ * }
+ * </pre>
+ * <p/>
+ * One instance is created per compilation and shared by all the requests,
+ * just like the actions defined with <code>define-action</code>, therefore
+ * it must be thread safe.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class JavaAction implements Action {
+
+    private static Log log = LogFactory.getLog(JavaAction.class);
+
+    /**
+     * the extension of the action files compiled by JavaAction
+     */
+    public static final String EXTENSION = ".java";
+
+    private static final Pattern PACKAGE_PATTERN =
+            Pattern.compile("^\\s*package\\s+([\\w.]+)\\s*;", Pattern.MULTILINE);
+
+    private SiteContext siteContext;
+    private File source;
+    private volatile CompiledAction compiled;
+
+    /**
+     * Construct a new JavaAction for the given Java source file.
+     *
+     * @param siteContext The SiteContext
+     * @param source      The Java source file
+     */
+
+    public JavaAction(SiteContext siteContext, File source) {
+        this.siteContext = siteContext;
+        this.source = source;
+        if (log.isDebugEnabled())
+            log.debug("Creating new JavaAction for " + source.getName());
+    }
+
+    /**
+     * Execute the compiled action, compiling the source file first if it is
+     * new or was modified since it was last compiled.
+     *
+     * @param context       The current context
+     * @param configuration The configuration object
+     * @throws Exception
+     */
+
+    public void execute(JPublishContext context, Configuration configuration) throws Exception {
+        Action action = getAction();
+        if (!SiteContext.getProfiling()) {
+            action.execute(context, configuration);
+            return;
+        }
+
+        try {
+            UtilTimerStack.push(source.getName());
+            action.execute(context, configuration);
+        } finally {
+            UtilTimerStack.pop(source.getName());
+        }
+    }
+
+    /**
+     * Get the action instance compiled from the current version of the
+     * source file.  A failed compilation is remembered as well, its error is
+     * thrown again without compiling until the source file is modified.
+     *
+     * @return The Action
+     * @throws Exception If the source cannot be compiled or instantiated
+     */
+
+    public Action getAction() throws Exception {
+        long lastModified = siteContext == null ?
+                source.lastModified() : siteContext.getFileChangeMonitor().lastModified(source);
+
+        CompiledAction current = compiled;
+        if (current == null || current.lastModified != lastModified) {
+            synchronized (this) {
+                current = compiled;
+                if (current == null || current.lastModified != lastModified) {
+                    try {
+                        current = new CompiledAction(compile(), null, lastModified);
+                    } catch (Exception e) {
+                        log.error("Cannot compile Java action " + source + ": " + e.getMessage());
+                        current = new CompiledAction(null, e, lastModified);
+                    }
+                    compiled = current;
+                }
+            }
+        }
+
+        if (current.failure != null) {
+            throw current.failure;
+        }
+        return current.action;
+    }
+
+    /**
+     * Compile the source file and create an instance of the action class.
+     *
+     * @return The Action
+     * @throws Exception
+     */
+
+    private Action compile() throws Exception {
+        if (log.isDebugEnabled())
+            log.debug("Compiling Java action: " + source);
+
+        String text = FileCopyUtils.copyToString(new FileReader(source));
+        String className = source.getName().substring(0, source.getName().length() - EXTENSION.length());
+        Matcher matcher = PACKAGE_PATTERN.matcher(text);
+        if (matcher.find()) {
+            className = matcher.group(1) + "." + className;
+        }
+
+        ClassLoader parent = Thread.currentThread().getContextClassLoader();
+        if (parent == null) {
+            parent = JavaAction.class.getClassLoader();
+        }
+
+        SimpleCompiler compiler = new SimpleCompiler(new Scanner(source.getPath(), new StringReader(text)), parent);
+        Class actionClass = compiler.getClassLoader().loadClass(className);
+        if (!Action.class.isAssignableFrom(actionClass)) {
+            throw new ClassCastException(className + " does not implement " + Action.class.getName());
+        }
+
+        log.info("Compiled Java action: " + className);
+        return (Action) actionClass.newInstance();
+    }
+
+    /**
+     * An action instance compiled from a given version of the source file,
+     * or the error the compilation of that version failed with.
+     */
+
+    private static class CompiledAction {
+        private Action action;
+        private Exception failure;
+        private long lastModified;
+
+        CompiledAction(Action action, Exception failure, long lastModified) {
+            this.action = action;
+            this.failure = failure;
+            this.lastModified = lastModified;
+        }
+    }
+}
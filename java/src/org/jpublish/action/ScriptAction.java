@@ -27,12 +27,22 @@ import org.jpublish.JPublishContext;
 import org.jpublish.Page;
 import org.jpublish.SiteContext;
 
+import javax.script.Bindings;
+import javax.script.Compilable;
+import javax.script.CompiledScript;
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptException;
 import javax.servlet.ServletContext;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 import java.io.File;
 import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
 
 /**
  * An action which is implemented in a BSF supported scripting language.
@@ -59,6 +69,10 @@ import java.io.FileReader;
  * <p/>
  * <p>If the action is executed with a configuration object then that object
  * will be included as <code>configuration</code>.</p>
+ * <p/>
+ * <p>If a JSR-223 script engine is registered for the script file
+ * extension, the script is compiled once per version of the file and
+ * executed with fresh bindings on pooled engines; BSF is used otherwise.</p>
  *
  * @author Anthony Eden
  * @author David Jones
@@ -68,11 +82,30 @@ public class ScriptAction implements Action {
 
     private static Log log = LogFactory.getLog(ScriptAction.class);
 
+    /**
+     * the types the beans exposed to the script are declared with in BSF
+     */
+    private static final Map BEAN_TYPES = new HashMap();
+
+    static {
+        BEAN_TYPES.put("context", JPublishContext.class);
+        BEAN_TYPES.put("page", Page.class);
+        BEAN_TYPES.put("request", HttpServletRequest.class);
+        BEAN_TYPES.put("response", HttpServletResponse.class);
+        BEAN_TYPES.put("session", HttpSession.class);
+        BEAN_TYPES.put("application", ServletContext.class);
+        BEAN_TYPES.put("syslog", Log.class);
+        BEAN_TYPES.put("site", SiteContext.class);
+        BEAN_TYPES.put("configuration", Configuration.class);
+    }
+
     private SiteContext siteContext;
     private File script;
     private String scriptLang = null;
-    private long timeLastLoaded = 0;
-    private String scriptString = null;
+    private volatile ScriptSource source;
+
+    private volatile boolean engineFactoryResolved = false;
+    private ScriptEngineFactory engineFactory;
 
     /**
      * Construct a new ScriptAction for the given script.  The path to the
@@ -101,7 +134,9 @@ public class ScriptAction implements Action {
     }
 
     /**
-     * Execute the action script represented by this ScriptAction.
+     * Execute the action script represented by this ScriptAction.  When a
+     * JSR-223 engine is available for the script language the script is
+     * compiled once per file version, otherwise it is executed with BSF.
      *
      * @param context       The current context
      * @param configuration The configuration object
@@ -112,107 +147,229 @@ public class ScriptAction implements Action {
         if (log.isDebugEnabled())
             log.debug("Executing script: " + script);
 
-        BSFManager bsfManager = new BSFManager();
+        ScriptSource source = getSource();
+        ScriptEngineFactory engineFactory = getEngineFactory();
 
-        // expose standard items in the context
-        if (context != null) {
-            ServletContext application = (ServletContext) context.get("application");
-            HttpServletRequest request = (HttpServletRequest) context.get("request");
-            HttpServletResponse response = (HttpServletResponse) context.get("response");
-            HttpSession session = (HttpSession) context.get("session");
-            Page page = (Page) context.get("page");
+        boolean profiling = SiteContext.getProfiling();
+        try {
+            if (profiling) {
+                UtilTimerStack.push(script.getName());
+            }
+            if (engineFactory != null) {
+                executeCompiled(engineFactory, source, context, configuration);
+            } else {
+                executeBSF(source, context, configuration);
+            }
+        } finally {
+            if (profiling) {
+                UtilTimerStack.pop(script.getName());
+            }
+        }
+    }
 
-            // expose the context
-            bsfManager.declareBean("context", context, JPublishContext.class);
+    /**
+     * Get the script source, loading it again if the script file was
+     * modified since it was last loaded.
+     *
+     * @return The ScriptSource
+     * @throws IOException
+     */
 
-            // expose the context.  This variable has been removed as of JP2.
-            //bsfManager.declareBean("vc", context, JPublishContext.class);
+    private ScriptSource getSource() throws IOException {
+        long scriptLastModified = siteContext == null ?
+                script.lastModified() : siteContext.getFileChangeMonitor().lastModified(script);
 
-            // expose the page object.
-            if (page == null) {
-                if (log.isDebugEnabled())
-                    log.debug("Page request is null");
-            } else {
-                bsfManager.declareBean("page", page, Page.class);
+        ScriptSource current = source;
+        if (current == null || current.lastModified != scriptLastModified) {
+            synchronized (this) {
+                current = source;
+                if (current == null || current.lastModified != scriptLastModified) {
+                    if (log.isDebugEnabled())
+                        log.debug("Loading updated or new script: " + script.getName());
+
+                    FileReader reader = new FileReader(script);
+                    try {
+                        current = new ScriptSource(IOUtils.getStringFromReader(reader), scriptLastModified);
+                    } finally {
+                        reader.close();
+                    }
+                    source = current;
+                }
             }
+        }
+        return current;
+    }
 
-            // expose standard HttpServlet objects
-            if (request == null) {
-                if (log.isDebugEnabled())
-                    log.debug("HTTP request is null");
-            } else {
-                bsfManager.declareBean("request", request, HttpServletRequest.class);
+    /**
+     * Get the factory of the JSR-223 engine registered for the script file
+     * extension, or null if there is none.
+     *
+     * @return The ScriptEngineFactory or null
+     */
+
+    private ScriptEngineFactory getEngineFactory() {
+        if (!engineFactoryResolved) {
+            ScriptEnginePool scriptEnginePool = getScriptEnginePool();
+            if (scriptEnginePool != null) {
+                String extension = script.getName().substring(script.getName().lastIndexOf('.') + 1);
+                engineFactory = scriptEnginePool.getFactory(extension);
             }
+            engineFactoryResolved = true;
 
-            if (response == null) {
-                if (log.isDebugEnabled())
-                    log.debug("HTTP response is null");
-            } else {
-                bsfManager.declareBean("response", response, HttpServletResponse.class);
+            if (log.isDebugEnabled())
+                log.debug("Script engine for " + script.getName() + ": " +
+                        (engineFactory == null ? "BSF" : engineFactory.getEngineName()));
+        }
+        return engineFactory;
+    }
+
+    /**
+     * The pool of script engines owned by the site's ActionManager, or null
+     * if the action has no site.
+     */
+
+    private ScriptEnginePool getScriptEnginePool() {
+        if (siteContext == null || siteContext.getActionManager() == null) {
+            return null;
+        }
+        return siteContext.getActionManager().getScriptEnginePool();
+    }
+
+    /**
+     * Execute the script with a JSR-223 engine borrowed from the site's
+     * pool.  Each invocation gets its own bindings; the script is compiled
+     * once per pooled engine and file version.
+     */
+
+    private void executeCompiled(ScriptEngineFactory engineFactory, ScriptSource source,
+                                 JPublishContext context, Configuration configuration) throws Exception {
+        ScriptEnginePool scriptEnginePool = getScriptEnginePool();
+        ScriptEnginePool.PooledEngine pooledEngine = scriptEnginePool.borrow(engineFactory);
+        try {
+            CompiledSource compiled = (CompiledSource) pooledEngine.getCompiled(this);
+            if (compiled == null || compiled.source != source) {
+                compiled = new CompiledSource(source, pooledEngine.getEngine());
+                pooledEngine.putCompiled(this, compiled);
             }
 
-            if (session == null) {
-                if (log.isDebugEnabled())
-                    log.debug("HTTP session is null");
-            } else {
-                bsfManager.declareBean("session", session, HttpSession.class);
+            Bindings bindings = compiled.engine.createBindings();
+            Map beans = getBeans(context, configuration);
+            Iterator names = beans.keySet().iterator();
+            while (names.hasNext()) {
+                String name = (String) names.next();
+                bindings.put(name, beans.get(name));
             }
+            bindings.put(ScriptEngine.FILENAME, script.getPath());
 
-            if (application == null) {
-                if (log.isDebugEnabled())
-                    log.debug("ServletContext is null");
+            if (compiled.compiledScript != null) {
+                compiled.compiledScript.eval(bindings);
             } else {
-                bsfManager.declareBean("application", application, ServletContext.class);
+                compiled.engine.eval(source.text, bindings);
             }
+        } finally {
+            scriptEnginePool.release(pooledEngine);
+        }
+    }
+
+    /**
+     * Execute the script with BSF.  BSF engines keep the variables defined
+     * by a script, therefore a new BSFManager is used for each invocation.
+     */
+
+    private void executeBSF(ScriptSource source, JPublishContext context, Configuration configuration)
+            throws Exception {
+        if (scriptLang == null) {
+            scriptLang = BSFManager.getLangFromFilename(script.getName());
+        }
+
+        BSFManager bsfManager = new BSFManager();
+        Map beans = getBeans(context, configuration);
+        Iterator names = beans.keySet().iterator();
+        while (names.hasNext()) {
+            String name = (String) names.next();
+            bsfManager.declareBean(name, beans.get(name), (Class) BEAN_TYPES.get(name));
+        }
+
+        bsfManager.exec(scriptLang, script.getCanonicalPath(), 0, 0, source.text);
+    }
+
+    /**
+     * Get the objects exposed to the script.
+     *
+     * @param context       The current context or null
+     * @param configuration The configuration object or null
+     * @return A Map of bean names and values
+     */
+
+    private Map getBeans(JPublishContext context, Configuration configuration) {
+        Map beans = new HashMap(16);
+
+        // expose standard items in the context
+        if (context != null) {
+            // expose the context
+            beans.put("context", context);
+
+            // expose the context.  This variable has been removed as of JP2.
+            //bsfManager.declareBean("vc", context, JPublishContext.class);
+
+            putBean(beans, "page", context.get("page"), "Page request is null");
+            putBean(beans, "request", context.get("request"), "HTTP request is null");
+            putBean(beans, "response", context.get("response"), "HTTP response is null");
+            putBean(beans, "session", context.get("session"), "HTTP session is null");
+            putBean(beans, "application", context.get("application"), "ServletContext is null");
         }
 
         // these objects are exposed regardless if there is a context
         // object or not.  In other words they are accesible to startup
         // actions
-        bsfManager.declareBean("syslog", SiteContext.syslog, Log.class);
+        beans.put("syslog", SiteContext.syslog);
 
-        if (siteContext == null) {
-            if (log.isDebugEnabled())
-                log.debug("SiteContext is null");
-        } else {
-            bsfManager.declareBean("site", siteContext, SiteContext.class);
-        }
+        putBean(beans, "site", siteContext, "SiteContext is null");
+        putBean(beans, "configuration", configuration, "Configuration is null");
+        return beans;
+    }
 
-        if (configuration == null) {
+    private void putBean(Map beans, String name, Object value, String nullMessage) {
+        if (value == null) {
             if (log.isDebugEnabled())
-                log.debug("Configuration is null");
+                log.debug(nullMessage);
         } else {
-            bsfManager.declareBean("configuration", configuration, Configuration.class);
+            beans.put(name, value);
         }
+    }
 
-        // The following code was added by David Jones.  This will have
-        // to be rewritten to use an ActionContent object for getting the
-        // last modified time once I get to writing it. -AE
-        if (scriptLang == null) {
-            scriptLang = BSFManager.getLangFromFilename(script.getName());
-        }
+    /**
+     * The script text loaded from a given version of the script file.
+     */
 
-        boolean reloadScript = false;
-        long scriptLastModified = script.lastModified();
-        if (scriptLastModified > timeLastLoaded) {
-            if (log.isDebugEnabled())
-                log.debug("Loading updated or new script: " + script.getName());
-            reloadScript = true;
+    private static class ScriptSource {
+        private String text;
+        private long lastModified;
+
+        ScriptSource(String text, long lastModified) {
+            this.text = text;
+            this.lastModified = lastModified;
         }
+    }
 
-        if (reloadScript || scriptString == null) {
-            synchronized (this) {
-                if (reloadScript || scriptString == null) {
-                    timeLastLoaded = System.currentTimeMillis();
-                    scriptString = IOUtils.getStringFromReader(new FileReader(script));
-                }
+    /**
+     * A script version compiled by a JSR-223 engine.  The compiled script is
+     * null if the engine does not support compilation.
+     */
+
+    private class CompiledSource {
+        private ScriptSource source;
+        private ScriptEngine engine;
+        private CompiledScript compiledScript;
+
+        CompiledSource(ScriptSource source, ScriptEngine engine) throws ScriptException {
+            this.source = source;
+            this.engine = engine;
+            if (engine instanceof Compilable) {
+                if (log.isDebugEnabled())
+                    log.debug("Compiling script: " + script.getName());
+                compiledScript = ((Compilable) engine).compile(source.text);
             }
         }
-        try {
-            UtilTimerStack.push(script.getName());
-            bsfManager.exec(scriptLang, script.getCanonicalPath(), 0, 0, scriptString);
-        } finally {
-            UtilTimerStack.pop(script.getName());
-        }
     }
 }
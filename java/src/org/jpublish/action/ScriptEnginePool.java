@@ -0,0 +1,301 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.jpublish.action;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jpublish.JPublishRuntimeException;
+
+import javax.script.ScriptEngine;
+import javax.script.ScriptEngineFactory;
+import javax.script.ScriptEngineManager;
+import java.util.Iterator;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Pool of the JSR-223 script engines used by the script actions of a
+ * site.  Engines declaring themselves thread safe are shared by all the
+ * threads, the others are lent to one thread at a time and at most
+ * <code>maxEngines</code> of them are created per language.  Each pooled
+ * engine keeps the scripts compiled with it, so a script is compiled once
+ * per engine rather than once per request thread.
+ * <p/>
+ * The pool is owned by the ActionManager and released when the site is
+ * destroyed.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class ScriptEnginePool {
+    private static final Log log = LogFactory.getLog(ScriptEnginePool.class);
+
+    public static final int DEFAULT_MAX_ENGINES = 8;
+
+    /**
+     * maximum time, in milliseconds, a script action waits for an engine
+     */
+    public static final long BORROW_TIMEOUT = 30000;
+
+    /**
+     * put in the queues of a destroyed pool, so that the waiters wake up
+     */
+    private static final PooledEngine DESTROYED = new PooledEngine(null, null, false);
+
+    private int maxEngines;
+    private ScriptEngineManager scriptEngineManager;
+    private ConcurrentMap sharedEngines = new ConcurrentHashMap();
+    private ConcurrentMap engineQueues = new ConcurrentHashMap();
+    private volatile boolean destroyed = false;
+
+    /**
+     * Construct a new ScriptEnginePool.
+     *
+     * @param maxEngines The maximum number of engines created per language
+     *                   when the engine is not thread safe
+     */
+
+    public ScriptEnginePool(int maxEngines) {
+        this.maxEngines = Math.max(1, maxEngines);
+    }
+
+    /**
+     * Get the factory of the engine registered for the given script file
+     * extension.
+     *
+     * @param extension The file extension, without the dot
+     * @return The ScriptEngineFactory or null if there is none
+     */
+
+    public ScriptEngineFactory getFactory(String extension) {
+        Iterator factories = getScriptEngineManager().getEngineFactories().iterator();
+        while (factories.hasNext()) {
+            ScriptEngineFactory factory = (ScriptEngineFactory) factories.next();
+            if (factory.getExtensions().contains(extension)) {
+                return factory;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return true if an engine created by the given factory can evaluate
+     * scripts from several threads at once.
+     *
+     * @param factory The ScriptEngineFactory
+     * @return True if the engine is thread safe
+     */
+
+    public static boolean isThreadSafe(ScriptEngineFactory factory) {
+        // null means the engine is not thread safe
+        Object threading = factory.getParameter("THREADING");
+        return "MULTITHREADED".equals(threading) || "THREAD-ISOLATED".equals(threading)
+                || "STATELESS".equals(threading);
+    }
+
+    /**
+     * Borrow an engine created by the given factory.  The caller must give
+     * it back with <code>release()</code> once the script is evaluated.
+     * When all the engines of a language which is not thread safe are in
+     * use, the caller waits for one of them to be released, at most
+     * BORROW_TIMEOUT milliseconds.  Once the pool is destroyed, the callers
+     * get engines which are not pooled.
+     *
+     * @param factory The ScriptEngineFactory
+     * @return The PooledEngine
+     * @throws InterruptedException
+     * @throws JPublishRuntimeException If no engine is released in time
+     */
+
+    public PooledEngine borrow(ScriptEngineFactory factory) throws InterruptedException {
+        if (destroyed) {
+            // an engine marked as shared is never given back to the pool
+            return new PooledEngine(factory, factory.getScriptEngine(), true);
+        }
+
+        if (isThreadSafe(factory)) {
+            PooledEngine engine = (PooledEngine) sharedEngines.get(factory);
+            if (engine == null) {
+                engine = new PooledEngine(factory, factory.getScriptEngine(), true);
+                PooledEngine existing = (PooledEngine) sharedEngines.putIfAbsent(factory, engine);
+                if (existing != null) {
+                    engine = existing;
+                }
+            }
+            return engine;
+        }
+
+        EngineQueue engines = getEngineQueue(factory);
+        PooledEngine engine = (PooledEngine) engines.idle.poll();
+        if (engine == null) {
+            int count = engines.count.incrementAndGet();
+            if (count <= maxEngines) {
+                boolean created = false;
+                try {
+                    if (log.isDebugEnabled())
+                        log.debug("Creating script engine " + count + " for " + factory.getEngineName());
+                    engine = new PooledEngine(factory, factory.getScriptEngine(), false);
+                    created = true;
+                    return engine;
+                } finally {
+                    if (!created) {
+                        engines.count.decrementAndGet();
+                    }
+                }
+            }
+            engines.count.decrementAndGet();
+
+            engine = (PooledEngine) engines.idle.poll(BORROW_TIMEOUT, TimeUnit.MILLISECONDS);
+            if (engine == null) {
+                throw new JPublishRuntimeException("No " + factory.getEngineName()
+                        + " script engine was released within " + BORROW_TIMEOUT + " ms, all the "
+                        + maxEngines + " engines are in use");
+            }
+        }
+
+        if (engine == DESTROYED) {
+            // wake the next waiter too
+            engines.idle.offer(DESTROYED);
+            return new PooledEngine(factory, factory.getScriptEngine(), true);
+        }
+        return engine;
+    }
+
+    /**
+     * Give back an engine obtained with <code>borrow()</code>.
+     *
+     * @param engine The PooledEngine
+     */
+
+    public void release(PooledEngine engine) {
+        if (engine.shared || destroyed) {
+            return;
+        }
+        getEngineQueue(engine.factory).idle.offer(engine);
+    }
+
+    /**
+     * Release all the engines and the scripts compiled with them.  The
+     * threads waiting for an engine are woken and given engines which are
+     * not pooled.
+     */
+
+    public void destroy() {
+        destroyed = true;
+        sharedEngines.clear();
+        Iterator queues = engineQueues.values().iterator();
+        while (queues.hasNext()) {
+            EngineQueue engines = (EngineQueue) queues.next();
+            engines.idle.clear();
+            engines.idle.offer(DESTROYED);
+        }
+        synchronized (this) {
+            scriptEngineManager = null;
+        }
+    }
+
+    private EngineQueue getEngineQueue(ScriptEngineFactory factory) {
+        EngineQueue engines = (EngineQueue) engineQueues.get(factory);
+        if (engines == null) {
+            engines = new EngineQueue();
+            EngineQueue existing = (EngineQueue) engineQueues.putIfAbsent(factory, engines);
+            if (existing != null) {
+                engines = existing;
+            }
+        }
+        return engines;
+    }
+
+    private synchronized ScriptEngineManager getScriptEngineManager() {
+        if (scriptEngineManager == null) {
+            scriptEngineManager = new ScriptEngineManager(Thread.currentThread().getContextClassLoader());
+            if (log.isDebugEnabled())
+                log.debug("Script engines available: " + scriptEngineManager.getEngineFactories().size());
+        }
+        return scriptEngineManager;
+    }
+
+    /**
+     * The idle engines of a language which is not thread safe and the
+     * number of engines created for it.
+     */
+
+    private static class EngineQueue {
+        private BlockingQueue idle = new LinkedBlockingQueue();
+        private AtomicInteger count = new AtomicInteger();
+    }
+
+    /**
+     * A script engine together with the scripts compiled with it.
+     */
+
+    public static class PooledEngine {
+        private static final int MAX_COMPILED_SCRIPTS = 256;
+
+        private ScriptEngineFactory factory;
+        private ScriptEngine engine;
+        private boolean shared;
+        private ConcurrentMap compiledScripts = new ConcurrentHashMap();
+
+        PooledEngine(ScriptEngineFactory factory, ScriptEngine engine, boolean shared) {
+            this.factory = factory;
+            this.engine = engine;
+            this.shared = shared;
+        }
+
+        /**
+         * Get the script engine.
+         *
+         * @return The ScriptEngine
+         */
+
+        public ScriptEngine getEngine() {
+            return engine;
+        }
+
+        /**
+         * Get the script compiled with this engine for the given key.
+         *
+         * @param key The key, usually the script action
+         * @return The compiled script or null
+         */
+
+        public Object getCompiled(Object key) {
+            return compiledScripts.get(key);
+        }
+
+        /**
+         * Keep a script compiled with this engine.
+         *
+         * @param key      The key, usually the script action
+         * @param compiled The compiled script
+         */
+
+        public void putCompiled(Object key, Object compiled) {
+            if (compiledScripts.size() >= MAX_COMPILED_SCRIPTS) {
+                compiledScripts.clear();
+            }
+            compiledScripts.put(key, compiled);
+        }
+    }
+
+}
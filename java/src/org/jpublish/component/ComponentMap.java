@@ -29,6 +29,15 @@ import org.jpublish.JPublishComponent;
 
 public class ComponentMap{
     
+    /** Builds the ComponentMap of a context when it is first read. */
+    
+    public static final JPublishContext.ValueSupplier SUPPLIER = 
+    new JPublishContext.ValueSupplier(){
+        public Object get(JPublishContext context){
+            return new ComponentMap(context);
+        }
+    };
+    
     private JPublishContext context;
     
     /** Construct a new ComponentMap. */
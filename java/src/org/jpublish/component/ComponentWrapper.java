@@ -22,6 +22,7 @@ import org.apache.commons.logging.LogFactory;
 import org.jpublish.JPublishComponent;
 import org.jpublish.JPublishContext;
 import org.jpublish.Page;
+import org.jpublish.metrics.RequestTimer;
 
 /**
  * Runtime wrapper for a component.
@@ -59,6 +60,7 @@ public class ComponentWrapper {
      */
 
     public String toString() {
+        long start = startTiming();
         try {
             Page page = (Page) context.get(JPublishContext.JPUBLISH_PAGE);
             return component.render(page.getPath(), context);
@@ -66,6 +68,8 @@ public class ComponentWrapper {
             log.error("Error rendering component " + component.getName());
             e.printStackTrace();
             return EMPTY_STRING;
+        } finally {
+            endTiming(start);
         }
     }
 
@@ -76,6 +80,7 @@ public class ComponentWrapper {
      * @return The rendered component
      */
     public String renderText(String text) {
+        long start = startTiming();
         try {
             return component.renderText(text, context);
         } catch (Exception e) {
@@ -84,6 +89,8 @@ public class ComponentWrapper {
                     "\n=====================\n, for the component " + component.getName());
             e.printStackTrace();
             return EMPTY_STRING;
+        } finally {
+            endTiming(start);
         }
     }
 
@@ -94,6 +101,7 @@ public class ComponentWrapper {
      * @return The rendered component
      */
     public String renderPath(String path) {
+        long start = startTiming();
         try {
             return component.renderPath(path, context);
         } catch (Exception e) {
@@ -101,6 +109,24 @@ public class ComponentWrapper {
                     + component.getName());
             e.printStackTrace();
             return EMPTY_STRING;
+        } finally {
+            endTiming(start);
+        }
+    }
+
+    /**
+     * Get the time a render starts at, or 0 if the request is not traced.
+     */
+
+    private long startTiming() {
+        RequestTimer timer = context.getRequestTimer();
+        return timer != null && timer.isTracing() ? System.nanoTime() : 0;
+    }
+
+    private void endTiming(long start) {
+        if (start != 0) {
+            context.getRequestTimer().record(RequestTimer.COMPONENT, component.getName(),
+                    System.nanoTime() - start);
         }
     }
 
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.jpublish.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Lock-free histogram of durations.  The durations are counted in buckets
+ * whose upper bounds are the powers of two in microseconds, from 1us to
+ * about 18 minutes, so recording a value is a few atomic increments and
+ * the percentiles are known within a factor of two.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class Histogram {
+
+    public static final int BUCKETS = 32;
+
+    private AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private LongAdder count = new LongAdder();
+    private LongAdder sum = new LongAdder();
+    private AtomicLong max = new AtomicLong();
+
+    /**
+     * Record a duration.
+     *
+     * @param nanos The duration in nanoseconds
+     */
+
+    public void record(long nanos) {
+        if (nanos < 0) {
+            nanos = 0;
+        }
+
+        buckets.incrementAndGet(getBucket(nanos / 1000));
+        count.increment();
+        sum.add(nanos);
+
+        long current = max.get();
+        while (nanos > current && !max.compareAndSet(current, nanos)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * Get the number of durations recorded.
+     *
+     * @return The count
+     */
+
+    public long getCount() {
+        return count.sum();
+    }
+
+    /**
+     * Get the total of the durations recorded.
+     *
+     * @return The sum in nanoseconds
+     */
+
+    public long getSum() {
+        return sum.sum();
+    }
+
+    /**
+     * Get the longest duration recorded.
+     *
+     * @return The maximum in nanoseconds
+     */
+
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Get the number of durations counted in the given bucket.
+     *
+     * @param bucket The bucket index, from 0 to BUCKETS - 1
+     * @return The bucket count
+     */
+
+    public long getBucketCount(int bucket) {
+        return buckets.get(bucket);
+    }
+
+    /**
+     * Get the upper bound of the given bucket.  The last bucket has no
+     * upper bound and returns Long.MAX_VALUE.
+     *
+     * @param bucket The bucket index
+     * @return The upper bound in microseconds
+     */
+
+    public static long getBucketBound(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    /**
+     * Estimate a percentile of the durations recorded, as the upper bound
+     * of the bucket holding it.
+     *
+     * @param percentile The percentile, between 0 and 100
+     * @return The estimated duration in nanoseconds, 0 if nothing was recorded
+     */
+
+    public long getPercentile(double percentile) {
+        long total = 0;
+        long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = buckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS - 1; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(getBucketBound(i) * 1000, getMax());
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Forget all the durations recorded.
+     */
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0);
+        }
+        count.reset();
+        sum.reset();
+        max.set(0);
+    }
+
+    private static int getBucket(long micros) {
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return bucket < BUCKETS ? bucket : BUCKETS - 1;
+    }
+
+}
@@ -0,0 +1,314 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.jpublish.metrics;
+
+import net.sf.ehcache.Statistics;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jpublish.PageManager;
+import org.jpublish.SiteContext;
+import org.jpublish.TemplateManager;
+import org.jpublish.page.AbstractPageManager;
+import org.jpublish.template.AbstractTemplateManager;
+import org.jpublish.util.JPublishCache;
+import org.jpublish.util.JPublishCacheManager;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes the site metrics in the Prometheus text exposition format: the
+ * request phase and action durations as histograms in seconds, the static
+ * bytes served, the errors passed to each error handler and, for every
+ * JPublishCacheManager cache, the hits, misses, hit ratio and entries, as
+ * well as the number of cached page definitions and templates.
+ * <p/>
+ * Every value is read from counters maintained while serving the requests,
+ * so writing the metrics does not touch the request path.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ * @see RequestMetrics
+ */
+
+public class PrometheusExporter {
+    private static final Log log = LogFactory.getLog(PrometheusExporter.class);
+
+    public static final String CONTENT_TYPE = "text/plain; version=0.0.4; charset=UTF-8";
+
+    /**
+     * the Histogram buckets exported, from 16us to about 16s; the shorter
+     * durations are counted in the first one and the longer in +Inf
+     */
+    private static final int FIRST_BUCKET = 4;
+    private static final int LAST_BUCKET = 24;
+
+    private SiteContext siteContext;
+
+    /**
+     * Construct a new PrometheusExporter.
+     *
+     * @param siteContext The SiteContext
+     */
+
+    public PrometheusExporter(SiteContext siteContext) {
+        this.siteContext = siteContext;
+    }
+
+    /**
+     * Write all the metrics.
+     *
+     * @param writer The Writer
+     * @throws IOException
+     */
+
+    public void write(Writer writer) throws IOException {
+        PrintWriter out = new PrintWriter(writer);
+        RequestMetrics metrics = siteContext.getRequestMetrics();
+
+        writeRequestDurations(out, metrics);
+        writeActionDurations(out, metrics);
+
+        writeHeader(out, "jpublish_static_bytes_total", "counter",
+                "Bytes of static resources sent to the clients.");
+        writeSample(out, "jpublish_static_bytes_total", null, metrics.getStaticBytes());
+
+        writeHeader(out, "jpublish_errors_total", "counter",
+                "Errors passed to each error handler, unhandled when no handler consumed them.");
+        Iterator errors = metrics.getErrorCounts().entrySet().iterator();
+        while (errors.hasNext()) {
+            Map.Entry entry = (Map.Entry) errors.next();
+            writeSample(out, "jpublish_errors_total", label("handler", (String) entry.getKey()),
+                    ((Long) entry.getValue()).longValue());
+        }
+
+        writeCaches(out);
+        out.flush();
+    }
+
+    private void writeRequestDurations(PrintWriter out, RequestMetrics metrics) {
+        writeHeader(out, "jpublish_request_duration_seconds", "histogram",
+                "Duration of the request processing phases, by path pattern.");
+
+        String[] patterns = metrics.getPatterns();
+        for (int i = 0; i < patterns.length; i++) {
+            Histogram[] phases = metrics.getHistograms(patterns[i]);
+            for (int phase = 0; phase < phases.length; phase++) {
+                if (phases[phase].getCount() > 0) {
+                    writeHistogram(out, "jpublish_request_duration_seconds",
+                            label("pattern", patterns[i]) + ","
+                                    + label("phase", RequestMetrics.getPhaseName(phase)),
+                            phases[phase]);
+                }
+            }
+        }
+    }
+
+    private void writeActionDurations(PrintWriter out, RequestMetrics metrics) {
+        writeHeader(out, "jpublish_action_duration_seconds", "histogram",
+                "Duration of the action executions, cache hits excluded.");
+
+        Iterator actions = new TreeMap(metrics.getActionHistograms()).entrySet().iterator();
+        while (actions.hasNext()) {
+            Map.Entry entry = (Map.Entry) actions.next();
+            writeHistogram(out, "jpublish_action_duration_seconds",
+                    label("action", (String) entry.getKey()), (Histogram) entry.getValue());
+        }
+    }
+
+    private void writeCaches(PrintWriter out) {
+        JPublishCacheManager cacheManager = siteContext.getJPublishCacheManager();
+        String[] cacheNames = cacheManager != null ? cacheManager.getAvailableCacheNames() : new String[0];
+
+        StringBuffer hits = new StringBuffer();
+        StringBuffer misses = new StringBuffer();
+        StringBuffer ratios = new StringBuffer();
+        StringBuffer entries = new StringBuffer();
+        for (int i = 0; i < cacheNames.length; i++) {
+            String labels = label("cache", cacheNames[i]);
+            JPublishCache cache = cacheManager.getCache(cacheNames[i]);
+            long[] statistics = getStatistics(cache);
+            if (statistics != null) {
+                appendSample(hits, "jpublish_cache_hits_total", labels, statistics[0]);
+                appendSample(misses, "jpublish_cache_misses_total", labels, statistics[1]);
+                long requests = statistics[0] + statistics[1];
+                appendSample(ratios, "jpublish_cache_hit_ratio", labels,
+                        requests > 0 ? (double) statistics[0] / requests : 0);
+                appendSample(entries, "jpublish_cache_entries", labels, statistics[2]);
+            }
+        }
+
+        writeHeader(out, "jpublish_cache_hits_total", "counter", "Hits of the JPublishCacheManager caches.");
+        out.print(hits);
+        writeHeader(out, "jpublish_cache_misses_total", "counter", "Misses of the JPublishCacheManager caches.");
+        out.print(misses);
+        writeHeader(out, "jpublish_cache_hit_ratio", "gauge", "Hit ratio of the JPublishCacheManager caches.");
+        out.print(ratios);
+        writeHeader(out, "jpublish_cache_entries", "gauge", "Entries of the JPublishCacheManager caches.");
+        out.print(entries);
+
+        PageManager pageManager = siteContext.getPageManager();
+        if (pageManager instanceof AbstractPageManager) {
+            int size = ((AbstractPageManager) pageManager).getCacheSize();
+            if (size >= 0) {
+                writeHeader(out, "jpublish_page_cache_entries", "gauge", "Page definitions cached.");
+                writeSample(out, "jpublish_page_cache_entries", null, size);
+            }
+        }
+
+        TemplateManager templateManager = siteContext.getTemplateManager();
+        if (templateManager instanceof AbstractTemplateManager) {
+            int size = ((AbstractTemplateManager) templateManager).getCacheSize();
+            if (size >= 0) {
+                writeHeader(out, "jpublish_template_cache_entries", "gauge", "Templates cached.");
+                writeSample(out, "jpublish_template_cache_entries", null, size);
+            }
+        }
+    }
+
+    /**
+     * Get the hits, misses and entries of the given cache, from its
+     * statistics object: an ehcache Statistics or the Map of a
+     * JPublishSimpleCacheImpl.
+     *
+     * @param cache The cache
+     * @return The hits, misses and entries or null if the cache keeps no statistics
+     */
+
+    private long[] getStatistics(JPublishCache cache) {
+        Object statistics;
+        try {
+            statistics = cache.getStatistics();
+        } catch (Exception e) {
+            log.warn("Cannot read the cache statistics: " + e.getMessage());
+            return null;
+        }
+
+        if (statistics instanceof Statistics) {
+            Statistics ehcacheStatistics = (Statistics) statistics;
+            return new long[]{ehcacheStatistics.getCacheHits(), ehcacheStatistics.getCacheMisses(),
+                    ehcacheStatistics.getObjectCount()};
+        }
+        if (statistics instanceof Map) {
+            Map values = (Map) statistics;
+            return new long[]{getLong(values, "hits"), getLong(values, "misses"),
+                    getLong(values, "objectCount")};
+        }
+
+        try {
+            List keys = cache.getKeys();
+            return keys == null ? null : new long[]{0, 0, keys.size()};
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    private static long getLong(Map values, String name) {
+        Object value = values.get(name);
+        return value instanceof Number ? ((Number) value).longValue() : 0;
+    }
+
+    private static void writeHistogram(PrintWriter out, String name, String labels, Histogram histogram) {
+        long cumulative = 0;
+        for (int i = 0; i < FIRST_BUCKET; i++) {
+            cumulative += histogram.getBucketCount(i);
+        }
+        for (int i = FIRST_BUCKET; i <= LAST_BUCKET; i++) {
+            cumulative += histogram.getBucketCount(i);
+            writeSample(out, name + "_bucket",
+                    labels + ",le=\"" + Histogram.getBucketBound(i) / 1000000.0 + "\"", cumulative);
+        }
+
+        // the count is read last so it is at least the +Inf bucket
+        writeSample(out, name + "_bucket", labels + ",le=\"+Inf\"", histogram.getCount());
+        writeSample(out, name + "_sum", labels, histogram.getSum() / 1000000000.0);
+        writeSample(out, name + "_count", labels, histogram.getCount());
+    }
+
+    private static void writeHeader(PrintWriter out, String name, String type, String help) {
+        out.print("# HELP ");
+        out.print(name);
+        out.print(' ');
+        out.print(help);
+        out.print('\n');
+        out.print("# TYPE ");
+        out.print(name);
+        out.print(' ');
+        out.print(type);
+        out.print('\n');
+    }
+
+    private static void writeSample(PrintWriter out, String name, String labels, long value) {
+        writeSample(out, name, labels, String.valueOf(value));
+    }
+
+    private static void writeSample(PrintWriter out, String name, String labels, double value) {
+        writeSample(out, name, labels, String.valueOf(value));
+    }
+
+    /**
+     * Write a sample line, ending with a line feed whatever the platform.
+     */
+
+    private static void writeSample(PrintWriter out, String name, String labels, String value) {
+        out.print(name);
+        if (labels != null) {
+            out.print('{');
+            out.print(labels);
+            out.print('}');
+        }
+        out.print(' ');
+        out.print(value);
+        out.print('\n');
+    }
+
+    private static void appendSample(StringBuffer buffer, String name, String labels, long value) {
+        buffer.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    private static void appendSample(StringBuffer buffer, String name, String labels, double value) {
+        buffer.append(name).append('{').append(labels).append("} ").append(value).append('\n');
+    }
+
+    /**
+     * Format a label, escaping the backslashes, double quotes and line
+     * feeds of its value.
+     */
+
+    private static String label(String name, String value) {
+        StringBuffer buffer = new StringBuffer(name.length() + value.length() + 3);
+        buffer.append(name).append("=\"");
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' || c == '"') {
+                buffer.append('\\').append(c);
+            } else if (c == '\n') {
+                buffer.append("\\n");
+            } else {
+                buffer.append(c);
+            }
+        }
+        return buffer.append('"').toString();
+    }
+
+}
@@ -0,0 +1,518 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.jpublish.metrics;
+
+import com.anthonyeden.lib.config.Configuration;
+import com.anthonyeden.lib.config.ConfigurationException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jpublish.util.PathMatcher;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Always-on timings of the request processing phases, recorded into
+ * lock-free histograms per path pattern.  The patterns are configured in
+ * the <code>jpublish.xml</code> file; a path matching none of them is
+ * recorded under its extension, <code>*.css</code> for example:
+ * <p/>
+ * <pre>
+ * &lt;metrics enabled="true" path="/jpublish-metrics" prometheus-path="/metrics"&gt;
+ *     &lt;path-pattern&gt;/blog/*&lt;/path-pattern&gt;
+ *     &lt;path-pattern&gt;/shop/*.html&lt;/path-pattern&gt;
+ * &lt;/metrics&gt;
+ * </pre>
+ * <p/>
+ * The metrics are exposed through JMX and, when <code>path</code> is set,
+ * as a text report served by the JPublishServlet at that path; when
+ * <code>prometheus-path</code> is set, the timings, together with the
+ * action timings, the static bytes served, the errors handled and the
+ * cache figures, are served in the Prometheus text format at that path.
+ * Access to both should be restricted by the servlet container.  Recording
+ * a phase costs two System.nanoTime() calls and a few atomic increments.
+ * A nested <code>slow-requests</code> element enables the SlowRequestLog.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class RequestMetrics implements RequestMetricsMBean {
+    private static final Log log = LogFactory.getLog(RequestMetrics.class);
+
+    public static final int PRE_EVALUATION = 0;
+    public static final int GLOBAL_ACTIONS = 1;
+    public static final int PATH_ACTIONS = 2;
+    public static final int PARAMETER_ACTIONS = 3;
+    public static final int PAGE_LOAD = 4;
+    public static final int PAGE_ACTIONS = 5;
+    public static final int TEMPLATE_FETCH = 6;
+    public static final int RENDER = 7;
+    public static final int POST_EVALUATION = 8;
+    public static final int STATIC = 9;
+    public static final int TOTAL = 10;
+
+    private static final String[] PHASE_NAMES = {
+            "pre-evaluation", "global-actions", "path-actions", "parameter-actions",
+            "page-load", "page-actions", "template-fetch", "render", "post-evaluation",
+            "static", "total"};
+
+    /**
+     * the maximum number of patterns recorded, the paths beyond are recorded
+     * under OTHER_PATTERN
+     */
+    public static final int MAX_PATTERNS = 256;
+    public static final String OTHER_PATTERN = "other";
+
+    private volatile boolean enabled = true;
+    private volatile PathMatcher patternMatcher = new PathMatcher();
+    private String path;
+    private String prometheusPath;
+    private volatile SlowRequestLog slowRequestLog;
+    private ConcurrentMap histograms = new ConcurrentHashMap();
+    private ConcurrentMap actionHistograms = new ConcurrentHashMap();
+    private ConcurrentMap errorCounts = new ConcurrentHashMap();
+    private LongAdder staticBytes = new LongAdder();
+    private ObjectName objectName;
+
+    /**
+     * Load the metrics configuration.  The metrics are enabled unless
+     * configured otherwise.
+     *
+     * @param configuration The site configuration
+     * @throws ConfigurationException
+     */
+
+    public void loadConfiguration(Configuration configuration) throws ConfigurationException {
+        PathMatcher matcher = new PathMatcher();
+        Configuration metricsElement = configuration.getChild("metrics");
+        if (metricsElement != null) {
+            enabled = "true".equalsIgnoreCase(metricsElement.getAttribute("enabled", "true"));
+            path = metricsElement.getAttribute("path");
+            prometheusPath = metricsElement.getAttribute("prometheus-path");
+            slowRequestLog = SlowRequestLog.create(metricsElement.getChild("slow-requests"));
+
+            Iterator patternElements = metricsElement.getChildren("path-pattern").iterator();
+            while (patternElements.hasNext()) {
+                String pattern = ((Configuration) patternElements.next()).getValue().trim();
+                matcher.add(pattern, pattern);
+            }
+        } else {
+            enabled = true;
+            path = null;
+            prometheusPath = null;
+            slowRequestLog = null;
+        }
+
+        patternMatcher = matcher;
+        histograms.clear();
+        actionHistograms.clear();
+        log.info("Request metrics are " + (enabled ? "enabled" : "disabled")
+                + (path != null ? ", served at: " + path : "")
+                + (prometheusPath != null ? ", Prometheus format at: " + prometheusPath : ""));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Get the path the text report is served at.
+     *
+     * @return The path or null if the report is not served
+     */
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Get the path the metrics are served at in the Prometheus text format.
+     *
+     * @return The path or null if the metrics are not served in this format
+     */
+
+    public String getPrometheusPath() {
+        return prometheusPath;
+    }
+
+    /**
+     * Start timing a request.
+     *
+     * @param path The request path
+     * @return The RequestTimer, disabled if the metrics are
+     */
+
+    public RequestTimer start(String path) {
+        if (!enabled) {
+            return RequestTimer.DISABLED;
+        }
+
+        String pattern = getPattern(path);
+        return new RequestTimer(path, pattern, getHistograms(pattern), slowRequestLog);
+    }
+
+    /**
+     * Get the pattern the given path is recorded under: the first
+     * configured pattern matching the path, or the path extension.
+     *
+     * @param path The request path
+     * @return The pattern
+     */
+
+    public String getPattern(String path) {
+        String pattern = (String) patternMatcher.getFirstMatch(path);
+        if (pattern != null) {
+            return pattern;
+        }
+
+        int dotIndex = path.lastIndexOf('.');
+        if (dotIndex < 0 || dotIndex < path.lastIndexOf('/')) {
+            return "*";
+        }
+        return "*" + path.substring(dotIndex);
+    }
+
+    /**
+     * Get the histograms of all the phases, for the given pattern.
+     *
+     * @param pattern The path pattern
+     * @return The histograms, indexed by phase
+     */
+
+    public Histogram[] getHistograms(String pattern) {
+        Histogram[] phases = (Histogram[]) histograms.get(pattern);
+        if (phases == null) {
+            if (histograms.size() >= MAX_PATTERNS) {
+                pattern = OTHER_PATTERN;
+                phases = (Histogram[]) histograms.get(pattern);
+                if (phases != null) {
+                    return phases;
+                }
+            }
+
+            phases = new Histogram[PHASE_NAMES.length];
+            for (int i = 0; i < phases.length; i++) {
+                phases[i] = new Histogram();
+            }
+
+            Histogram[] existing = (Histogram[]) histograms.putIfAbsent(pattern, phases);
+            if (existing != null) {
+                phases = existing;
+            }
+        }
+        return phases;
+    }
+
+    /**
+     * Record the duration of an action execution.
+     *
+     * @param name  The action name
+     * @param nanos The duration in nanoseconds
+     */
+
+    public void recordAction(String name, long nanos) {
+        if (!enabled) {
+            return;
+        }
+
+        Histogram histogram = (Histogram) actionHistograms.get(name);
+        if (histogram == null) {
+            if (actionHistograms.size() >= MAX_PATTERNS) {
+                name = OTHER_PATTERN;
+            }
+            histogram = new Histogram();
+            Histogram existing = (Histogram) actionHistograms.putIfAbsent(name, histogram);
+            if (existing != null) {
+                histogram = existing;
+            }
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * Get the histograms of the action executions.
+     *
+     * @return A Map of action names to Histograms
+     */
+
+    public Map getActionHistograms() {
+        return Collections.unmodifiableMap(actionHistograms);
+    }
+
+    /**
+     * Count the bytes of a static resource sent to the client.
+     *
+     * @param bytes The number of bytes
+     */
+
+    public void addStaticBytes(long bytes) {
+        staticBytes.add(bytes);
+    }
+
+    /**
+     * Get the number of static resource bytes sent since the start.
+     *
+     * @return The number of bytes
+     */
+
+    public long getStaticBytes() {
+        return staticBytes.sum();
+    }
+
+    /**
+     * Count an error passed to the given error handler.  The errors no
+     * handler consumed are counted under <code>unhandled</code>.
+     *
+     * @param handler The error handler name
+     */
+
+    public void recordError(String handler) {
+        LongAdder count = (LongAdder) errorCounts.get(handler);
+        if (count == null) {
+            count = new LongAdder();
+            LongAdder existing = (LongAdder) errorCounts.putIfAbsent(handler, count);
+            if (existing != null) {
+                count = existing;
+            }
+        }
+        count.increment();
+    }
+
+    /**
+     * Get the number of errors counted for each error handler.
+     *
+     * @return A Map of error handler names to Long counts
+     */
+
+    public Map getErrorCounts() {
+        Map counts = new TreeMap();
+        Iterator entries = errorCounts.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry entry = (Map.Entry) entries.next();
+            counts.put(entry.getKey(), Long.valueOf(((LongAdder) entry.getValue()).sum()));
+        }
+        return counts;
+    }
+
+    /**
+     * Get the number of phases.
+     *
+     * @return The number of phases, TOTAL included
+     */
+
+    public static int getPhaseCount() {
+        return PHASE_NAMES.length;
+    }
+
+    /**
+     * Get the name of the given phase.
+     *
+     * @param phase The phase
+     * @return The phase name
+     */
+
+    public static String getPhaseName(int phase) {
+        return PHASE_NAMES[phase];
+    }
+
+    public String[] getPatterns() {
+        String[] patterns = (String[]) histograms.keySet().toArray(new String[0]);
+        Arrays.sort(patterns);
+        return patterns;
+    }
+
+    public long getRequestCount() {
+        long count = 0;
+        Iterator phases = histograms.values().iterator();
+        while (phases.hasNext()) {
+            count += ((Histogram[]) phases.next())[TOTAL].getCount();
+        }
+        return count;
+    }
+
+    public long getCount(String pattern, String phase) {
+        Histogram histogram = getHistogram(pattern, phase);
+        return histogram == null ? 0 : histogram.getCount();
+    }
+
+    public double getMean(String pattern, String phase) {
+        Histogram histogram = getHistogram(pattern, phase);
+        if (histogram == null || histogram.getCount() == 0) {
+            return 0;
+        }
+        return histogram.getSum() / 1000000.0 / histogram.getCount();
+    }
+
+    public double getPercentile(String pattern, String phase, double percentile) {
+        Histogram histogram = getHistogram(pattern, phase);
+        return histogram == null ? 0 : histogram.getPercentile(percentile) / 1000000.0;
+    }
+
+    public String getReport() {
+        StringWriter out = new StringWriter();
+        try {
+            writeReport(out);
+        } catch (IOException e) {
+            // not thrown by a StringWriter
+        }
+        return out.toString();
+    }
+
+    /**
+     * Write the text report: the count, mean, percentiles and maximum
+     * durations, in milliseconds, of every phase recorded for each pattern.
+     *
+     * @param writer The Writer
+     * @throws IOException
+     */
+
+    public void writeReport(Writer writer) throws IOException {
+        PrintWriter out = new PrintWriter(writer);
+        out.println("pattern\tphase\tcount\tmean\tp50\tp95\tp99\tmax");
+
+        String[] patterns = getPatterns();
+        for (int i = 0; i < patterns.length; i++) {
+            Histogram[] phases = (Histogram[]) histograms.get(patterns[i]);
+            if (phases == null) {
+                continue;
+            }
+
+            for (int phase = 0; phase < phases.length; phase++) {
+                Histogram histogram = phases[phase];
+                long count = histogram.getCount();
+                if (count == 0) {
+                    continue;
+                }
+
+                out.print(patterns[i]);
+                out.print('\t');
+                out.print(PHASE_NAMES[phase]);
+                out.print('\t');
+                out.print(count);
+                out.print('\t');
+                out.print(toMillis(histogram.getSum() / count));
+                out.print('\t');
+                out.print(toMillis(histogram.getPercentile(50)));
+                out.print('\t');
+                out.print(toMillis(histogram.getPercentile(95)));
+                out.print('\t');
+                out.print(toMillis(histogram.getPercentile(99)));
+                out.print('\t');
+                out.println(toMillis(histogram.getMax()));
+            }
+        }
+        out.flush();
+    }
+
+    public void reset() {
+        Iterator phases = histograms.values().iterator();
+        while (phases.hasNext()) {
+            Histogram[] phaseHistograms = (Histogram[]) phases.next();
+            for (int i = 0; i < phaseHistograms.length; i++) {
+                phaseHistograms[i].reset();
+            }
+        }
+
+        Iterator actions = actionHistograms.values().iterator();
+        while (actions.hasNext()) {
+            ((Histogram) actions.next()).reset();
+        }
+    }
+
+    /**
+     * Register the metrics with the platform MBeanServer, under
+     * <code>org.jpublish:type=RequestMetrics,name=[name]</code>.
+     *
+     * @param name The name of the site, the context path for example
+     */
+
+    public synchronized void register(String name) {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName objectName = new ObjectName("org.jpublish:type=RequestMetrics,name="
+                    + ObjectName.quote(name));
+            if (server.isRegistered(objectName)) {
+                log.warn("Request metrics MBean already registered: " + objectName);
+                return;
+            }
+            server.registerMBean(this, objectName);
+            this.objectName = objectName;
+        } catch (Exception e) {
+            log.warn("Cannot register the request metrics MBean: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Unregister the metrics from the platform MBeanServer.
+     */
+
+    public synchronized void unregister() {
+        if (objectName == null) {
+            return;
+        }
+
+        try {
+            ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+        } catch (Exception e) {
+            log.warn("Cannot unregister the request metrics MBean: " + e.getMessage());
+        }
+        objectName = null;
+    }
+
+    private Histogram getHistogram(String pattern, String phase) {
+        Histogram[] phases = (Histogram[]) histograms.get(pattern);
+        if (phases == null) {
+            return null;
+        }
+
+        for (int i = 0; i < PHASE_NAMES.length; i++) {
+            if (PHASE_NAMES[i].equals(phase)) {
+                return phases[i];
+            }
+        }
+        return null;
+    }
+
+    private static String toMillis(long nanos) {
+        long micros = nanos / 1000;
+        StringBuffer buffer = new StringBuffer();
+        buffer.append(micros / 1000).append('.');
+        long fraction = micros % 1000;
+        if (fraction < 100) {
+            buffer.append('0');
+        }
+        if (fraction < 10) {
+            buffer.append('0');
+        }
+        return buffer.append(fraction).toString();
+    }
+
+}
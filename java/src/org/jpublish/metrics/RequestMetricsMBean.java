@@ -0,0 +1,91 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.jpublish.metrics;
+
+/**
+ * JMX management interface of the RequestMetrics.  Phases are designated
+ * by name: pre-evaluation, global-actions, path-actions, parameter-actions,
+ * page-load, page-actions, template-fetch, render, post-evaluation, static
+ * and total.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public interface RequestMetricsMBean {
+
+    /**
+     * Get the path patterns the requests were recorded under.
+     *
+     * @return The path patterns
+     */
+
+    String[] getPatterns();
+
+    /**
+     * Get the number of requests recorded, all patterns together.
+     *
+     * @return The request count
+     */
+
+    long getRequestCount();
+
+    /**
+     * Get the number of times a phase was recorded for a pattern.
+     *
+     * @param pattern The path pattern
+     * @param phase   The phase name
+     * @return The count
+     */
+
+    long getCount(String pattern, String phase);
+
+    /**
+     * Get the mean duration of a phase for a pattern.
+     *
+     * @param pattern The path pattern
+     * @param phase   The phase name
+     * @return The mean in milliseconds
+     */
+
+    double getMean(String pattern, String phase);
+
+    /**
+     * Estimate a percentile of the duration of a phase for a pattern.
+     *
+     * @param pattern    The path pattern
+     * @param phase      The phase name
+     * @param percentile The percentile, between 0 and 100
+     * @return The duration in milliseconds
+     */
+
+    double getPercentile(String pattern, String phase, double percentile);
+
+    /**
+     * Get the text report of all the timings.
+     *
+     * @return The report
+     */
+
+    String getReport();
+
+    /**
+     * Forget all the timings recorded.
+     */
+
+    void reset();
+}
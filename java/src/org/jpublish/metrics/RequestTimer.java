@@ -0,0 +1,214 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.jpublish.metrics;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * Times the phases of a single request.  Starting a phase ends the
+ * previous one; the durations are recorded into the histograms of the
+ * request path pattern when each phase ends, and the total duration when
+ * the timer is stopped.  The phases are timed by the request thread only.
+ * <p/>
+ * When a SlowRequestLog is configured, the timer also keeps the durations
+ * of the phases of its own request and, if the request is sampled, the
+ * durations of its actions, includes and components, which may be
+ * recorded from other threads.  The timer is found in the request
+ * JPublishContext.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ * @see RequestMetrics#start(String)
+ */
+
+public class RequestTimer {
+
+    /**
+     * timer recording nothing, used when the metrics are disabled
+     */
+    public static final RequestTimer DISABLED = new RequestTimer(null, null, null, null);
+
+    public static final String ACTION = "action";
+    public static final String INCLUDE = "include";
+    public static final String COMPONENT = "component";
+
+    private String path;
+    private String pattern;
+    private Histogram[] histograms;
+    private SlowRequestLog slowRequestLog;
+    private long[] phaseTimes;
+    private Queue details;
+    private long requestStart;
+    private long phaseStart;
+    private int phase = -1;
+
+    RequestTimer(String path, String pattern, Histogram[] histograms, SlowRequestLog slowRequestLog) {
+        this.path = path;
+        this.pattern = pattern;
+        this.histograms = histograms;
+        this.slowRequestLog = slowRequestLog;
+        if (slowRequestLog != null) {
+            this.phaseTimes = new long[histograms.length];
+            if (slowRequestLog.sample()) {
+                this.details = new ConcurrentLinkedQueue();
+            }
+        }
+        this.requestStart = System.nanoTime();
+    }
+
+    /**
+     * Get the path of the request.
+     *
+     * @return The path or null if the timer is disabled
+     */
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Get the path pattern the request is recorded under.
+     *
+     * @return The pattern or null if the timer is disabled
+     */
+
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * Start timing the given phase, ending the current phase if any.
+     *
+     * @param phase The phase, one of the RequestMetrics phase constants
+     */
+
+    public void begin(int phase) {
+        if (histograms == null) {
+            return;
+        }
+
+        long now = System.nanoTime();
+        if (this.phase >= 0) {
+            record(this.phase, now - phaseStart);
+        }
+        this.phase = phase;
+        this.phaseStart = now;
+    }
+
+    /**
+     * End the current phase, if any.
+     */
+
+    public void end() {
+        if (histograms == null || phase < 0) {
+            return;
+        }
+
+        record(phase, System.nanoTime() - phaseStart);
+        phase = -1;
+    }
+
+    /**
+     * End the current phase and record the total duration of the request.
+     */
+
+    public void stop() {
+        if (histograms == null) {
+            return;
+        }
+
+        end();
+        long total = System.nanoTime() - requestStart;
+        histograms[RequestMetrics.TOTAL].record(total);
+        if (slowRequestLog != null && total >= slowRequestLog.getThreshold()) {
+            slowRequestLog.log(this, total);
+        }
+    }
+
+    /**
+     * Return true if the actions, includes and components of the request
+     * are timed one by one.
+     *
+     * @return True if the request is sampled by the SlowRequestLog
+     */
+
+    public boolean isTracing() {
+        return details != null;
+    }
+
+    /**
+     * Record the duration of an action, include or component of the
+     * request.  Nothing is recorded unless the request is traced.
+     *
+     * @param kind  ACTION, INCLUDE or COMPONENT
+     * @param name  The action name, include path or component name
+     * @param nanos The duration in nanoseconds
+     */
+
+    public void record(String kind, String name, long nanos) {
+        if (details != null) {
+            details.add(new Detail(kind, name, nanos));
+        }
+    }
+
+    long[] getPhaseTimes() {
+        return phaseTimes;
+    }
+
+    Iterator getDetails() {
+        return details != null ? details.iterator() : Collections.EMPTY_LIST.iterator();
+    }
+
+    private void record(int phase, long nanos) {
+        histograms[phase].record(nanos);
+        if (phaseTimes != null) {
+            phaseTimes[phase] += nanos;
+        }
+    }
+
+    /**
+     * The duration of an action, include or component.
+     */
+
+    static class Detail {
+        private String kind;
+        private String name;
+        private long nanos;
+
+        Detail(String kind, String name, long nanos) {
+            this.kind = kind;
+            this.name = name;
+            this.nanos = nanos;
+        }
+
+        String getKind() {
+            return kind;
+        }
+
+        String getName() {
+            return name;
+        }
+
+        long getNanos() {
+            return nanos;
+        }
+    }
+
+}
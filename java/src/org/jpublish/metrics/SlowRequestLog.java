@@ -0,0 +1,217 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+
+package org.jpublish.metrics;
+
+import com.anthonyeden.lib.config.Configuration;
+import com.anthonyeden.lib.config.ConfigurationException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Iterator;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logs a single line for each request taking longer than a threshold, with
+ * the time spent in every phase and, for the sampled requests, in every
+ * action, <code>RepositoryWrapper.get</code> include and component
+ * render.  It is configured inside the <code>metrics</code> element of the
+ * <code>jpublish.xml</code> file:
+ * <p/>
+ * <pre>
+ * &lt;metrics&gt;
+ *     &lt;slow-requests threshold="1000" sample-rate="0.1" max-per-minute="60"/&gt;
+ * &lt;/metrics&gt;
+ * </pre>
+ * <p/>
+ * The threshold is in milliseconds.  The sample-rate is the fraction of the
+ * requests whose actions, includes and components are timed one by one,
+ * the phases being timed for every request.  At most max-per-minute lines
+ * are logged each minute; the number of lines dropped is reported by the
+ * next line logged.  The lines look like:
+ * <p/>
+ * <pre>
+ * slow request: path=/index.html pattern=*.html total=1520.3 sampled=true
+ * phases={page-actions=1410.2 render=105.7} actions={news.bsh=1402.8}
+ * includes={/header.vm=3.1} components={menu=1.2} suppressed=0
+ * </pre>
+ * <p/>
+ * with the durations in milliseconds, on a single line.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ * @see RequestTimer
+ */
+
+public class SlowRequestLog {
+    private static final Log log = LogFactory.getLog(SlowRequestLog.class);
+
+    public static final long DEFAULT_THRESHOLD = 1000;
+    public static final int DEFAULT_MAX_PER_MINUTE = 60;
+
+    private static final long MINUTE = 60L * 1000 * 1000 * 1000;
+
+    private long threshold;
+    private double sampleRate;
+    private int maxPerMinute;
+
+    private AtomicLong windowStart = new AtomicLong(System.nanoTime());
+    private AtomicInteger logged = new AtomicInteger();
+    private AtomicLong suppressed = new AtomicLong();
+
+    /**
+     * Construct a new SlowRequestLog.
+     *
+     * @param threshold    The threshold in milliseconds
+     * @param sampleRate   The fraction of the requests timed in detail, from 0 to 1
+     * @param maxPerMinute The maximum number of lines logged each minute
+     */
+
+    public SlowRequestLog(long threshold, double sampleRate, int maxPerMinute) {
+        this.threshold = threshold * 1000000;
+        this.sampleRate = sampleRate;
+        this.maxPerMinute = maxPerMinute;
+    }
+
+    /**
+     * Create the SlowRequestLog configured by the given
+     * <code>slow-requests</code> element.
+     *
+     * @param configuration The slow-requests element or null
+     * @return The SlowRequestLog or null if there is no element
+     * @throws ConfigurationException
+     */
+
+    public static SlowRequestLog create(Configuration configuration) throws ConfigurationException {
+        if (configuration == null) {
+            return null;
+        }
+
+        try {
+            long threshold = Long.parseLong(configuration.getAttribute("threshold",
+                    String.valueOf(DEFAULT_THRESHOLD)));
+            double sampleRate = Double.parseDouble(configuration.getAttribute("sample-rate", "1"));
+            int maxPerMinute = Integer.parseInt(configuration.getAttribute("max-per-minute",
+                    String.valueOf(DEFAULT_MAX_PER_MINUTE)));
+
+            log.info("Logging the requests slower than " + threshold + "ms, sample rate: "
+                    + sampleRate + ", at most " + maxPerMinute + " per minute");
+            return new SlowRequestLog(threshold, sampleRate, maxPerMinute);
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("Invalid slow-requests value: " + e.getMessage(), e, configuration);
+        }
+    }
+
+    /**
+     * Get the threshold.
+     *
+     * @return The threshold in nanoseconds
+     */
+
+    public long getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Decide whether the actions, includes and components of a new request
+     * are timed one by one.
+     *
+     * @return True if the request is sampled
+     */
+
+    public boolean sample() {
+        return sampleRate >= 1 || (sampleRate > 0 && ThreadLocalRandom.current().nextDouble() < sampleRate);
+    }
+
+    /**
+     * Log the given request, unless too many requests were logged during
+     * the last minute.
+     *
+     * @param timer The timer of the request
+     * @param total The duration of the request in nanoseconds
+     */
+
+    public void log(RequestTimer timer, long total) {
+        if (!acquire()) {
+            suppressed.incrementAndGet();
+            return;
+        }
+
+        StringBuffer line = new StringBuffer(256);
+        line.append("slow request: path=").append(timer.getPath());
+        line.append(" pattern=").append(timer.getPattern());
+        line.append(" total=").append(toMillis(total));
+        line.append(" sampled=").append(timer.isTracing());
+
+        line.append(" phases={");
+        long[] phaseTimes = timer.getPhaseTimes();
+        boolean first = true;
+        for (int i = 0; i < phaseTimes.length; i++) {
+            if (phaseTimes[i] > 0 && i != RequestMetrics.TOTAL) {
+                if (!first) {
+                    line.append(' ');
+                }
+                line.append(RequestMetrics.getPhaseName(i)).append('=').append(toMillis(phaseTimes[i]));
+                first = false;
+            }
+        }
+        line.append('}');
+
+        if (timer.isTracing()) {
+            appendDetails(line, timer, RequestTimer.ACTION, "actions");
+            appendDetails(line, timer, RequestTimer.INCLUDE, "includes");
+            appendDetails(line, timer, RequestTimer.COMPONENT, "components");
+        }
+
+        line.append(" suppressed=").append(suppressed.getAndSet(0));
+        log.warn(line);
+    }
+
+    private static void appendDetails(StringBuffer line, RequestTimer timer, String kind, String label) {
+        line.append(' ').append(label).append("={");
+        boolean first = true;
+        Iterator details = timer.getDetails();
+        while (details.hasNext()) {
+            RequestTimer.Detail detail = (RequestTimer.Detail) details.next();
+            if (detail.getKind().equals(kind)) {
+                if (!first) {
+                    line.append(' ');
+                }
+                line.append(detail.getName()).append('=').append(toMillis(detail.getNanos()));
+                first = false;
+            }
+        }
+        line.append('}');
+    }
+
+    private boolean acquire() {
+        long now = System.nanoTime();
+        long start = windowStart.get();
+        if (now - start >= MINUTE && windowStart.compareAndSet(start, now)) {
+            logged.set(0);
+        }
+        return logged.incrementAndGet() <= maxPerMinute;
+    }
+
+    private static String toMillis(long nanos) {
+        long tenths = nanos / 100000;
+        return (tenths / 10) + "." + (tenths % 10);
+    }
+
+}
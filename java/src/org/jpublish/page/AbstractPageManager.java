@@ -144,5 +144,16 @@ public abstract class AbstractPageManager implements PageManager{
         throw new UnsupportedOperationException(
             "Configuration write not supported");
     }
+    
+    /** Get the number of page definitions cached by the PageManager.
+        The default implementation returns -1, meaning the PageManager
+        does not cache the page definitions.
+        
+        @return The number of cached page definitions or -1
+    */
+    
+    public int getCacheSize(){
+        return -1;
+    }
 
 }
@@ -24,8 +24,9 @@ import org.jpublish.util.PathUtilities;
 
 import java.io.InputStream;
 import java.io.Reader;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A class which represents a page definition.
@@ -39,7 +40,7 @@ public class PageDefinition {
     private SiteContext siteContext;
     private String path;
     private Configuration configuration;
-    private Map pageCache;
+    private ConcurrentMap pageCache;
 
     /**
      * Construct a new PageDefinition for the given path.
@@ -52,7 +53,7 @@ public class PageDefinition {
         this.siteContext = siteContext;
         this.path = path;
 
-        pageCache = new HashMap();
+        pageCache = new ConcurrentHashMap();
     }
 
     /**
@@ -68,14 +69,15 @@ public class PageDefinition {
     /**
      * Return a Page instance for the given path.  The path is used to
      * determine the page name and page type.  The PageDefinition will
-     * cache all Page instances.
+     * cache all Page instances; concurrent callers asking for a new path
+     * will all get the same instance.
      *
      * @param path The request path
      * @return The Page instance
      * @throws Exception Any Exception
      */
 
-    public synchronized PageInstance getPageInstance(String path) throws Exception {
+    public PageInstance getPageInstance(String path) throws Exception {
 
         PageInstance page = (PageInstance) pageCache.get(path);
         if (page == null) {
@@ -83,7 +85,11 @@ public class PageDefinition {
                     PathUtilities.extractPageName(path),
                     PathUtilities.extractPageType(path));
             page.loadConfiguration(configuration);
-            pageCache.put(path, page);
+
+            PageInstance cachedPage = (PageInstance) pageCache.putIfAbsent(path, page);
+            if (cachedPage != null) {
+                page = cachedPage;
+            }
         }
         return page;
     }
@@ -259,7 +259,9 @@ public class PageInstance {
     }
 
     /**
-     * Execute the page actions using the given context.
+     * Execute the page actions using the given context.  Consecutive page
+     * actions configured with <code>parallel="true"</code> are executed
+     * concurrently.
      *
      * @param context The current context
      * @return A redirection value or null if there is no redirection
@@ -267,16 +269,7 @@ public class PageInstance {
      */
 
     public String executeActions(JPublishContext context) throws Exception {
-        Iterator pageActions = getPageActions().iterator();
-        while (pageActions.hasNext()) {
-            ((ActionWrapper) pageActions.next()).execute(context);
-
-            String redirect = (String) context.get("redirect");
-            if (redirect != null) {
-                return redirect;
-            }
-        }
-        return null;
+        return siteContext.getActionManager().executeActions(getPageActions(), context, true);
     }
 
     /**
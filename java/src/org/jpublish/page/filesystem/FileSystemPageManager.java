@@ -24,11 +24,14 @@ import org.apache.commons.logging.LogFactory;
 import org.jpublish.page.PageDefinition;
 import org.jpublish.page.PageDefinitionCacheEntry;
 import org.jpublish.page.PageInstance;
+import org.jpublish.util.FileChangeMonitor;
 import org.jpublish.util.PathUtilities;
+import org.jpublish.util.SingleFlight;
 
 import java.io.*;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The PageManager is a central access point for locating pages.  Pages
@@ -48,12 +51,17 @@ public class FileSystemPageManager extends AbstractFileSystemPageManager {
      */
     protected Map cache;
 
+    /**
+     * Page definition loads in progress.
+     */
+    protected SingleFlight pageLoads = new SingleFlight();
+
     /**
      * Construct a new FileSystemPageManager.
      */
 
     public FileSystemPageManager() {
-        this.cache = new HashMap();
+        this.cache = new ConcurrentHashMap();
     }
 
     /**
@@ -65,7 +73,7 @@ public class FileSystemPageManager extends AbstractFileSystemPageManager {
      * @throws Exception Any Exception
      */
 
-    public synchronized PageInstance getPage(String path) throws Exception {
+    public PageInstance getPage(String path) throws Exception {
         //File file = new File(path);
         //File parentDirectory = file.getParentFile();
 
@@ -82,8 +90,9 @@ public class FileSystemPageManager extends AbstractFileSystemPageManager {
         */
 
         File xmlFile = pathToFile(path);
+        FileChangeMonitor fileChangeMonitor = siteContext.getFileChangeMonitor();
 
-        if (!xmlFile.exists()) {
+        if (!fileChangeMonitor.exists(xmlFile)) {
             throw new FileNotFoundException("File not found: " + xmlFile);
         }
 
@@ -96,45 +105,15 @@ public class FileSystemPageManager extends AbstractFileSystemPageManager {
 
         PageInstance page = null;
         PageDefinition pageDefinition = null;
-        FileInputStream in = null;
-        try {
-            if (cacheEntry == null) {
-                if (log.isDebugEnabled())
-                    log.debug("Page definition (" + pagePath + ") not found in cache.");
-
-                if (log.isDebugEnabled())
-                    log.debug("Loading page definition configuration: " + xmlFile);
-
-                in = new FileInputStream(xmlFile);
-
-                pageDefinition = new PageDefinition(siteContext, pagePath);
-                pageDefinition.loadConfiguration(in);
-
-                cache.put(pagePath, new PageDefinitionCacheEntry(pageDefinition,
-                        xmlFile.lastModified()));
-            } else {
-                if (log.isDebugEnabled())
-                    log.debug("Page definition (" + pagePath +
-                            ") found in cache.");
-                pageDefinition = cacheEntry.getPageDefinition();
-                if (cacheEntry.getLastModified() != xmlFile.lastModified()) {
-                    log.debug("Page modification dates do not match.");
-                    log.debug("Reloading page definition.");
-                    long lastModified = xmlFile.lastModified();
 
-                    in = new FileInputStream(xmlFile);
-
-                    pageDefinition.loadConfiguration(in);
-
-                    cache.put(pagePath, new PageDefinitionCacheEntry(
-                            pageDefinition, lastModified));
-                }
-            }
-        } catch (ConfigurationException e) {
-            log.error("Error loading page [" + pagePath + "] definition: " + e.getMessage());
-            throw e;
-        } finally {
-            IOUtilities.close(in);
+        if (cacheEntry != null && cacheEntry.getLastModified() == fileChangeMonitor.lastModified(xmlFile)) {
+            if (log.isDebugEnabled())
+                log.debug("Page definition (" + pagePath + ") found in cache.");
+            pageDefinition = cacheEntry.getPageDefinition();
+        } else {
+            // concurrent requests for the same page share a single load
+            pageDefinition = (PageDefinition) pageLoads.execute(pagePath,
+                    new PageDefinitionLoader(pagePath, xmlFile));
         }
 
         if (pageDefinition != null) {
@@ -240,6 +219,16 @@ public class FileSystemPageManager extends AbstractFileSystemPageManager {
         return new FileWriter(pathToFile(path));
     }
 
+    /**
+     * Get the number of page definitions cached.
+     *
+     * @return The number of cached page definitions
+     */
+
+    public int getCacheSize() {
+        return cache.size();
+    }
+
     protected File pathToFile(String path) {
         File file = new File(path);
         File parentDirectory = file.getParentFile();
@@ -250,4 +239,54 @@ public class FileSystemPageManager extends AbstractFileSystemPageManager {
                 new File(parentDirectory, pageName + ".xml").getPath());
     }
 
+    /**
+     * Load the page definition from the given file, unless a concurrent
+     * load already refreshed the cache.
+     */
+
+    private class PageDefinitionLoader implements Callable {
+
+        private String pagePath;
+        private File xmlFile;
+
+        PageDefinitionLoader(String pagePath, File xmlFile) {
+            this.pagePath = pagePath;
+            this.xmlFile = xmlFile;
+        }
+
+        public Object call() throws Exception {
+            long lastModified = siteContext.getFileChangeMonitor().lastModified(xmlFile);
+            PageDefinitionCacheEntry cacheEntry =
+                    (PageDefinitionCacheEntry) cache.get(pagePath);
+            if (cacheEntry != null && cacheEntry.getLastModified() == lastModified) {
+                return cacheEntry.getPageDefinition();
+            }
+
+            if (log.isDebugEnabled()) {
+                if (cacheEntry == null) {
+                    log.debug("Page definition (" + pagePath + ") not found in cache.");
+                } else {
+                    log.debug("Page modification dates do not match.");
+                }
+                log.debug("Loading page definition configuration: " + xmlFile);
+            }
+
+            FileInputStream in = null;
+            try {
+                in = new FileInputStream(xmlFile);
+
+                PageDefinition pageDefinition = new PageDefinition(siteContext, pagePath);
+                pageDefinition.loadConfiguration(in);
+
+                cache.put(pagePath, new PageDefinitionCacheEntry(pageDefinition, lastModified));
+                return pageDefinition;
+            } catch (ConfigurationException e) {
+                log.error("Error loading page [" + pagePath + "] definition: " + e.getMessage());
+                throw e;
+            } finally {
+                IOUtilities.close(in);
+            }
+        }
+    }
+
 }
@@ -25,11 +25,14 @@ import org.apache.commons.logging.LogFactory;
 import org.jpublish.page.PageDefinition;
 import org.jpublish.page.PageDefinitionCacheEntry;
 import org.jpublish.page.PageInstance;
+import org.jpublish.util.FileChangeMonitor;
 import org.jpublish.util.PathUtilities;
+import org.jpublish.util.SingleFlight;
 
 import java.io.*;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * The PageManager is a central access point for locating pages.  Pages
@@ -58,11 +61,16 @@ public class FileSystemPageManagerWithContextDefault extends
     protected Map cache;
     protected String defaultPath = DEFAULT_PATH;
 
+    /**
+     * Page definition loads in progress.
+     */
+    protected SingleFlight pageLoads = new SingleFlight();
+
     /**
      * Construct a new FileSystemPageManagerWithContextDefault.
      */
     public FileSystemPageManagerWithContextDefault() {
-        this.cache = new HashMap();
+        this.cache = new ConcurrentHashMap();
     }
 
     /**
@@ -95,7 +103,7 @@ public class FileSystemPageManagerWithContextDefault extends
      * @return The Page
      * @throws Exception Any Exception
      */
-    public synchronized PageInstance getPage(String path) throws Exception {
+    public PageInstance getPage(String path) throws Exception {
         File file = new File(path);
         File parentDirectory = file.getParentFile();
 
@@ -112,10 +120,11 @@ public class FileSystemPageManagerWithContextDefault extends
         File xmlFile = new File(getRoot(),
                 new File(parentDirectory, pageName + ".xml").getPath());
 
-        if (!xmlFile.exists()) {
+        FileChangeMonitor fileChangeMonitor = siteContext.getFileChangeMonitor();
+        if (!fileChangeMonitor.exists(xmlFile)) {
             xmlFile = getPathContextDefaultPage(getRoot(), pagePath);
 
-            if (!xmlFile.exists()) {
+            if (!fileChangeMonitor.exists(xmlFile)) {
                 throw new FileNotFoundException(
                         "Default page descriptor not found: " + xmlFile);
             }
@@ -131,51 +140,16 @@ public class FileSystemPageManagerWithContextDefault extends
 
         PageInstance page = null;
         PageDefinition pageDefinition = null;
-        FileInputStream in = null;
-        try {
-            if (cacheEntry == null) {
-                if (log.isDebugEnabled())
-                    log.debug("Page definition (" + pagePath +
-                            ") not found in cache.");
-
-                if (log.isDebugEnabled())
-                    log.debug("Loading page definition configuration: " + xmlFile);
-
-                in = new FileInputStream(xmlFile);
-
-                pageDefinition = new PageDefinition(siteContext, pagePath);
-                pageDefinition.loadConfiguration(in);
-
-                cache.put(pagePath, new PageDefinitionCacheEntry(pageDefinition,
-                        xmlFile.lastModified()));
-            } else {
-                if (log.isDebugEnabled())
-                    log.debug("Page definition (" + pagePath
-                            + ") found in cache.");
-
-                pageDefinition = cacheEntry.getPageDefinition();
 
-                if (cacheEntry.getLastModified() != xmlFile.lastModified()) {
-                    if (log.isDebugEnabled()) {
-                        log.debug("Page modification dates do not match.");
-                        log.debug("Reloading page definition.");
-                    }
-                    long lastModified = xmlFile.lastModified();
-
-                    in = new FileInputStream(xmlFile);
-
-                    pageDefinition = new PageDefinition(siteContext, pagePath);
-                    pageDefinition.loadConfiguration(in);
-
-                    cache.put(pagePath, new PageDefinitionCacheEntry(
-                            pageDefinition, lastModified));
-                }
-            }
-        } catch (Exception e) {
-            log.error("Error loading page definition: " + e.getMessage());
-            throw e;
-        } finally {
-            IOUtilities.close(in);
+        if (cacheEntry != null && cacheEntry.getLastModified() == fileChangeMonitor.lastModified(xmlFile)) {
+            if (log.isDebugEnabled())
+                log.debug("Page definition (" + pagePath
+                        + ") found in cache.");
+            pageDefinition = cacheEntry.getPageDefinition();
+        } else {
+            // concurrent requests for the same page share a single load
+            pageDefinition = (PageDefinition) pageLoads.execute(pagePath,
+                    new PageDefinitionLoader(pagePath, xmlFile));
         }
 
         if (pageDefinition != null) {
@@ -196,13 +170,14 @@ public class FileSystemPageManagerWithContextDefault extends
      * @return default file
      */
     private File getPathContextDefaultPage(File root, String path) {
+        FileChangeMonitor fileChangeMonitor = siteContext.getFileChangeMonitor();
 
         String defPage = File.separatorChar + getDefaultPath();
         File parentDir = new File(root, path.substring(0, path.lastIndexOf("/")));
         File rootDefaultPage = new File(root, defPage);
         File defaultFile = new File(parentDir, defPage);
 
-        while (!defaultFile.exists() && !(rootDefaultPage.equals(defaultFile))) {
+        while (!fileChangeMonitor.exists(defaultFile) && !(rootDefaultPage.equals(defaultFile))) {
             parentDir = new File(parentDir.getParent());
             defaultFile = new File(parentDir + defPage);
         }
@@ -303,6 +278,16 @@ public class FileSystemPageManagerWithContextDefault extends
         return new FileWriter(pathToFile(path));
     }
 
+    /**
+     * Get the number of page definitions cached.
+     *
+     * @return The number of cached page definitions
+     */
+
+    public int getCacheSize() {
+        return cache.size();
+    }
+
     protected File pathToFile(String path) {
         if (path.endsWith("/")) {
             return new File(getRoot(), path);
@@ -317,4 +302,54 @@ public class FileSystemPageManagerWithContextDefault extends
                 new File(parentDirectory, pageName + ".xml").getPath());
     }
 
+    /**
+     * Load the page definition from the given file, unless a concurrent
+     * load already refreshed the cache.
+     */
+
+    private class PageDefinitionLoader implements Callable {
+
+        private String pagePath;
+        private File xmlFile;
+
+        PageDefinitionLoader(String pagePath, File xmlFile) {
+            this.pagePath = pagePath;
+            this.xmlFile = xmlFile;
+        }
+
+        public Object call() throws Exception {
+            long lastModified = siteContext.getFileChangeMonitor().lastModified(xmlFile);
+            PageDefinitionCacheEntry cacheEntry =
+                    (PageDefinitionCacheEntry) cache.get(pagePath);
+            if (cacheEntry != null && cacheEntry.getLastModified() == lastModified) {
+                return cacheEntry.getPageDefinition();
+            }
+
+            if (log.isDebugEnabled()) {
+                if (cacheEntry == null) {
+                    log.debug("Page definition (" + pagePath + ") not found in cache.");
+                } else {
+                    log.debug("Page modification dates do not match.");
+                }
+                log.debug("Loading page definition configuration: " + xmlFile);
+            }
+
+            FileInputStream in = null;
+            try {
+                in = new FileInputStream(xmlFile);
+
+                PageDefinition pageDefinition = new PageDefinition(siteContext, pagePath);
+                pageDefinition.loadConfiguration(in);
+
+                cache.put(pagePath, new PageDefinitionCacheEntry(pageDefinition, lastModified));
+                return pageDefinition;
+            } catch (Exception e) {
+                log.error("Error loading page definition: " + e.getMessage());
+                throw e;
+            } finally {
+                IOUtilities.close(in);
+            }
+        }
+    }
+
 }
@@ -27,13 +27,18 @@ import org.apache.commons.logging.LogFactory;
 import org.jpublish.*;
 import org.jpublish.action.ActionManager;
 import org.jpublish.action.ActionNotFoundException;
+import org.jpublish.action.ActionWrapper;
 import org.jpublish.util.*;
 import org.jpublish.view.ViewRenderer;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * The ExtendedFileSystemRepository allows actions to be bound to content
@@ -56,12 +61,20 @@ public class ExtendedFileSystemRepository extends AbstractFileSystemRepository i
     private static final String XML_TYPE = ".xml";
 
     private JPublishCache cache = null;
+    private SingleFlight contentLoads = new SingleFlight();
     private String cacheName = DEFAULT_CACHE_NAME;
     private String configurationDirectoryName = "config";
     private static final String DOT = ".";
     private static final String PROPERTY_NAME = "name";
     private static final String PROPERTY_VALUE = "value";
     private static final String PROPERTY_LOCALE = "locale";
+    private static final int MAX_CONTENT_ACTIONS = 1024;
+
+    /**
+     * the content actions of the most recently requested paths, by
+     * configuration file key
+     */
+    private ConcurrentMap contentActions = new ConcurrentHashMap();
 
 //private Map configCache = new HashMap();
 
@@ -94,7 +107,10 @@ public class ExtendedFileSystemRepository extends AbstractFileSystemRepository i
      */
 
     public String get(String path, JPublishContext context) throws Exception {
-        UtilTimerStack.push( " ==> /"+path);
+        boolean profiling = SiteContext.getProfiling();
+        if (profiling) {
+            UtilTimerStack.push(" ==> /" + path);
+        }
         executeActions(path, context);
 
         if (log.isDebugEnabled())
@@ -123,7 +139,9 @@ public class ExtendedFileSystemRepository extends AbstractFileSystemRepository i
             IOUtilities.close(in);
             IOUtilities.close(reader);
             IOUtilities.close(writer);
-            UtilTimerStack.pop( " ==> /"+path);
+            if (profiling) {
+                UtilTimerStack.pop(" ==> /" + path);
+            }
         }
     }
 
@@ -203,7 +221,7 @@ public class ExtendedFileSystemRepository extends AbstractFileSystemRepository i
      */
 
     public long getLastModified(String path) throws Exception {
-        return pathToFile(path).lastModified();
+        return siteContext.getFileChangeMonitor().lastModified(pathToFile(path));
     }
 
     /**
@@ -286,15 +304,23 @@ public class ExtendedFileSystemRepository extends AbstractFileSystemRepository i
      * @return The String
      */
 
-    private String loadContent(String path) throws Exception {
+    private String loadContent(final String path) throws Exception {
+        final long fileTimeStamp = siteContext.getFileChangeMonitor().lastModified(pathToFile(path));
         CacheEntry cacheEntry = (CacheEntry) cache.get(path);
-        long fileTimeStamp = pathToFile(path).lastModified();
 
         if (cacheEntry == null || cacheEntry.getLastModified() != fileTimeStamp) {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(getInputStream(path)));// [florin], getInputEncoding(path)));
-            cacheEntry = new CacheEntry(FileCopyUtils.copyToString(reader), fileTimeStamp);
-            cache.put(path, cacheEntry);
-            //log.info(path + " loaded ...");
+            // concurrent requests for the same content share a single load
+            cacheEntry = (CacheEntry) contentLoads.execute(path, new Callable() {
+                public Object call() throws Exception {
+                    CacheEntry loadedEntry = (CacheEntry) cache.get(path);
+                    if (loadedEntry == null || loadedEntry.getLastModified() != fileTimeStamp) {
+                        BufferedReader reader = new BufferedReader(new InputStreamReader(getInputStream(path)));// [florin], getInputEncoding(path)
+                        loadedEntry = new CacheEntry(FileCopyUtils.copyToString(reader), fileTimeStamp);
+                        cache.put(path, loadedEntry);
+                    }
+                    return loadedEntry;
+                }
+            });
         }
         return (String) cacheEntry.getObject();
     }
@@ -359,7 +385,8 @@ public class ExtendedFileSystemRepository extends AbstractFileSystemRepository i
 
         // locate the configuration file
         File configFile = pathToConfig(path);
-        if (!configFile.exists()) {
+        FileChangeMonitor fileChangeMonitor = siteContext.getFileChangeMonitor();
+        if (!fileChangeMonitor.exists(configFile)) {
             return;
         }
 
@@ -367,7 +394,7 @@ public class ExtendedFileSystemRepository extends AbstractFileSystemRepository i
         Configuration configuration;
 
         CacheEntry cacheEntry = (CacheEntry) cache.get(configFileKey);
-        long fileTimeStamp = configFile.lastModified();
+        long fileTimeStamp = fileChangeMonitor.lastModified(configFile);
 
         try {
             if (cacheEntry == null || cacheEntry.getLastModified() != fileTimeStamp) {
@@ -416,21 +443,66 @@ public class ExtendedFileSystemRepository extends AbstractFileSystemRepository i
             }
         }
 
-        // execute all content actions
-        List actions = configuration.getChildren("content-action");
-        if (actions != null) {
-            Iterator contentActionElements = actions.iterator();
+        // execute all content actions, the parallel-safe ones concurrently
+        ContentActions actions = getContentActions(configFileKey, configuration, actionManager);
+        if (!actions.wrappers.isEmpty()) {
+            actionManager.executeActions(actions.wrappers, context, false);
+        }
+        if (actions.notFound != null) {
+            throw actions.notFound;
+        }
+
+    }
+
+    /**
+     * Get the wrapped content actions of the given configuration, built once
+     * per configuration version.  The actions are resolved in order; when one
+     * cannot be found, the actions before it are still executed and the
+     * wrappers are built again on the next request.
+     *
+     * @param configFileKey The configuration file key
+     * @param configuration The configuration of the content element
+     * @param actionManager The ActionManager
+     * @return The ContentActions
+     */
+
+    private ContentActions getContentActions(String configFileKey, Configuration configuration,
+                                             ActionManager actionManager) {
+        ContentActions actions = (ContentActions) contentActions.get(configFileKey);
+        if (actions != null && actions.configuration == configuration
+                && actions.actionManager == actionManager) {
+            return actions;
+        }
+
+        actions = new ContentActions(configuration, actionManager);
+        List actionElements = configuration.getChildren("content-action");
+        if (actionElements != null) {
+            Iterator contentActionElements = actionElements.iterator();
             while (contentActionElements.hasNext()) {
                 Configuration contentActionElement = (Configuration) contentActionElements.next();
                 String actionName = contentActionElement.getAttribute(PROPERTY_NAME);
-                if (actionName != null && actionName.trim().length() > 0) {
-                    actionManager.execute(actionName, context, contentActionElement);
-                } else {
-                    throw new ActionNotFoundException("Action: " + actionName + ", not found. Defined in: " + configFileKey);
+                if (actionName == null || actionName.trim().length() == 0) {
+                    actions.notFound = new ActionNotFoundException("Action: " + actionName
+                            + ", not found. Defined in: " + configFileKey);
+                    break;
+                }
+                try {
+                    actions.wrappers.add(new ActionWrapper(actionManager.findAction(actionName),
+                            contentActionElement));
+                } catch (ActionNotFoundException e) {
+                    actions.notFound = e;
+                    break;
                 }
             }
         }
 
+        if (actions.notFound == null) {
+            if (contentActions.size() >= MAX_CONTENT_ACTIONS) {
+                contentActions.clear();
+            }
+            contentActions.put(configFileKey, actions);
+        }
+        return actions;
     }
 
 
@@ -456,4 +528,20 @@ public class ExtendedFileSystemRepository extends AbstractFileSystemRepository i
     public String getCacheName() {
         return cacheName;
     }
+
+    /**
+     * The content actions bound by a version of a configuration file.
+     */
+
+    private static class ContentActions {
+        private Configuration configuration;
+        private ActionManager actionManager;
+        private List wrappers = new ArrayList();
+        private ActionNotFoundException notFound;
+
+        ContentActions(Configuration configuration, ActionManager actionManager) {
+            this.configuration = configuration;
+            this.actionManager = actionManager;
+        }
+    }
 }
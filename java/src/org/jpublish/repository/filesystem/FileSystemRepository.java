@@ -29,6 +29,7 @@ import org.jpublish.view.ViewRenderer;
 
 import java.io.*;
 import java.util.Iterator;
+import java.util.concurrent.Callable;
 
 /**
  * An implementation of the Repository interface which pulls content from
@@ -42,6 +43,7 @@ public class FileSystemRepository extends AbstractFileSystemRepository implement
 
     private static Log log = LogFactory.getLog(FileSystemRepository.class);
     private JPublishCache jPublishCache = null;
+    private SingleFlight contentLoads = new SingleFlight();
 
     /**
      * Get the content from the given path.  Implementations of this method
@@ -168,7 +170,7 @@ public class FileSystemRepository extends AbstractFileSystemRepository implement
      */
 
     public long getLastModified(String path) throws Exception {
-        return pathToFile(path).lastModified();
+        return siteContext.getFileChangeMonitor().lastModified(pathToFile(path));
     }
 
     /**
@@ -221,13 +223,23 @@ public class FileSystemRepository extends AbstractFileSystemRepository implement
      * @return The String
      */
 
-    private String loadContent(String path) throws Exception {
+    private String loadContent(final String path) throws Exception {
+        final long fileTimeStamp = siteContext.getFileChangeMonitor().lastModified(pathToFile(path));
         CacheEntry cacheEntry = (CacheEntry) jPublishCache.get(path);
-        long fileTimeStamp = pathToFile(path).lastModified();
+
         if (cacheEntry == null || cacheEntry.getLastModified() != fileTimeStamp) {
-            BufferedReader reader = new BufferedReader(new InputStreamReader(getInputStream(path)));
-            cacheEntry = new CacheEntry(FileCopyUtils.copyToString(reader), fileTimeStamp);
-            jPublishCache.put(path, cacheEntry);
+            // concurrent requests for the same content share a single load
+            cacheEntry = (CacheEntry) contentLoads.execute(path, new Callable() {
+                public Object call() throws Exception {
+                    CacheEntry loadedEntry = (CacheEntry) jPublishCache.get(path);
+                    if (loadedEntry == null || loadedEntry.getLastModified() != fileTimeStamp) {
+                        BufferedReader reader = new BufferedReader(new InputStreamReader(getInputStream(path)));
+                        loadedEntry = new CacheEntry(FileCopyUtils.copyToString(reader), fileTimeStamp);
+                        jPublishCache.put(path, loadedEntry);
+                    }
+                    return loadedEntry;
+                }
+            });
         }
         return (String) cacheEntry.getObject();
     }
@@ -25,6 +25,11 @@ import com.anthonyeden.lib.config.ConfigurationException;
 
 import org.jpublish.SiteContext;
 import org.jpublish.StaticResourceManager;
+import org.jpublish.util.MimeTypeMap;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
 
 /** An abstract implementation of the StaticResourceManager interface which 
     provides behavior common to all StaticResourceManager implementations.
@@ -40,6 +45,7 @@ StaticResourceManager{
         AbstractStaticResourceManager.class);
     
     protected SiteContext siteContext;
+    protected StaticAssetCache assetCache = new StaticAssetCache();
 
     /** Get the SiteContext.
     
@@ -67,7 +73,120 @@ StaticResourceManager{
     */
     
     public void loadConfiguration(Configuration configuration) throws ConfigurationException{
-        // no op
+        assetCache.loadConfiguration(configuration);
+    }
+    
+    /** Get the static resource at the given path from the asset cache,
+        loading it first if it is not cached yet or if it was modified.
+        
+        @param path The resource path
+        @return The StaticAsset or null if the resource is too large to be cached
+        @throws Exception Any Exception
+    */
+    
+    public StaticAsset getAsset(String path) throws Exception{
+        long lastModified = getLastModified(path);
+        long contentLength = getContentLength(path);
+        
+        StaticAsset asset = assetCache.get(path);
+        if(asset != null){
+            if(asset.getLastModified() == lastModified && 
+            asset.getContentLength() == contentLength){
+                return asset;
+            }
+            assetCache.remove(asset);
+        }
+        
+        if(!assetCache.isCacheable(contentLength)){
+            return null;
+        }
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream((int)contentLength);
+        load(path, out);
+        asset = new StaticAsset(path, out.toByteArray(), getContentType(path), 
+            lastModified);
+        assetCache.put(asset);
+        return asset;
+    }
+    
+    /** Get the StaticAssetCache used by this StaticResourceManager.
+    
+        @return The StaticAssetCache
+    */
+    
+    public StaticAssetCache getAssetCache(){
+        return assetCache;
+    }
+    
+    /** Get the Content-Type served for the static resource at the given 
+        path.  The mime type is determined by the path extension.
+    
+        @param path The resource path
+        @return The Content-Type
+    */
+    
+    protected String getContentType(String path){
+        String mimeType = MimeTypeMap.DEFAULT_MIME_TYPE;
+        int lastDotIndex = path.lastIndexOf(".");
+        if(lastDotIndex >= 0){
+            mimeType = siteContext.getMimeTypeMap().getMimeType(
+                path.substring(lastDotIndex + 1));
+        }
+        return mimeType + "; charset=" + 
+            siteContext.getCharacterEncodingManager().getMap(path).getResponseEncoding();
+    }
+
+    /** Load a part of the static resource data at the given path.  This
+        implementation loads the whole resource and discards the bytes
+        outside of the requested range; subclasses should override it with
+        a more efficient version.
+    
+        @param path The resource path
+        @param offset The position of the first byte to write
+        @param length The number of bytes to write
+        @param out The OutputStream
+        @throws Exception Any Exception
+    */
+    
+    public void load(String path, long offset, long length, OutputStream out) 
+    throws Exception{
+        load(path, new RangeOutputStream(out, offset, length));
+    }
+    
+    /** OutputStream writing only the bytes found in a given range. */
+    
+    private static class RangeOutputStream extends OutputStream{
+        
+        private OutputStream out;
+        private long start;
+        private long end;
+        private long position = 0;
+        
+        RangeOutputStream(OutputStream out, long offset, long length){
+            this.out = out;
+            this.start = offset;
+            this.end = offset + length;
+        }
+        
+        public void write(int b) throws IOException{
+            if(position >= start && position < end){
+                out.write(b);
+            }
+            position++;
+        }
+        
+        public void write(byte[] b, int off, int len) throws IOException{
+            long from = Math.max(position, start);
+            long to = Math.min(position + len, end);
+            if(from < to){
+                out.write(b, off + (int)(from - position), (int)(to - from));
+            }
+            position += len;
+        }
+        
+        public void flush() throws IOException{
+            out.flush();
+        }
     }
 
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.jpublish.resource;
+
+import java.util.zip.CRC32;
+
+/**
+ * A static resource held in memory by the StaticAssetCache, together with
+ * the response headers computed once when the resource is loaded: the
+ * Content-Type, the Last-Modified time and a strong ETag derived from the
+ * content.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class StaticAsset {
+
+    private String path;
+    private byte[] content;
+    private String contentType;
+    private long lastModified;
+    private String eTag;
+    private volatile long lastAccess;
+
+    /**
+     * Construct a new StaticAsset.
+     *
+     * @param path         The resource path
+     * @param content      The resource bytes
+     * @param contentType  The response Content-Type
+     * @param lastModified The resource last modified time
+     */
+
+    public StaticAsset(String path, byte[] content, String contentType, long lastModified) {
+        this.path = path;
+        this.content = content;
+        this.contentType = contentType;
+        this.lastModified = lastModified;
+
+        CRC32 checksum = new CRC32();
+        checksum.update(content);
+        this.eTag = "\"" + Long.toHexString(checksum.getValue()) + "-"
+                + Integer.toHexString(content.length) + "\"";
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+
+    public int getContentLength() {
+        return content.length;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Get the last modified time of the resource, as reported by the
+     * StaticResourceManager when the resource was loaded.
+     *
+     * @return The last modified time
+     */
+
+    public long getLastModified() {
+        return lastModified;
+    }
+
+    /**
+     * Get the strong entity tag of the resource, quoted.
+     *
+     * @return The ETag
+     */
+
+    public String getETag() {
+        return eTag;
+    }
+
+    long getLastAccess() {
+        return lastAccess;
+    }
+
+    void setLastAccess(long lastAccess) {
+        this.lastAccess = lastAccess;
+    }
+
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.jpublish.resource;
+
+import com.anthonyeden.lib.config.Configuration;
+import com.anthonyeden.lib.config.ConfigurationException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-memory cache for small, frequently requested static resources, bounded
+ * by the total number of bytes held.  Lookups do not lock; when a new asset
+ * does not fit, the least recently used assets are evicted.  The cache is
+ * configured inside the <code>static-resource-manager</code> element of the
+ * <code>jpublish.xml</code> file:
+ * <p/>
+ * <pre>
+ * &lt;asset-cache enabled="true" max-bytes="8388608" max-file-size="262144"/&gt;
+ * </pre>
+ * <p/>
+ * Resources larger than max-file-size are never cached.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class StaticAssetCache {
+    private static final Log log = LogFactory.getLog(StaticAssetCache.class);
+
+    public static final long DEFAULT_MAX_BYTES = 8 * 1024 * 1024;
+    public static final long DEFAULT_MAX_FILE_SIZE = 256 * 1024;
+
+    private boolean enabled = true;
+    private long maxBytes = DEFAULT_MAX_BYTES;
+    private long maxFileSize = DEFAULT_MAX_FILE_SIZE;
+
+    private ConcurrentMap assets = new ConcurrentHashMap();
+    private AtomicLong size = new AtomicLong();
+    private AtomicLong clock = new AtomicLong();
+
+    /**
+     * Load the asset-cache configuration.
+     *
+     * @param configuration The static-resource-manager configuration
+     * @throws ConfigurationException
+     */
+
+    public void loadConfiguration(Configuration configuration) throws ConfigurationException {
+        Configuration assetCacheElement = configuration.getChild("asset-cache");
+        if (assetCacheElement == null) {
+            return;
+        }
+
+        enabled = "true".equalsIgnoreCase(assetCacheElement.getAttribute("enabled", "true"));
+        try {
+            maxBytes = Long.parseLong(assetCacheElement.getAttribute("max-bytes",
+                    String.valueOf(DEFAULT_MAX_BYTES)));
+            maxFileSize = Long.parseLong(assetCacheElement.getAttribute("max-file-size",
+                    String.valueOf(DEFAULT_MAX_FILE_SIZE)));
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("Invalid asset-cache size", e, assetCacheElement);
+        }
+        clear();
+    }
+
+    /**
+     * Return true if a resource of the given length can be cached.
+     *
+     * @param contentLength The resource length
+     * @return True if the resource can be cached
+     */
+
+    public boolean isCacheable(long contentLength) {
+        return enabled && contentLength >= 0 && contentLength <= maxFileSize && contentLength <= maxBytes;
+    }
+
+    /**
+     * Get the asset cached for the given path.
+     *
+     * @param path The resource path
+     * @return The StaticAsset or null
+     */
+
+    public StaticAsset get(String path) {
+        StaticAsset asset = (StaticAsset) assets.get(path);
+        if (asset != null) {
+            asset.setLastAccess(clock.incrementAndGet());
+        }
+        return asset;
+    }
+
+    /**
+     * Cache the given asset, evicting the least recently used assets if
+     * the cache would exceed its maximum size.
+     *
+     * @param asset The StaticAsset
+     */
+
+    public void put(StaticAsset asset) {
+        if (!isCacheable(asset.getContentLength())) {
+            return;
+        }
+
+        asset.setLastAccess(clock.incrementAndGet());
+        StaticAsset previous = (StaticAsset) assets.put(asset.getPath(), asset);
+        size.addAndGet(asset.getContentLength());
+        if (previous != null) {
+            size.addAndGet(-previous.getContentLength());
+        }
+
+        if (size.get() > maxBytes) {
+            evict();
+        }
+    }
+
+    /**
+     * Remove the given asset, if it is still the one cached for its path.
+     *
+     * @param asset The StaticAsset
+     */
+
+    public void remove(StaticAsset asset) {
+        if (assets.remove(asset.getPath(), asset)) {
+            size.addAndGet(-asset.getContentLength());
+        }
+    }
+
+    /**
+     * Remove all the cached assets.
+     */
+
+    public void clear() {
+        Iterator cached = assets.values().iterator();
+        while (cached.hasNext()) {
+            remove((StaticAsset) cached.next());
+        }
+    }
+
+    /**
+     * Get the number of bytes currently cached.
+     *
+     * @return The cache size in bytes
+     */
+
+    public long getSize() {
+        return size.get();
+    }
+
+    private synchronized void evict() {
+        while (size.get() > maxBytes) {
+            StaticAsset eldest = null;
+            Iterator cached = assets.values().iterator();
+            while (cached.hasNext()) {
+                StaticAsset asset = (StaticAsset) cached.next();
+                if (eldest == null || asset.getLastAccess() < eldest.getLastAccess()) {
+                    eldest = asset;
+                }
+            }
+
+            if (eldest == null) {
+                return;
+            }
+
+            if (log.isDebugEnabled())
+                log.debug("Evicting static asset: " + eldest.getPath());
+
+            remove(eldest);
+        }
+    }
+
+}
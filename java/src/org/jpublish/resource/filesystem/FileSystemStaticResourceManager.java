@@ -22,13 +22,15 @@ import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.jpublish.resource.AbstractStaticResourceManager;
 import org.jpublish.util.BreadthFirstFileTreeIterator;
-import org.jpublish.util.FileCopyUtils;
 import org.jpublish.util.FileToPathIterator;
 import org.jpublish.util.vfs.VFSFile;
 import org.jpublish.util.vfs.VFSProvider;
 import org.jpublish.util.vfs.provider.filesystem.FileSystemProvider;
 
 import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.util.Iterator;
 
 /**
@@ -56,7 +58,7 @@ public class FileSystemStaticResourceManager extends AbstractStaticResourceManag
      */
 
     public boolean resourceExists(String path) {
-        return pathToFile(path).exists();
+        return siteContext.getFileChangeMonitor().exists(pathToFile(path));
     }
 
     /**
@@ -67,7 +69,7 @@ public class FileSystemStaticResourceManager extends AbstractStaticResourceManag
      */
 
     public long getLastModified(String path) {
-        return pathToFile(path).lastModified();
+        return siteContext.getFileChangeMonitor().lastModified(pathToFile(path));
     }
 
     /**
@@ -78,7 +80,7 @@ public class FileSystemStaticResourceManager extends AbstractStaticResourceManag
      */
 
     public long getContentLength(String path) {
-        return pathToFile(path).length();
+        return siteContext.getFileChangeMonitor().length(pathToFile(path));
     }
 
     /**
@@ -107,7 +109,43 @@ public class FileSystemStaticResourceManager extends AbstractStaticResourceManag
         if (path == null || path.trim().length() == 0)
             return;
 
-        FileCopyUtils.copy(FileCopyUtils.copyToByteArray(pathToFile(path)), out);
+        load(path, 0, -1, out);
+    }
+
+    /**
+     * Load a part of the static resource data at the given path and write
+     * it to the specified OutputStream.  The data is transferred from the
+     * file channel in chunks, without reading the whole file in memory.
+     *
+     * @param path   The resource path
+     * @param offset The position of the first byte to write
+     * @param length The number of bytes to write, -1 for all the remaining bytes
+     * @param out    The OutputStream
+     * @throws Exception Any Exception
+     */
+
+    public void load(String path, long offset, long length, OutputStream out) throws Exception {
+        FileInputStream in = new FileInputStream(pathToFile(path));
+        try {
+            FileChannel channel = in.getChannel();
+            long end = channel.size();
+            if (length >= 0) {
+                end = Math.min(end, offset + length);
+            }
+
+            // the target channel is not closed, the OutputStream belongs to the caller
+            WritableByteChannel target = Channels.newChannel(out);
+            long position = offset;
+            while (position < end) {
+                long transferred = channel.transferTo(position, end - position, target);
+                if (transferred <= 0) {
+                    break;
+                }
+                position += transferred;
+            }
+        } finally {
+            IOUtilities.close(in);
+        }
     }
 
     /**
@@ -23,7 +23,11 @@ import org.apache.commons.logging.LogFactory;
 import org.jpublish.*;
 import org.jpublish.action.ActionManager;
 import org.jpublish.component.ComponentMap;
+import org.jpublish.metrics.PrometheusExporter;
+import org.jpublish.metrics.RequestMetrics;
+import org.jpublish.metrics.RequestTimer;
 import org.jpublish.page.PageInstance;
+import org.jpublish.resource.StaticAsset;
 import org.jpublish.util.*;
 
 import javax.servlet.ServletConfig;
@@ -33,14 +37,23 @@ import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
+import java.io.CharArrayWriter;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
 import java.io.Writer;
 import java.net.SocketException;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Iterator;
+import java.util.List;
+import java.util.StringTokenizer;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * This class is the entry point for requests to the JPublish framework.
@@ -66,7 +79,47 @@ public class JPublishServlet extends HttpServlet {
      */
     public static final String HEADER_IF_MODIFIED = "If-Modified-Since";
 
+    /**
+     * HTTP header requesting only a part of the content
+     */
+    public static final String HEADER_RANGE = "Range";
+
+    /**
+     * HTTP header making the Range request conditional on the content being unchanged
+     */
+    public static final String HEADER_IF_RANGE = "If-Range";
+
+    /**
+     * HTTP header describing the part of the content sent in a partial response
+     */
+    public static final String HEADER_CONTENT_RANGE = "Content-Range";
+
+    /**
+     * HTTP header announcing the support for Range requests
+     */
+    public static final String HEADER_ACCEPT_RANGES = "Accept-Ranges";
+
+    /**
+     * HTTP header carrying the entity tag of the content
+     */
+    public static final String HEADER_ETAG = "ETag";
+
+    /**
+     * HTTP header to request only content whose entity tag changed
+     */
+    public static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+
+    /**
+     * the deprecated url_util and url_utils names share the urlUtilities instance
+     */
+    private static final JPublishContext.ValueSupplier URL_UTILITIES_ALIAS = new JPublishContext.ValueSupplier() {
+        public Object get(JPublishContext context) {
+            return context.getUrlUtilities();
+        }
+    };
+
     private SiteContext siteContext;
+    private ConcurrentMap repositorySuppliers = new ConcurrentHashMap();
     public static final String JPUBLISH_CONTEXT = "jpublishContext";
     private boolean formatParameterSupported = false;
 
@@ -103,6 +156,8 @@ public class JPublishServlet extends HttpServlet {
             siteContext.setServletConfig(servletConfig);
             siteContext.setJPublishServlet(this);
             siteContext.init();
+            siteContext.getRequestMetrics().register(servletContext.getServletContextName() != null ?
+                    servletContext.getServletContextName() : contextRoot.getName());
             formatParameterSupported = siteContext.getFormatChangeParameterName() != null
                     && siteContext.getFormatChangeParameterName().trim().length() > 0;
         } catch (Exception e) {
@@ -157,6 +212,9 @@ public class JPublishServlet extends HttpServlet {
             log.error("Error destroying modules: " + e.getMessage());
             e.printStackTrace();
         }
+
+        siteContext.getRequestMetrics().unregister();
+        siteContext.destroy();
     }
 
     /**
@@ -214,6 +272,16 @@ public class JPublishServlet extends HttpServlet {
             log.debug("calculated Path info: " + pathInfo);
         //OLAT: PATCH END
 
+        RequestMetrics metrics = siteContext.getRequestMetrics();
+        if (pathInfo.equals(metrics.getPath())) {
+            serveMetrics(response, metrics);
+            return;
+        }
+        if (pathInfo.equals(metrics.getPrometheusPath())) {
+            servePrometheusMetrics(response);
+            return;
+        }
+
         String contextPath = request.getContextPath();
 
         if (log.isDebugEnabled())
@@ -242,13 +310,6 @@ public class JPublishServlet extends HttpServlet {
         if (log.isDebugEnabled())
             log.debug("Real path: " + path);
 
-        // create the session if enabled
-        HttpSession session = null;
-
-        if (isSessionEnabled(path)) {
-            session = request.getSession(true);
-        }
-
         // get the character encoding map
         CharacterEncodingMap characterEncodingMap =
                 siteContext.getCharacterEncodingManager().getMap(path);
@@ -258,9 +319,40 @@ public class JPublishServlet extends HttpServlet {
             request.setCharacterEncoding(characterEncodingMap.getRequestEncoding());
         }
 
+        RequestTimer timer = metrics.start(path);
+
+        // static resources with no actions to execute are served without building the context
+        if (siteContext.getStaticResourceManager().resourceExists(path) && !hasActions(request, path)) {
+            try {
+                timer.begin(RequestMetrics.STATIC);
+                serveStaticResource(request, response, null, path, characterEncodingMap);
+            } catch (FileNotFoundException e) {
+                log.error("[404] " + path);
+                if (!response.isCommitted()) {
+                    response.sendError(HttpServletResponse.SC_NOT_FOUND, path);
+                }
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                log.error("Error serving static resource: " + MessageUtilities.format(e.getMessage()));
+                throw new ServletException(e);
+            } finally {
+                timer.stop();
+            }
+            return;
+        }
+
+        // create the session if enabled
+        HttpSession session = null;
+
+        if (isSessionEnabled(path)) {
+            session = request.getSession(true);
+        }
+
 
         // put standard servlet stuff into the context
         JPublishContext context = new JPublishContext(this);
+        context.setRequestTimer(timer);
         context.put("request", request);
         context.put("response", response);
         context.put("session", session);
@@ -269,12 +361,11 @@ public class JPublishServlet extends HttpServlet {
         // add the character encoding map to the context
         context.put("characterEncodingMap", characterEncodingMap);
 
-        // add the URLUtilities to the context
-        URLUtilities urlUtilities = new URLUtilities(request, response);
-        context.put("urlUtilities", urlUtilities);
+        // add the URLUtilities to the context, built when first used
+        context.put("urlUtilities", URLUtilities.SUPPLIER);
         // deprecated
-        context.put("url_util", urlUtilities);
-        context.put("url_utils", urlUtilities);
+        context.put("url_util", URL_UTILITIES_ALIAS);
+        context.put("url_utils", URL_UTILITIES_ALIAS);
 
         // add the DateUtilities to the context
         context.put("dateUtilities", DateUtilities.getInstance());
@@ -309,14 +400,18 @@ public class JPublishServlet extends HttpServlet {
             if (log.isDebugEnabled())
                 log.debug("Adding " + repository.getClass().getName() + " as " + repository.getName());
 
-            context.put(repository.getName(), new RepositoryWrapper(repository, context));
+            context.put(repository.getName(), getRepositorySupplier(repository));
         }
 
         Writer out = null;
+        String renderingKey = null;
+        OutputCacheResponse outputCacheResponse = null;
         try {
 
+            timer.begin(RequestMetrics.PRE_EVALUATION);
             if (executePreEvaluationActions(request, response, context, path))
                 return;
+            timer.end();
 
             if (context.getStopProcessing() != null) {
                 return;
@@ -326,74 +421,72 @@ public class JPublishServlet extends HttpServlet {
             StaticResourceManager staticResourceManager = siteContext.getStaticResourceManager();
 
             if (staticResourceManager.resourceExists(path)) {
+                timer.begin(RequestMetrics.STATIC);
+                serveStaticResource(request, response, context, path, characterEncodingMap);
+                return;
+            } else {
+                if (log.isDebugEnabled())
+                    log.debug("Static resource '" + path + "' not found");
+            }
 
-                long ifModifiedSince = request.getDateHeader(HEADER_IF_MODIFIED);
-                // will round the file's lastModified down to the nearest second by dividing by 1000 and then
-                // multiplying it by 1000; florin
-                long lastUpdatedTime = -1;
-                try {
-                    lastUpdatedTime = (staticResourceManager.getLastModified(path) / 1000) * 1000;
-                } catch (Exception e) {
-                    log.warn("Cannot read the LastModified for: "+path);
-                }
-                //log.info(String.format("%s: if modified since: %d, file time:%d, modified? %s", path, ifModifiedSince, lastUpdatedTime, (ifModifiedSince < lastUpdatedTime)));
-
-                if (ifModifiedSince < lastUpdatedTime) {
-                    // execute the global actions
-                    if (executeGlobalActions(request, response, context, path))
-                        return;
+            // serve the page from the output cache, if possible
+            OutputCacheManager outputCacheManager = siteContext.getOutputCacheManager();
+            OutputCacheMapping outputCacheMapping = null;
+            String outputCacheKey = null;
 
-                    if (context.getStopProcessing() != null) return;
+            if ("GET".equals(request.getMethod())) {
+                outputCacheMapping = outputCacheManager.getMapping(path);
+            }
 
-                    // execute path actions
-                    if (executePathActions(request, response, context, path)) return;
-                    if (context.getStopProcessing() != null) return;
+            if (outputCacheMapping != null) {
+                outputCacheKey = outputCacheMapping.getKey(path, request,
+                        siteContext.getFormatChangeParameterName());
+                OutputCacheEntry outputCacheEntry = outputCacheManager.get(outputCacheKey);
+
+                if (outputCacheEntry == null) {
+                    // concurrent requests for the same page wait for a single render
+                    if (outputCacheManager.beginRender(outputCacheKey)) {
+                        renderingKey = outputCacheKey;
+                    } else {
+                        outputCacheEntry = outputCacheManager.get(outputCacheKey);
+                    }
+                }
 
-                    // execute parameter actions
-                    if (executeParameterActions(request, response, context, path))
-                        return;
-                    if (context.getStopProcessing() != null) return;
+                if (outputCacheEntry != null) {
+                    if (log.isDebugEnabled())
+                        log.debug("Serving cached output for: " + outputCacheKey);
 
-                    // load and return the static resource
-                    setResponseContentType(request, response, path, characterEncodingMap);
-                    response.setDateHeader(HEADER_LAST_MODIFIED, lastUpdatedTime);
-                    response.setContentLength((int) staticResourceManager.getContentLength(path));
-                    try {
-                        staticResourceManager.load(path, response.getOutputStream());
-                    } catch (SocketException e) {
-                        log.warn("Error writing to output stream: " + e.getMessage());
-                    }
-                    // OLAT: PATCH: Ignore org.apache.catalina.connector.ClientAbortException
-                    // that is produced by InternetExplorer (6.0) browser caching.
-                    catch (IOException e) {
-                        if (e instanceof FileNotFoundException) {
-                            throw e;
-                        }
-                    }
-                } else {
-                    //If the browser has current version of the file, don't send it. Just say it has not changed
-                    response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+                    writeCachedOutput(request, response, outputCacheEntry);
+                    return;
                 }
-                return;
-            } else {
-                if (log.isDebugEnabled())
-                    log.debug("Static resource '" + path + "' not found");
+
+                // collect the repository content used while rendering the page
+                context.put(OutputCacheManager.DEPENDENCIES, Collections.synchronizedList(new ArrayList()));
+
+                // a cached page is replayed without its status and headers, watch for them
+                outputCacheResponse = new OutputCacheResponse(response);
+                response = outputCacheResponse;
             }
 
             // load the page
             if (log.isDebugEnabled())
                 log.debug("Loading the page.");
 
+            timer.begin(RequestMetrics.PAGE_LOAD);
             PageInstance pageInstance = siteContext.getPageManager().getPage(path);
             Page page = new Page(pageInstance);
+            timer.end();
 
             context.disableCheckReservedNames(this);
 
             // expose the page in the context
             context.put("page", page);
 
+            // the response may have been wrapped for the output cache
+            context.put("response", response);
+
             // expose components in the context
-            context.put("components", new ComponentMap(context));
+            context.put("components", ComponentMap.SUPPLIER);
 
             if (siteContext.isProtectReservedNames()) {
                 context.enableCheckReservedNames(this);
@@ -402,14 +495,17 @@ public class JPublishServlet extends HttpServlet {
             request.setAttribute(JPUBLISH_CONTEXT, context);
 
             // execute the global actions
+            timer.begin(RequestMetrics.GLOBAL_ACTIONS);
             if (executeGlobalActions(request, response, context, path)) return;
             if (context.getStopProcessing() != null) return;
 
             // execute path actions
+            timer.begin(RequestMetrics.PATH_ACTIONS);
             if (executePathActions(request, response, context, path)) return;
             if (context.getStopProcessing() != null) return;
 
             // execute parameter actions
+            timer.begin(RequestMetrics.PARAMETER_ACTIONS);
             if (executeParameterActions(request, response, context, path))
                 return;
             if (context.getStopProcessing() != null) return;
@@ -418,11 +514,13 @@ public class JPublishServlet extends HttpServlet {
             if (log.isDebugEnabled())
                 log.debug("Executing page actions.");
 
+            timer.begin(RequestMetrics.PAGE_ACTIONS);
             if (optionalRedirect(page.executeActions(context), path, response))
                 return;
             if (context.getStopProcessing() != null) {
                 return;
             }
+            timer.end();
             setResponseContentType(request, response, path, characterEncodingMap);
 
 
@@ -430,18 +528,72 @@ public class JPublishServlet extends HttpServlet {
             // OLAT: PATCH using context.getPage() instead of page object
             // since page can be changed in internal forward and page points
             // still to the original page
+            timer.begin(RequestMetrics.TEMPLATE_FETCH);
             Template template = siteContext.getTemplateManager().getTemplate(context.getPage().getFullTemplateName());
-
-            // get the Servlet writer
-            out = response.getWriter();
+            timer.begin(RequestMetrics.RENDER);
 
             // merge the template
             if (log.isDebugEnabled())
                 log.debug("Merging with template " + template.getPath());
-            // OLAT: PATCH using context.getPage() instead of page object
-            // since page can be changed in internal forward and page points
-            // still to the original page
-            template.merge(context, context.getPage(), out);
+
+            if (outputCacheKey != null) {
+                // capture the output so it can be stored in the output cache
+                CharArrayWriter buffer = new CharArrayWriter();
+                template.merge(context, context.getPage(), buffer);
+
+                if (context.get("redirect") == null && context.getStopProcessing() == null
+                        && outputCacheResponse.isCacheable()) {
+                    String characterEncoding = response.getCharacterEncoding();
+                    byte[] content = characterEncoding == null ?
+                            buffer.toString().getBytes() : buffer.toString().getBytes(characterEncoding);
+
+                    OutputCacheEntry outputCacheEntry = new OutputCacheEntry(path, content,
+                            response.getContentType(), pageInstance,
+                            context.getPage().getFullTemplateName(), template.getLastModified(),
+                            new ArrayList((List) context.get(OutputCacheManager.DEPENDENCIES)),
+                            outputCacheMapping.getTimeToLive());
+                    outputCacheManager.put(outputCacheKey, outputCacheEntry);
+
+                    // release the waiting requests before the page is sent to a possibly slow client
+                    outputCacheManager.endRender(renderingKey);
+                    renderingKey = null;
+                    try {
+                        writeCachedOutput(request, response, outputCacheEntry);
+                    } catch (IllegalStateException e) {
+                        // an action already obtained the response writer
+                        out = response.getWriter();
+                        buffer.writeTo(out);
+                    }
+                } else {
+                    out = response.getWriter();
+                    buffer.writeTo(out);
+                }
+            } else {
+                // get the Servlet writer, compressing the output if the client accepts it
+                CompressionOutputStream compressedOut = getCompressionOutputStream(request, response);
+                if (compressedOut != null) {
+                    out = new OutputStreamWriter(compressedOut, response.getCharacterEncoding());
+                } else {
+                    out = response.getWriter();
+                }
+
+                // OLAT: PATCH using context.getPage() instead of page object
+                // since page can be changed in internal forward and page points
+                // still to the original page
+                try {
+                    template.merge(context, context.getPage(), out);
+
+                    if (compressedOut != null) {
+                        out.flush();
+                        compressedOut.finish();
+                    }
+                } finally {
+                    // frees the compressor, also when the merge failed
+                    if (compressedOut != null) {
+                        compressedOut.release();
+                    }
+                }
+            }
 
         } catch (FileNotFoundException e) {
             log.error("[404] " + path);
@@ -457,23 +609,409 @@ public class JPublishServlet extends HttpServlet {
             JPublishError error = new JPublishError(e, context);
             Iterator errorHandlers = siteContext.getErrorHandlers(path).iterator();
             while (errorHandlers.hasNext()) {
-                ((ErrorHandler) errorHandlers.next()).handleError(error);
+                ErrorHandler errorHandler = (ErrorHandler) errorHandlers.next();
+                metrics.recordError(errorHandler.getClass().getName());
+                errorHandler.handleError(error);
             }
 
             if (!error.isConsumed()) {
+                metrics.recordError("unhandled");
                 log.error("Execution error: " + MessageUtilities.format(e.getMessage()));
                 if (!response.isCommitted()) {
                     throw new ServletException(e);
                 }
             }
         } finally {
+            // the render failed or did not produce a cacheable page
+            if (renderingKey != null) {
+                siteContext.getOutputCacheManager().endRender(renderingKey);
+            }
+
             try {
+                timer.begin(RequestMetrics.POST_EVALUATION);
                 executePostEvaluationActions(request, response, context, path);
             } catch (Exception e) {
                 log.error("Error executing post evaluation actions: " +
                         MessageUtilities.format(e.getMessage()));
+            } finally {
+                timer.stop();
+            }
+        }
+    }
+
+    /**
+     * Serve the text report of the request metrics.
+     *
+     * @param response The HTTP response
+     * @param metrics  The RequestMetrics
+     * @throws IOException
+     */
+
+    private void serveMetrics(HttpServletResponse response, RequestMetrics metrics) throws IOException {
+        response.setContentType("text/plain; charset=UTF-8");
+        response.setHeader("Cache-Control", "no-cache");
+        Writer out = response.getWriter();
+        metrics.writeReport(out);
+        out.flush();
+    }
+
+    /**
+     * Serve the site metrics in the Prometheus text format.
+     *
+     * @param response The HTTP response
+     * @throws IOException
+     */
+
+    private void servePrometheusMetrics(HttpServletResponse response) throws IOException {
+        response.setContentType(PrometheusExporter.CONTENT_TYPE);
+        response.setHeader("Cache-Control", "no-cache");
+        Writer out = response.getWriter();
+        new PrometheusExporter(siteContext).write(out);
+        out.flush();
+    }
+
+    /**
+     * Serve the static resource found at the given path, answering
+     * conditional and Range requests.
+     *
+     * @param request              The HTTP request
+     * @param response             The HTTP response
+     * @param context              The current context or null if no action applies to the path
+     * @param path                 The request path
+     * @param characterEncodingMap The CharacterEncodingMap for the path
+     * @throws Exception
+     */
+
+    private void serveStaticResource(HttpServletRequest request, HttpServletResponse response,
+                                     JPublishContext context, String path,
+                                     CharacterEncodingMap characterEncodingMap)
+            throws Exception {
+        StaticResourceManager staticResourceManager = siteContext.getStaticResourceManager();
+
+        // serve the precompressed sibling, if there is one and the client accepts it
+        String resourcePath = path;
+        String contentEncoding = null;
+        CompressionManager compressionManager = siteContext.getCompressionManager();
+        if (compressionManager.isEnabled()) {
+            String gzipPath = path + CompressionManager.GZIP_EXTENSION;
+            if (staticResourceManager.resourceExists(gzipPath) &&
+                    staticResourceManager.getLastModified(gzipPath) >= staticResourceManager.getLastModified(path)) {
+                response.setHeader(CompressionManager.HEADER_VARY, CompressionManager.HEADER_ACCEPT_ENCODING);
+                if (request.getHeader(HEADER_RANGE) == null &&
+                        CompressionManager.GZIP.equals(compressionManager.getEncoding(request))) {
+                    resourcePath = gzipPath;
+                    contentEncoding = CompressionManager.GZIP;
+                }
+            }
+        }
+
+        // small resources are served from memory, unless a different format is requested
+        StaticAsset asset = null;
+        if (!isFormatRequested(request)) {
+            asset = staticResourceManager.getAsset(resourcePath);
+        }
+        String eTag = asset != null ? asset.getETag() : null;
+
+        long ifModifiedSince = request.getDateHeader(HEADER_IF_MODIFIED);
+        // will round the file's lastModified down to the nearest second by dividing by 1000 and then
+        // multiplying it by 1000; florin
+        long lastUpdatedTime = -1;
+        try {
+            lastUpdatedTime = (staticResourceManager.getLastModified(resourcePath) / 1000) * 1000;
+        } catch (Exception e) {
+            log.warn("Cannot read the LastModified for: "+path);
+        }
+        //log.info(String.format("%s: if modified since: %d, file time:%d, modified? %s", path, ifModifiedSince, lastUpdatedTime, (ifModifiedSince < lastUpdatedTime)));
+
+        boolean modified;
+        String ifNoneMatch = request.getHeader(HEADER_IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            // If-None-Match takes precedence over If-Modified-Since
+            modified = eTag == null || !matchesETag(ifNoneMatch, eTag);
+        } else {
+            modified = ifModifiedSince < lastUpdatedTime;
+        }
+
+        if (modified) {
+            // the context is only built when there are actions to execute
+            if (context != null) {
+                // execute the global actions
+                if (executeGlobalActions(request, response, context, path))
+                    return;
+
+                if (context.getStopProcessing() != null) return;
+
+                // execute path actions
+                if (executePathActions(request, response, context, path)) return;
+                if (context.getStopProcessing() != null) return;
+
+                // execute parameter actions
+                if (executeParameterActions(request, response, context, path))
+                    return;
+                if (context.getStopProcessing() != null) return;
+            }
+
+            // load and return the static resource
+            long contentLength = asset != null ?
+                    asset.getContentLength() : staticResourceManager.getContentLength(resourcePath);
+            ByteRange range = null;
+            if ("GET".equals(request.getMethod()) && isRangeCurrent(request, lastUpdatedTime, eTag)) {
+                range = ByteRange.parse(request.getHeader(HEADER_RANGE), contentLength);
+            }
+
+            response.setHeader(HEADER_ACCEPT_RANGES, "bytes");
+            response.setDateHeader(HEADER_LAST_MODIFIED, lastUpdatedTime);
+            if (eTag != null) {
+                response.setHeader(HEADER_ETAG, eTag);
+            }
+
+            if (range == ByteRange.UNSATISFIABLE) {
+                response.setHeader(HEADER_CONTENT_RANGE, "bytes */" + contentLength);
+                response.sendError(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                return;
+            }
+
+            if (asset != null && contentEncoding == null) {
+                response.setContentType(asset.getContentType());
+            } else {
+                setResponseContentType(request, response, path, characterEncodingMap);
+            }
+            if (contentEncoding != null) {
+                response.setHeader(CompressionManager.HEADER_CONTENT_ENCODING, contentEncoding);
+            }
+            try {
+                if (range != null) {
+                    response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                    response.setHeader(HEADER_CONTENT_RANGE, range.getContentRange());
+                    setContentLength(response, range.getLength());
+                    siteContext.getRequestMetrics().addStaticBytes(range.getLength());
+                    if (asset != null) {
+                        response.getOutputStream().write(asset.getContent(),
+                                (int) range.getStart(), (int) range.getLength());
+                    } else {
+                        staticResourceManager.load(resourcePath, range.getStart(), range.getLength(),
+                                response.getOutputStream());
+                    }
+                } else {
+                    setContentLength(response, contentLength);
+                    siteContext.getRequestMetrics().addStaticBytes(contentLength);
+                    if (asset != null) {
+                        response.getOutputStream().write(asset.getContent());
+                    } else {
+                        staticResourceManager.load(resourcePath, response.getOutputStream());
+                    }
+                }
+            } catch (SocketException e) {
+                log.warn("Error writing to output stream: " + e.getMessage());
+            }
+            // OLAT: PATCH: Ignore org.apache.catalina.connector.ClientAbortException
+            // that is produced by InternetExplorer (6.0) browser caching.
+            catch (IOException e) {
+                if (e instanceof FileNotFoundException) {
+                    throw e;
+                }
+            }
+        } else {
+            //If the browser has current version of the file, don't send it. Just say it has not changed
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            if (eTag != null) {
+                response.setHeader(HEADER_ETAG, eTag);
+            }
+        }
+    }
+
+    /**
+     * Get a stream compressing the response on the fly, if the response
+     * content type is compressible and the client accepts a compressed
+     * response.
+     *
+     * @param request  The HTTP request
+     * @param response The HTTP response, with the content type already set
+     * @return The CompressionOutputStream or null
+     * @throws IOException
+     */
+
+    private CompressionOutputStream getCompressionOutputStream(HttpServletRequest request,
+                                                               HttpServletResponse response)
+            throws IOException {
+        CompressionManager compressionManager = siteContext.getCompressionManager();
+        if (!compressionManager.isCompressible(response.getContentType())) {
+            return null;
+        }
+
+        response.setHeader(CompressionManager.HEADER_VARY, CompressionManager.HEADER_ACCEPT_ENCODING);
+        String encoding = compressionManager.getEncoding(request);
+        if (encoding == null || response.getCharacterEncoding() == null) {
+            return null;
+        }
+
+        try {
+            return new CompressionOutputStream(response, response.getOutputStream(), encoding,
+                    compressionManager.getMinSize());
+        } catch (IllegalStateException e) {
+            // an action already obtained the response writer
+            return null;
+        }
+    }
+
+    /**
+     * Return true if a Range request can be honored, that is when the
+     * request has no If-Range header or when the validator it carries still
+     * matches the current version of the resource.
+     *
+     * @param request      The HTTP request
+     * @param lastModified The resource last modified time, rounded down to seconds
+     * @param eTag         The resource entity tag or null if the resource is not tagged
+     * @return True if the requested range can be sent
+     */
+
+    private boolean isRangeCurrent(HttpServletRequest request, long lastModified, String eTag) {
+        String ifRange = request.getHeader(HEADER_IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+
+        ifRange = ifRange.trim();
+        if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+            // If-Range requires a strong comparison, weak tags never match
+            return ifRange.equals(eTag);
+        }
+
+        try {
+            return request.getDateHeader(HEADER_IF_RANGE) == lastModified;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Return true if the value of an If-None-Match header matches the given
+     * entity tag, using the weak comparison.
+     *
+     * @param ifNoneMatch The If-None-Match header value
+     * @param eTag        The resource entity tag
+     * @return True if the client copy is current
+     */
+
+    private boolean matchesETag(String ifNoneMatch, String eTag) {
+        StringTokenizer tags = new StringTokenizer(ifNoneMatch, ",");
+        while (tags.hasMoreTokens()) {
+            String tag = tags.nextToken().trim();
+            if (tag.startsWith("W/")) {
+                tag = tag.substring(2);
+            }
+            if (tag.equals("*") || tag.equals(eTag)) {
+                return true;
             }
         }
+        return false;
+    }
+
+    /**
+     * Return true if any action must be executed for the given request:
+     * global actions, pre-evaluation, path or post-evaluation actions
+     * matching the path, or parameter actions named in the request.
+     *
+     * @param request The HTTP request
+     * @param path    The request path
+     * @return True if the request has actions
+     */
+
+    private boolean hasActions(HttpServletRequest request, String path) {
+        if (siteContext.getActionManager().hasActions(path)) {
+            return true;
+        }
+        return siteContext.isParameterActionsEnabled()
+                && request.getParameter(siteContext.getActionIdentifier()) != null;
+    }
+
+    /**
+     * Return true if the request asks for a format different from the one
+     * given by the path extension.
+     *
+     * @param request The HTTP request
+     * @return True if the format parameter is present
+     */
+
+    private boolean isFormatRequested(HttpServletRequest request) {
+        if (!formatParameterSupported) {
+            return false;
+        }
+        String format = request.getParameter(siteContext.getFormatChangeParameterName());
+        return format != null && format.trim().length() > 0;
+    }
+
+    /**
+     * Set the Content-Length header, including for content larger than 2GB.
+     *
+     * @param response      The HTTP response
+     * @param contentLength The content length
+     */
+
+    private void setContentLength(HttpServletResponse response, long contentLength) {
+        if (contentLength <= Integer.MAX_VALUE) {
+            response.setContentLength((int) contentLength);
+        } else {
+            response.setHeader("Content-Length", String.valueOf(contentLength));
+        }
+    }
+
+    /**
+     * Get the shared supplier of the RepositoryWrapper exposing the given
+     * repository in the request context.
+     *
+     * @param repository The Repository
+     * @return The RepositoryWrapper.Supplier
+     */
+
+    private RepositoryWrapper.Supplier getRepositorySupplier(Repository repository) {
+        RepositoryWrapper.Supplier supplier =
+                (RepositoryWrapper.Supplier) repositorySuppliers.get(repository.getName());
+        if (supplier == null || supplier.getRepository() != repository) {
+            // first request or the repositories were reloaded
+            supplier = new RepositoryWrapper.Supplier(repository);
+            repositorySuppliers.put(repository.getName(), supplier);
+        }
+        return supplier;
+    }
+
+    /**
+     * Write a page stored in the output cache to the response.
+     *
+     * @param request          The HTTP request
+     * @param response         The HTTP response
+     * @param outputCacheEntry The cached output
+     * @throws IOException
+     */
+
+    private void writeCachedOutput(HttpServletRequest request, HttpServletResponse response,
+                                   OutputCacheEntry outputCacheEntry) throws IOException {
+        // fails before any header is set if the response writer is already in use
+        OutputStream outputStream = response.getOutputStream();
+
+        byte[] content = outputCacheEntry.getContent();
+        if (outputCacheEntry.getContentType() != null) {
+            response.setContentType(outputCacheEntry.getContentType());
+        }
+
+        // the compressed bytes are computed once and kept with the cached output
+        CompressionManager compressionManager = siteContext.getCompressionManager();
+        if (compressionManager.isCompressible(outputCacheEntry.getContentType())
+                && content.length >= compressionManager.getMinSize()) {
+            response.setHeader(CompressionManager.HEADER_VARY, CompressionManager.HEADER_ACCEPT_ENCODING);
+            String encoding = compressionManager.getEncoding(request);
+            if (encoding != null) {
+                content = outputCacheEntry.getEncodedContent(encoding, compressionManager);
+                response.setHeader(CompressionManager.HEADER_CONTENT_ENCODING, encoding);
+            }
+        }
+
+        response.setContentLength(content.length);
+        try {
+            outputStream.write(content);
+        } catch (SocketException e) {
+            log.warn("Error writing to output stream: " + e.getMessage());
+        }
     }
 
     private void setResponseContentType(HttpServletRequest request, HttpServletResponse response, String path, CharacterEncodingMap characterEncodingMap) {
@@ -585,7 +1123,7 @@ public class JPublishServlet extends HttpServlet {
         ActionManager actionManager = siteContext.getActionManager();
         if (log.isDebugEnabled())
             log.debug("Executing global actions.");
-        return optionalRedirect(actionManager.executeGlobalActions(context), path, response);
+        return optionalRedirect(actionManager.executeGlobalActions(path, context), path, response);
     }
 
     /**
@@ -810,13 +1348,7 @@ public class JPublishServlet extends HttpServlet {
      */
 
     private boolean isSessionEnabled(String path) {
-        Iterator iter = siteContext.getDisableSessionPaths().iterator();
-        while (iter.hasNext()) {
-            if (PathUtilities.match(path, iter.next().toString())) {
-                return false;
-            }
-        }
-        return true;
+        return ((PathIndexedList) siteContext.getDisableSessionPaths()).getMatches(path).isEmpty();
     }
 
     /**
@@ -70,4 +70,16 @@ public abstract class AbstractTemplateManager implements TemplateManager {
         // no op
     }
 
+    /**
+     * Get the number of templates cached by the TemplateManager.  The
+     * default implementation returns -1, meaning the TemplateManager does
+     * not cache the templates.
+     *
+     * @return The number of cached templates or -1
+     */
+
+    public int getCacheSize() {
+        return -1;
+    }
+
 }
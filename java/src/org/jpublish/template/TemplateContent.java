@@ -88,25 +88,16 @@ public class TemplateContent implements Content {
     }
 
     /**
-     * Get the template reader using the specified encoding.
+     * Get the template reader.  The template text is already decoded, so
+     * the encoding is not used.
      *
-     * @param The content encoding
+     * @param encoding The content encoding
      * @return The Reader
      */
 
     public Reader getReader(String encoding) {
-        if (encoding == null) {
-            return new StringReader(template.getText());
-        } else {
-            try {
-                return new StringReader(
-                        new String(template.getText().getBytes(), encoding));
-            } catch (UnsupportedEncodingException e) {
-                log.warn("Unsupported encoding " + encoding +
-                        "; using default encoding");
-                return new StringReader(template.getText());
-            }
-        }
+        // the template text was decoded when the template was loaded
+        return new StringReader(template.getText());
     }
 
     /**
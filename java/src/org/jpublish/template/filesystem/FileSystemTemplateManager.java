@@ -20,18 +20,23 @@ package org.jpublish.template.filesystem;
 import com.anthonyeden.lib.util.IOUtilities;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.jpublish.JPublishCacheException;
 import org.jpublish.Template;
 import org.jpublish.template.AbstractTemplateManager;
 import org.jpublish.template.TemplateCacheEntry;
 import org.jpublish.util.BreadthFirstFileTreeIterator;
+import org.jpublish.util.FileChangeMonitor;
 import org.jpublish.util.FileCopyUtils;
 import org.jpublish.util.JPublishCache;
+import org.jpublish.util.SingleFlight;
 import org.jpublish.util.vfs.VFSFile;
 import org.jpublish.util.vfs.VFSProvider;
 import org.jpublish.util.vfs.provider.filesystem.FileSystemProvider;
 
 import java.io.*;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * Implementation of the TemplateManager interface which retrieves templates
@@ -60,6 +65,11 @@ public class FileSystemTemplateManager extends AbstractTemplateManager {
      */
     protected VFSProvider provider;
 
+    /**
+     * Template loads in progress.
+     */
+    protected SingleFlight templateLoads = new SingleFlight();
+
     /**
      * Get a Template instance from the given path.  If no template can be
      * found then this method will throw a FileNotFoundException.
@@ -69,26 +79,20 @@ public class FileSystemTemplateManager extends AbstractTemplateManager {
      * @throws Exception Any Exception
      */
 
-    public synchronized Template getTemplate(String path) throws Exception {
+    public Template getTemplate(String path) throws Exception {
         File templateFile = new File(getRoot(), path);
-        if (!templateFile.exists()) {
+        FileChangeMonitor fileChangeMonitor = siteContext.getFileChangeMonitor();
+        if (!fileChangeMonitor.exists(templateFile)) {
             throw new FileNotFoundException("Template not found: " + path);
         }
 
-        long lastModified = templateFile.lastModified();
-        TemplateCacheEntry cacheEntry = (TemplateCacheEntry) cache.get(path);
-        Template template = null;
-
-        if (cacheEntry == null || cacheEntry.getLastModified() != lastModified) {
-            template = new Template(siteContext, path);
-            loadTemplate(template, path);
-            configureTemplate(template, templateFile);
-            cache.put(path, new TemplateCacheEntry(template, lastModified));
-            template.setLastModified(lastModified);
+        TemplateCacheEntry cacheEntry = getCacheEntry(path);
+        if (cacheEntry != null && cacheEntry.getLastModified() == fileChangeMonitor.lastModified(templateFile)) {
+            return cacheEntry.getTemplate();
         }
-        if (cacheEntry != null)
-            template = cacheEntry.getTemplate();
-        return template;
+
+        // concurrent requests for the same template share a single load
+        return (Template) templateLoads.execute(path, new TemplateLoader(path, templateFile));
     }
 
     /**
@@ -223,26 +227,24 @@ public class FileSystemTemplateManager extends AbstractTemplateManager {
     }
 
     /**
-     * Load the specified template's text.
-     * <p/>
-     * <p><b>Note:</b> Template encoding is currently disabled.  The original
-     * encoding mechanism was based on the page path.  However, now that
-     * templates will be loaded and cached independent of a request path,
-     * this will need to change.  The new encoding system should be based
-     * on the template path, not the page path.</p>
+     * Load the specified template's text.  The file is decoded once, with
+     * the template encoding of the character encoding map matching the
+     * template path, and the renderers read the decoded text as is.
      *
      * @param template The Template
      * @param path     to the Template
      * @throws IOException
      */
 
-    protected synchronized void loadTemplate(Template template, String path) throws IOException {
-        // construct a new Template
-        //String templateEncoding = siteContext.getCharacterEncodingManager().getMap(path).getTemplateEncoding();
-        File templateFile = new File(getRoot(), path);
-        //Reader reader = new InputStreamReader(new FileInputStream(templateFile), templateEncoding);
-        Reader reader = new InputStreamReader(new FileInputStream(templateFile));
-        template.setText(FileCopyUtils.copyToString(reader));
+    protected void loadTemplate(Template template, String path) throws IOException {
+        String templateEncoding = siteContext.getCharacterEncodingManager().getMap(path).getTemplateEncoding();
+        byte[] data = FileCopyUtils.copyToByteArray(new File(getRoot(), path));
+        try {
+            template.setText(new String(data, templateEncoding));
+        } catch (UnsupportedEncodingException e) {
+            log.warn("Unsupported template encoding " + templateEncoding + "; using default encoding");
+            template.setText(new String(data));
+        }
     }
 
     /**
@@ -296,5 +298,60 @@ public class FileSystemTemplateManager extends AbstractTemplateManager {
         this.cache = cache;
     }
 
+    /**
+     * Get the number of entries of the template cache.  The cache may be
+     * shared with other users of the same JPublishCacheManager cache.
+     *
+     * @return The number of cached entries or -1 if the cache cannot tell
+     */
+
+    public int getCacheSize() {
+        try {
+            List keys = cache == null ? null : cache.getKeys();
+            return keys == null ? -1 : keys.size();
+        } catch (JPublishCacheException e) {
+            return -1;
+        }
+    }
+
+    private TemplateCacheEntry getCacheEntry(String path) throws JPublishCacheException {
+        return (TemplateCacheEntry) cache.get(path);
+    }
+
+    private void putCacheEntry(String path, TemplateCacheEntry cacheEntry)
+            throws JPublishCacheException {
+        cache.put(path, cacheEntry);
+    }
+
+    /**
+     * Load the template from the given file, unless a concurrent load
+     * already refreshed the cache.
+     */
+
+    private class TemplateLoader implements Callable {
+
+        private String path;
+        private File templateFile;
+
+        TemplateLoader(String path, File templateFile) {
+            this.path = path;
+            this.templateFile = templateFile;
+        }
+
+        public Object call() throws Exception {
+            long lastModified = siteContext.getFileChangeMonitor().lastModified(templateFile);
+            TemplateCacheEntry cacheEntry = getCacheEntry(path);
+            if (cacheEntry != null && cacheEntry.getLastModified() == lastModified) {
+                return cacheEntry.getTemplate();
+            }
+
+            Template template = new Template(siteContext, path);
+            loadTemplate(template, path);
+            configureTemplate(template, templateFile);
+            template.setLastModified(lastModified);
+            putCacheEntry(path, new TemplateCacheEntry(template, lastModified));
+            return template;
+        }
+    }
 
 }
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.jpublish.util;
+
+/**
+ * A single byte range requested with the HTTP <code>Range</code> header, for
+ * example <code>bytes=0-499</code>, <code>bytes=500-</code> or
+ * <code>bytes=-500</code>.  Requests for multiple ranges are not supported;
+ * they are answered with the full content, as allowed by the HTTP spec.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class ByteRange {
+
+    /**
+     * returned by <code>parse()</code> when none of the requested bytes are available
+     */
+    public static final ByteRange UNSATISFIABLE = new ByteRange(-1, -1, -1);
+
+    private static final String BYTES_UNIT = "bytes=";
+
+    private long start;
+    private long end;
+    private long contentLength;
+
+    private ByteRange(long start, long end, long contentLength) {
+        this.start = start;
+        this.end = end;
+        this.contentLength = contentLength;
+    }
+
+    /**
+     * Parse the value of a Range header.
+     *
+     * @param header        The Range header value, may be null
+     * @param contentLength The full content length
+     * @return The ByteRange, UNSATISFIABLE or null if the header is missing,
+     *         malformed or asks for multiple ranges
+     */
+
+    public static ByteRange parse(String header, long contentLength) {
+        if (header == null || contentLength < 0) {
+            return null;
+        }
+
+        header = header.trim();
+        if (!header.regionMatches(true, 0, BYTES_UNIT, 0, BYTES_UNIT.length())) {
+            return null;
+        }
+
+        String spec = header.substring(BYTES_UNIT.length()).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0 || spec.indexOf(',') >= 0) {
+            return null;
+        }
+
+        long start;
+        long end;
+        try {
+            String first = spec.substring(0, dash).trim();
+            String last = spec.substring(dash + 1).trim();
+
+            if (first.length() == 0) {
+                // suffix range: the last N bytes
+                long suffixLength = Long.parseLong(last);
+                if (suffixLength <= 0 || contentLength == 0) {
+                    return UNSATISFIABLE;
+                }
+                start = Math.max(0, contentLength - suffixLength);
+                end = contentLength - 1;
+            } else {
+                start = Long.parseLong(first);
+                if (start >= contentLength) {
+                    return UNSATISFIABLE;
+                }
+                end = last.length() == 0 ? contentLength - 1 : Long.parseLong(last);
+                if (start < 0 || end < start) {
+                    return null;
+                }
+            }
+        } catch (NumberFormatException e) {
+            return null;
+        }
+
+        return new ByteRange(start, Math.min(end, contentLength - 1), contentLength);
+    }
+
+    /**
+     * Get the position of the first byte in the range.
+     *
+     * @return The first byte position
+     */
+
+    public long getStart() {
+        return start;
+    }
+
+    /**
+     * Get the position of the last byte in the range, inclusive.
+     *
+     * @return The last byte position
+     */
+
+    public long getEnd() {
+        return end;
+    }
+
+    /**
+     * Get the number of bytes in the range.
+     *
+     * @return The range length
+     */
+
+    public long getLength() {
+        return end - start + 1;
+    }
+
+    /**
+     * Get the value of the Content-Range header describing this range.
+     *
+     * @return The Content-Range value
+     */
+
+    public String getContentRange() {
+        return "bytes " + start + "-" + end + "/" + contentLength;
+    }
+
+}
@@ -44,12 +44,14 @@ public class CharacterEncodingManager{
     public static final String DEFAULT_RESPONSE_ENCODING = "ISO-8859-1";
     
     private List characterEncodingMaps;
+    private PathMatcher characterEncodingMatcher;
     private CharacterEncodingMap defaultMap;
     
     /** Construct a new CharacterEncodingManager. */
     
     public CharacterEncodingManager(){
         characterEncodingMaps = new ArrayList();
+        characterEncodingMatcher = new PathMatcher();
         loadDefaultCharacterEncodingMap();
     }
     
@@ -61,12 +63,9 @@ public class CharacterEncodingManager{
     */
     
     public CharacterEncodingMap getMap(String path){
-        Iterator iter = characterEncodingMaps.iterator();
-        while(iter.hasNext()){
-            CharacterEncodingMap map = (CharacterEncodingMap)iter.next();
-            if(PathUtilities.match(path, map.getPath())){
-                return map;
-            }
+        CharacterEncodingMap map = (CharacterEncodingMap)characterEncodingMatcher.getFirstMatch(path);
+        if(map != null){
+            return map;
         }
         return getDefaultMap();
     }
@@ -106,6 +105,7 @@ public class CharacterEncodingManager{
     
     private void loadCharacterEncodingMaps(List configurationElements){
         characterEncodingMaps.clear();
+        PathMatcher matcher = new PathMatcher();
         
         Iterator iter = configurationElements.iterator();
         while(iter.hasNext()){
@@ -117,7 +117,9 @@ public class CharacterEncodingManager{
             characterEncodingMap.setRequestEncoding(mapElement.getChildValue("request-encoding"));
             characterEncodingMap.setResponseEncoding(mapElement.getChildValue("response-encoding"));
             characterEncodingMaps.add(characterEncodingMap);
+            matcher.add(characterEncodingMap.getPath(), characterEncodingMap);
         }
+        characterEncodingMatcher = matcher;
     }
     
     /** Load the default character encoding map.  The default map uses 
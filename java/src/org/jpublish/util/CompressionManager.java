@@ -0,0 +1,248 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.jpublish.util;
+
+import com.anthonyeden.lib.config.Configuration;
+import com.anthonyeden.lib.config.ConfigurationException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import javax.servlet.http.HttpServletRequest;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Negotiates and applies the gzip or deflate content encoding of the
+ * responses.  Compression is disabled unless configured in the
+ * <code>jpublish.xml</code> file:
+ * <p/>
+ * <pre>
+ * &lt;compression enabled="true" min-size="1024"&gt;
+ *     &lt;mime-type&gt;text/html&lt;/mime-type&gt;
+ *     &lt;mime-type&gt;text/css&lt;/mime-type&gt;
+ * &lt;/compression&gt;
+ * </pre>
+ * <p/>
+ * Only responses whose mime type is listed, and which are at least min-size
+ * bytes long, are compressed; when no mime-type is listed, the common text
+ * formats are compressed.  Static resources having a sibling
+ * <code>.gz</code> file are served with that file instead, whatever their
+ * mime type.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class CompressionManager {
+    private static final Log log = LogFactory.getLog(CompressionManager.class);
+
+    public static final String GZIP = "gzip";
+    public static final String DEFLATE = "deflate";
+
+    public static final String HEADER_ACCEPT_ENCODING = "Accept-Encoding";
+    public static final String HEADER_CONTENT_ENCODING = "Content-Encoding";
+    public static final String HEADER_VARY = "Vary";
+
+    /**
+     * extension of the precompressed siblings of the static resources
+     */
+    public static final String GZIP_EXTENSION = ".gz";
+
+    public static final int DEFAULT_MIN_SIZE = 1024;
+
+    private static final String[] DEFAULT_MIME_TYPES = {
+            "text/html", "text/plain", "text/css", "text/xml", "text/javascript",
+            "application/x-javascript", "application/javascript", "application/json",
+            "application/xml", "application/xhtml+xml"};
+
+    private boolean enabled = false;
+    private int minSize = DEFAULT_MIN_SIZE;
+    private Set mimeTypes = new HashSet();
+
+    /**
+     * Construct a new CompressionManager.
+     */
+
+    public CompressionManager() {
+        for (int i = 0; i < DEFAULT_MIME_TYPES.length; i++) {
+            mimeTypes.add(DEFAULT_MIME_TYPES[i]);
+        }
+    }
+
+    /**
+     * Load the compression configuration.
+     *
+     * @param configuration The site configuration
+     * @throws ConfigurationException
+     */
+
+    public void loadConfiguration(Configuration configuration) throws ConfigurationException {
+        Configuration compressionElement = configuration.getChild("compression");
+        if (compressionElement == null) {
+            return;
+        }
+
+        enabled = "true".equalsIgnoreCase(compressionElement.getAttribute("enabled", "true"));
+        try {
+            minSize = Integer.parseInt(compressionElement.getAttribute("min-size",
+                    String.valueOf(DEFAULT_MIN_SIZE)));
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("Invalid min-size value", e, compressionElement);
+        }
+
+        Iterator mimeTypeElements = compressionElement.getChildren("mime-type").iterator();
+        if (mimeTypeElements.hasNext()) {
+            mimeTypes.clear();
+        }
+        while (mimeTypeElements.hasNext()) {
+            mimeTypes.add(((Configuration) mimeTypeElements.next()).getValue().trim().toLowerCase());
+        }
+
+        if (enabled)
+            log.info("Response compression enabled for: " + mimeTypes);
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public int getMinSize() {
+        return minSize;
+    }
+
+    /**
+     * Get the content encoding preferred by the client: gzip, deflate or
+     * null when the client accepts neither or compression is disabled.
+     *
+     * @param request The HTTP request
+     * @return The content encoding or null
+     */
+
+    public String getEncoding(HttpServletRequest request) {
+        if (!enabled) {
+            return null;
+        }
+
+        String acceptEncoding = request.getHeader(HEADER_ACCEPT_ENCODING);
+        if (acceptEncoding == null) {
+            return null;
+        }
+
+        // -1 marks a coding not listed by the client
+        float gzip = -1;
+        float deflate = -1;
+        float any = 0;
+
+        StringTokenizer codings = new StringTokenizer(acceptEncoding, ",");
+        while (codings.hasMoreTokens()) {
+            String coding = codings.nextToken().trim().toLowerCase();
+            float quality = 1;
+
+            int semicolon = coding.indexOf(';');
+            if (semicolon >= 0) {
+                String parameter = coding.substring(semicolon + 1).trim();
+                coding = coding.substring(0, semicolon).trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        quality = Float.parseFloat(parameter.substring(2));
+                    } catch (NumberFormatException e) {
+                        quality = 0;
+                    }
+                }
+            }
+
+            if (coding.equals(GZIP) || coding.equals("x-gzip")) {
+                gzip = quality;
+            } else if (coding.equals(DEFLATE)) {
+                deflate = quality;
+            } else if (coding.equals("*")) {
+                any = quality;
+            }
+        }
+
+        if (gzip < 0) {
+            gzip = any;
+        }
+        if (deflate < 0) {
+            deflate = any;
+        }
+
+        if (gzip > 0 && gzip >= deflate) {
+            return GZIP;
+        }
+        return deflate > 0 ? DEFLATE : null;
+    }
+
+    /**
+     * Return true if responses of the given content type are compressed.
+     *
+     * @param contentType The content type, with or without parameters
+     * @return True if the content type is compressible
+     */
+
+    public boolean isCompressible(String contentType) {
+        if (!enabled || contentType == null) {
+            return false;
+        }
+
+        int semicolon = contentType.indexOf(';');
+        String mimeType = semicolon >= 0 ? contentType.substring(0, semicolon) : contentType;
+        return mimeTypes.contains(mimeType.trim().toLowerCase());
+    }
+
+    /**
+     * Compress the given content.
+     *
+     * @param content  The content
+     * @param encoding The content encoding, gzip or deflate
+     * @return The compressed content
+     * @throws IOException
+     */
+
+    public byte[] compress(byte[] content, String encoding) throws IOException {
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(content.length / 2 + 32);
+        DeflaterOutputStream out = createCompressor(buffer, encoding);
+        out.write(content);
+        out.close();
+        return buffer.toByteArray();
+    }
+
+    /**
+     * Create the stream compressing the data written to the given
+     * OutputStream.
+     *
+     * @param out      The target OutputStream
+     * @param encoding The content encoding, gzip or deflate
+     * @return The compressing stream
+     * @throws IOException
+     */
+
+    public static DeflaterOutputStream createCompressor(OutputStream out, String encoding) throws IOException {
+        if (GZIP.equals(encoding)) {
+            return new GZIPOutputStream(out, 8192);
+        }
+        return new DeflaterOutputStream(out);
+    }
+
+}
@@ -0,0 +1,205 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.jpublish.util;
+
+import javax.servlet.http.HttpServletResponse;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * OutputStream compressing a response of unknown length while it is being
+ * written.  The first min-size bytes are buffered; if the response ends
+ * before reaching min-size, it is sent as is, otherwise the
+ * Content-Encoding header is set and the data is compressed on the fly.
+ * <code>finish()</code> must be called once the response is complete, and
+ * <code>release()</code> in any case, so that the native zlib memory held
+ * by the compressor is freed at once.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class CompressionOutputStream extends OutputStream {
+
+    private HttpServletResponse response;
+    private OutputStream target;
+    private String encoding;
+    private int minSize;
+
+    private ByteArrayOutputStream buffer;
+    private DeflaterOutputStream compressor;
+    private UnclosableOutputStream compressorTarget;
+    private boolean finished = false;
+
+    /**
+     * Construct a new CompressionOutputStream.
+     *
+     * @param response The HTTP response
+     * @param target   The response OutputStream
+     * @param encoding The content encoding, gzip or deflate
+     * @param minSize  The minimum number of bytes worth compressing
+     */
+
+    public CompressionOutputStream(HttpServletResponse response, OutputStream target,
+                                   String encoding, int minSize) {
+        this.response = response;
+        this.target = target;
+        this.encoding = encoding;
+        this.minSize = minSize;
+        this.buffer = new ByteArrayOutputStream(Math.max(minSize, 32));
+    }
+
+    public void write(int b) throws IOException {
+        write(new byte[]{(byte) b}, 0, 1);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (finished) {
+            throw new IOException("The response was already finished");
+        }
+
+        if (compressor != null) {
+            compressor.write(b, off, len);
+        } else {
+            buffer.write(b, off, len);
+            if (buffer.size() >= minSize) {
+                startCompression();
+            }
+        }
+    }
+
+    /**
+     * Flush the compressed data written so far.  While the data is still
+     * buffered, below min-size, nothing is sent.
+     *
+     * @throws IOException
+     */
+
+    public void flush() throws IOException {
+        if (compressor != null) {
+            compressor.flush();
+        }
+    }
+
+    /**
+     * Complete the response, writing the buffered data as is if it stayed
+     * below min-size.  The response OutputStream is not closed.
+     *
+     * @throws IOException
+     */
+
+    public void finish() throws IOException {
+        if (finished) {
+            return;
+        }
+        finished = true;
+
+        if (compressor != null) {
+            // closing the compressor ends its Deflater, not the response OutputStream
+            compressor.close();
+        } else {
+            response.setContentLength(buffer.size());
+            buffer.writeTo(target);
+            buffer = null;
+        }
+        target.flush();
+    }
+
+    public void close() throws IOException {
+        finish();
+    }
+
+    /**
+     * Free the compressor of a response which was not finished, a failed
+     * render for instance, without writing anything more to the response.
+     * Does nothing once the response is finished.
+     */
+
+    public void release() {
+        if (finished) {
+            return;
+        }
+        finished = true;
+        buffer = null;
+
+        if (compressor != null) {
+            compressorTarget.discard = true;
+            try {
+                compressor.close();
+            } catch (IOException e) {
+                // nothing is written once discarding
+            }
+        }
+    }
+
+    /**
+     * Return true if the data written is compressed.
+     *
+     * @return True if the Content-Encoding was set
+     */
+
+    public boolean isCompressed() {
+        return compressor != null;
+    }
+
+    private void startCompression() throws IOException {
+        response.setHeader(CompressionManager.HEADER_CONTENT_ENCODING, encoding);
+        compressorTarget = new UnclosableOutputStream(target);
+        compressor = CompressionManager.createCompressor(compressorTarget, encoding);
+        buffer.writeTo(compressor);
+        buffer = null;
+    }
+
+    /**
+     * Passes the compressed data to the response OutputStream, which it does
+     * not close, or discards it when the response is released.
+     */
+
+    private static class UnclosableOutputStream extends OutputStream {
+        private OutputStream out;
+        private boolean discard = false;
+
+        UnclosableOutputStream(OutputStream out) {
+            this.out = out;
+        }
+
+        public void write(int b) throws IOException {
+            if (!discard) {
+                out.write(b);
+            }
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (!discard) {
+                out.write(b, off, len);
+            }
+        }
+
+        public void flush() throws IOException {
+            if (!discard) {
+                out.flush();
+            }
+        }
+
+        public void close() throws IOException {
+            flush();
+        }
+    }
+
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.jpublish.util;
+
+import com.anthonyeden.lib.config.Configuration;
+import com.anthonyeden.lib.config.ConfigurationException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Central service answering the file system questions asked on every
+ * request: does a file exist, when was it last modified and how long is it.
+ * The answers are cached and the directories holding the queried files are
+ * registered with a <code>java.nio.file.WatchService</code>; a change event
+ * evicts the cached answers for that directory, so unchanged files are
+ * checked without any system call.
+ * <p/>
+ * When the WatchService is disabled or not available for a directory, the
+ * cached answers are verified again once every poll interval.  The service
+ * is configured in the <code>jpublish.xml</code> file:
+ * <p/>
+ * <pre>
+ * &lt;file-change-monitor enabled="true" watch="true" poll-interval="2000"/&gt;
+ * </pre>
+ * <p/>
+ * When disabled, every question is answered by the file system.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class FileChangeMonitor {
+    private static final Log log = LogFactory.getLog(FileChangeMonitor.class);
+
+    public static final long DEFAULT_POLL_INTERVAL = 2000;
+
+    /**
+     * the cached answers kept at most, for the existing and the missing files;
+     * the missing files come from the request paths, so they are kept fewer
+     */
+    public static final int MAX_FILES = 16384;
+    public static final int MAX_MISSING_FILES = 1024;
+
+    private boolean enabled = true;
+    private boolean watch = true;
+    private long pollInterval = DEFAULT_POLL_INTERVAL;
+
+    private ConcurrentMap statuses = new ConcurrentHashMap();
+    private ConcurrentMap missingFiles = new ConcurrentHashMap();
+    private ConcurrentMap watchedDirectories = new ConcurrentHashMap();
+    private AtomicLong changes = new AtomicLong();
+
+    private WatchService watchService;
+    private Thread watcher;
+
+    /**
+     * Load the file-change-monitor configuration.
+     *
+     * @param configuration The site configuration
+     * @throws ConfigurationException
+     */
+
+    public void loadConfiguration(Configuration configuration) throws ConfigurationException {
+        Configuration monitorElement = configuration.getChild("file-change-monitor");
+        if (monitorElement == null) {
+            return;
+        }
+
+        enabled = "true".equalsIgnoreCase(monitorElement.getAttribute("enabled", "true"));
+        watch = "true".equalsIgnoreCase(monitorElement.getAttribute("watch", "true"));
+        try {
+            pollInterval = Long.parseLong(monitorElement.getAttribute("poll-interval",
+                    String.valueOf(DEFAULT_POLL_INTERVAL)));
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("Invalid poll-interval value", e, monitorElement);
+        }
+    }
+
+    /**
+     * Start watching the file system for changes.
+     */
+
+    public synchronized void start() {
+        if (!enabled || !watch || watchService != null) {
+            return;
+        }
+
+        try {
+            watchService = FileSystems.getDefault().newWatchService();
+        } catch (Exception e) {
+            log.warn("WatchService not available, polling every " + pollInterval + "ms: " + e.getMessage());
+            return;
+        }
+
+        watcher = new Thread(new Runnable() {
+            public void run() {
+                processEvents();
+            }
+        }, "JPublish-FileChangeMonitor");
+        watcher.setDaemon(true);
+        watcher.start();
+
+        log.info("File change monitor started.");
+    }
+
+    /**
+     * Stop watching the file system and forget all the cached answers.
+     */
+
+    public synchronized void stop() {
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                log.warn("Error closing the WatchService: " + e.getMessage());
+            }
+            watchService = null;
+            watcher = null;
+        }
+        watchedDirectories.clear();
+        statuses.clear();
+        missingFiles.clear();
+    }
+
+    /**
+     * Return true if the given file exists.
+     *
+     * @param file The file
+     * @return True if the file exists
+     */
+
+    public boolean exists(File file) {
+        if (!enabled) {
+            return file.exists();
+        }
+        return getStatus(file).exists;
+    }
+
+    /**
+     * Get the last modification time of the given file.
+     *
+     * @param file The file
+     * @return The last modification time or 0 if the file does not exist
+     */
+
+    public long lastModified(File file) {
+        if (!enabled) {
+            return file.lastModified();
+        }
+        return getStatus(file).lastModified;
+    }
+
+    /**
+     * Get the length of the given file.
+     *
+     * @param file The file
+     * @return The length or 0 if the file does not exist
+     */
+
+    public long length(File file) {
+        if (!enabled) {
+            return file.length();
+        }
+        return getStatus(file).length;
+    }
+
+    /**
+     * Forget the cached answers for the given file.
+     *
+     * @param file The file
+     */
+
+    public void invalidate(File file) {
+        changes.incrementAndGet();
+        forget(file.getAbsoluteFile());
+    }
+
+    private FileStatus getStatus(File file) {
+        File absoluteFile = file.getAbsoluteFile();
+        FileStatus status = (FileStatus) statuses.get(absoluteFile);
+        if (status == null) {
+            status = (FileStatus) missingFiles.get(absoluteFile);
+        }
+        long now = System.currentTimeMillis();
+
+        if (status == null || (!status.watched && now - status.checked > pollInterval)) {
+            // watch the directory first, so a change made while checking the file is not missed
+            boolean watched = watchDirectory(absoluteFile.getParentFile());
+            long changesBefore = changes.get();
+
+            status = new FileStatus(absoluteFile, watched, now);
+            forget(absoluteFile);
+            ConcurrentMap cache = status.exists ? statuses : missingFiles;
+            if (cache.size() >= (status.exists ? MAX_FILES : MAX_MISSING_FILES)) {
+                cache.clear();
+            }
+            cache.put(absoluteFile, status);
+
+            if (changes.get() != changesBefore) {
+                cache.remove(absoluteFile, status);
+            }
+        }
+        return status;
+    }
+
+    private void forget(File file) {
+        statuses.remove(file);
+        missingFiles.remove(file);
+    }
+
+    private boolean watchDirectory(File directory) {
+        WatchService service = watchService;
+        if (service == null || directory == null) {
+            return false;
+        }
+
+        Path path = directory.toPath();
+        if (watchedDirectories.containsKey(path)) {
+            return true;
+        }
+        if (!directory.isDirectory()) {
+            return false;
+        }
+
+        try {
+            path.register(service, new WatchEvent.Kind[]{
+                    StandardWatchEventKinds.ENTRY_CREATE,
+                    StandardWatchEventKinds.ENTRY_DELETE,
+                    StandardWatchEventKinds.ENTRY_MODIFY});
+            watchedDirectories.put(path, Boolean.TRUE);
+            return true;
+        } catch (Exception e) {
+            log.warn("Cannot watch " + directory + ", polling every " + pollInterval + "ms: " + e.getMessage());
+            return false;
+        }
+    }
+
+    private void processEvents() {
+        WatchService service = watchService;
+        while (service != null) {
+            WatchKey key;
+            try {
+                key = service.take();
+            } catch (InterruptedException e) {
+                return;
+            } catch (ClosedWatchServiceException e) {
+                return;
+            }
+
+            Path directory = (Path) key.watchable();
+            changes.incrementAndGet();
+
+            Iterator events = key.pollEvents().iterator();
+            while (events.hasNext()) {
+                WatchEvent event = (WatchEvent) events.next();
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    invalidateDirectory(directory);
+                } else {
+                    File file = directory.resolve((Path) event.context()).toFile();
+                    if (log.isDebugEnabled())
+                        log.debug("File changed: " + file);
+
+                    forget(file);
+                }
+            }
+
+            if (!key.reset()) {
+                // the directory is gone
+                watchedDirectories.remove(directory);
+                invalidateDirectory(directory);
+            }
+        }
+    }
+
+    private void invalidateDirectory(Path directory) {
+        invalidateDirectory(directory.toFile(), statuses);
+        invalidateDirectory(directory.toFile(), missingFiles);
+    }
+
+    private static void invalidateDirectory(File directoryFile, ConcurrentMap cache) {
+        Iterator files = cache.keySet().iterator();
+        while (files.hasNext()) {
+            File file = (File) files.next();
+            if (directoryFile.equals(file.getParentFile())) {
+                files.remove();
+            }
+        }
+    }
+
+    /**
+     * The cached answers for a single file.
+     */
+
+    private static class FileStatus {
+        private boolean exists;
+        private long lastModified;
+        private long length;
+        private boolean watched;
+        private long checked;
+
+        FileStatus(File file, boolean watched, long checked) {
+            this.lastModified = file.lastModified();
+            this.exists = lastModified != 0 || file.exists();
+            this.length = exists ? file.length() : 0;
+            this.watched = watched;
+            this.checked = checked;
+        }
+    }
+
+}
@@ -25,6 +25,8 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
@@ -33,6 +35,8 @@ import java.util.Map;
 public class JPublishSimpleCacheImpl implements JPublishCache {
     protected static final Log log = LogFactory.getLog(JPublishSimpleCacheImpl.class);
     private Map cache;
+    private LongAdder hits = new LongAdder();
+    private LongAdder misses = new LongAdder();
 
     /**
      * Add or creates a new cache with a given name
@@ -43,7 +47,7 @@ public class JPublishSimpleCacheImpl implements JPublishCache {
      */
     public void addCache(String cacheName) throws JPublishCacheException {
         log.info(cacheName + " created.");
-        cache = new HashMap(10);
+        cache = new ConcurrentHashMap(16);
     }
 
     /**
@@ -58,7 +62,13 @@ public class JPublishSimpleCacheImpl implements JPublishCache {
         if (key == null)
             throw new JPublishCacheException("Invalid key specification: null");
 
-        return cache.get(key);
+        Object value = cache.get(key);
+        if (value != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return value;
     }
 
     /**
@@ -85,7 +95,7 @@ public class JPublishSimpleCacheImpl implements JPublishCache {
      *
      */
     public void remove(Object key) throws JPublishCacheException {
-        if (cache.containsKey(key))
+        if (key != null)
             cache.remove(key);
     }
 
@@ -143,7 +153,19 @@ public class JPublishSimpleCacheImpl implements JPublishCache {
             return null;
     }
 
+    /**
+     * obtain statistics on the current cache
+     *
+     * @return a Map holding the <code>hits</code>, <code>misses</code> and
+     *         <code>objectCount</code> Long values
+     * @throws org.jpublish.JPublishCacheException
+     *
+     */
     public Object getStatistics() throws JPublishCacheException {
-        return null;
+        Map statistics = new HashMap();
+        statistics.put("hits", Long.valueOf(hits.sum()));
+        statistics.put("misses", Long.valueOf(misses.sum()));
+        statistics.put("objectCount", Long.valueOf(cache != null ? cache.size() : 0));
+        return statistics;
     }
 }
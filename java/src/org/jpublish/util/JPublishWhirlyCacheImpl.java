@@ -60,7 +60,7 @@ public class JPublishWhirlyCacheImpl implements JPublishCache {
      * @throws org.jpublish.JPublishCacheException
      *
      */
-    public synchronized Object get(Object key) throws JPublishCacheException {
+    public Object get(Object key) throws JPublishCacheException {
         try {
             return cache.retrieve(key);
         } catch (Exception e) {
@@ -76,7 +76,7 @@ public class JPublishWhirlyCacheImpl implements JPublishCache {
      * @throws org.jpublish.JPublishCacheException
      *          if the parameters are not {@link java.io.Serializable} or another {@link Exception} occurs.
      */
-    public synchronized void put(Object key, Object value) throws JPublishCacheException {
+    public void put(Object key, Object value) throws JPublishCacheException {
         if (key != null)
             try {
                 cache.store(key, value);
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.jpublish.util;
+
+import org.jpublish.page.PageInstance;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A rendered page held by the OutputCacheManager.  Besides the rendered
+ * bytes and their content type, the entry remembers everything the output
+ * was built from: the PageInstance, the template and the repository
+ * content pulled while merging.  The entry is valid only as long as none
+ * of these were modified.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class OutputCacheEntry {
+
+    private String path;
+    private byte[] content;
+    private String contentType;
+    private PageInstance pageInstance;
+    private String templatePath;
+    private long templateLastModified;
+    private List dependencies;
+    private long created;
+    private long timeToLive;
+    private volatile long lastAccess;
+    private ConcurrentMap encodedContent = new ConcurrentHashMap();
+
+    /**
+     * Construct a new OutputCacheEntry.
+     *
+     * @param path                 The real request path
+     * @param content              The rendered bytes
+     * @param contentType          The response content type
+     * @param pageInstance         The PageInstance used for rendering
+     * @param templatePath         The full template name
+     * @param templateLastModified The template last modified time
+     * @param dependencies         The List of RepositoryDependency objects
+     * @param timeToLive           The time to live in milliseconds, 0 for no expiration
+     */
+
+    public OutputCacheEntry(String path, byte[] content, String contentType,
+                            PageInstance pageInstance, String templatePath,
+                            long templateLastModified, List dependencies,
+                            long timeToLive) {
+        this.path = path;
+        this.content = content;
+        this.contentType = contentType;
+        this.pageInstance = pageInstance;
+        this.templatePath = templatePath;
+        this.templateLastModified = templateLastModified;
+        this.dependencies = dependencies == null ? Collections.EMPTY_LIST : dependencies;
+        this.timeToLive = timeToLive;
+        this.created = System.currentTimeMillis();
+    }
+
+    public String getPath() {
+        return path;
+    }
+
+    public byte[] getContent() {
+        return content;
+    }
+
+    public String getContentType() {
+        return contentType;
+    }
+
+    /**
+     * Get the rendered bytes compressed with the given content encoding,
+     * compressing them the first time they are requested.
+     *
+     * @param encoding           The content encoding
+     * @param compressionManager The CompressionManager
+     * @return The compressed bytes
+     * @throws IOException
+     */
+
+    public byte[] getEncodedContent(String encoding, CompressionManager compressionManager)
+            throws IOException {
+        byte[] encoded = (byte[]) encodedContent.get(encoding);
+        if (encoded == null) {
+            encoded = compressionManager.compress(content, encoding);
+            encodedContent.putIfAbsent(encoding, encoded);
+        }
+        return encoded;
+    }
+
+    public PageInstance getPageInstance() {
+        return pageInstance;
+    }
+
+    public String getTemplatePath() {
+        return templatePath;
+    }
+
+    public long getTemplateLastModified() {
+        return templateLastModified;
+    }
+
+    public List getDependencies() {
+        return dependencies;
+    }
+
+    public long getCreated() {
+        return created;
+    }
+
+    /**
+     * Return true if the time to live of this entry elapsed.
+     *
+     * @param now The current time
+     * @return True if the entry expired
+     */
+
+    public boolean isExpired(long now) {
+        return timeToLive > 0 && now - created > timeToLive;
+    }
+
+    long getLastAccess() {
+        return lastAccess;
+    }
+
+    void setLastAccess(long lastAccess) {
+        this.lastAccess = lastAccess;
+    }
+
+    /**
+     * A piece of repository content used while rendering a cached page.
+     */
+
+    public static class RepositoryDependency {
+
+        private String repositoryName;
+        private String path;
+        private long lastModified;
+
+        public RepositoryDependency(String repositoryName, String path, long lastModified) {
+            this.repositoryName = repositoryName;
+            this.path = path;
+            this.lastModified = lastModified;
+        }
+
+        public String getRepositoryName() {
+            return repositoryName;
+        }
+
+        public String getPath() {
+            return path;
+        }
+
+        public long getLastModified() {
+            return lastModified;
+        }
+    }
+
+}
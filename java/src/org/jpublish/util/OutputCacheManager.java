@@ -0,0 +1,371 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.jpublish.util;
+
+import com.anthonyeden.lib.config.Configuration;
+import com.anthonyeden.lib.config.ConfigurationException;
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jpublish.JPublishContext;
+import org.jpublish.Repository;
+import org.jpublish.SiteContext;
+import org.jpublish.page.PageInstance;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cache for the rendered output of dynamic pages.  The cache is opt-in and
+ * is configured per path in the <code>jpublish.xml</code> file:
+ * <p/>
+ * <pre>
+ * &lt;output-cache max-entries="500" render-timeout="10000"&gt;
+ *     &lt;cache path="/news/*" ttl="300"&gt;
+ *         &lt;vary-by-header&gt;Accept-Language&lt;/vary-by-header&gt;
+ *         &lt;vary-by-parameter&gt;id&lt;/vary-by-parameter&gt;
+ *         &lt;vary-by-locale&gt;true&lt;/vary-by-locale&gt;
+ *     &lt;/cache&gt;
+ * &lt;/output-cache&gt;
+ * </pre>
+ * <p/>
+ * The ttl is expressed in seconds; when missing, or 0, an entry is kept until
+ * the page definition, the template or any repository content used while
+ * rendering the page is modified.  A cached page is served without executing
+ * the global, path, parameter and page actions, therefore only pages whose
+ * output depends exclusively on the cache key should be mapped.
+ * <p/>
+ * A cached page is replayed with its body and content type only.  Pages
+ * rendered with a status other than 200, a redirect, a cookie or any other
+ * header are sent to the client but not cached, see OutputCacheResponse.
+ * <p/>
+ * Concurrent requests missing the cache for the same key are coalesced: one
+ * of them renders the page while the others wait, at most render-timeout
+ * milliseconds, and are then served from the cache.
+ * <p/>
+ * Lookups do not lock; when the cache grows past max-entries the least
+ * recently used entries are evicted, in batches of an eighth of the cache.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class OutputCacheManager {
+    private static final Log log = LogFactory.getLog(OutputCacheManager.class);
+
+    /**
+     * context key used for collecting the repository content a page depends on
+     */
+    public static final String DEPENDENCIES = "jpublish.outputCacheDependencies";
+
+    public static final int DEFAULT_MAX_ENTRIES = 1000;
+
+    private static final int EVICTION_RATIO = 8;
+
+    /**
+     * maximum time, in milliseconds, a request waits for a concurrent render of the same page
+     */
+    public static final long DEFAULT_RENDER_TIMEOUT = 10000;
+
+    private SiteContext siteContext;
+    private PathMatcher mappings = new PathMatcher();
+    private ConcurrentMap entries = new ConcurrentHashMap();
+    private AtomicLong clock = new AtomicLong();
+    private int maxEntries = DEFAULT_MAX_ENTRIES;
+    private long renderTimeout = DEFAULT_RENDER_TIMEOUT;
+    private ConcurrentMap renders = new ConcurrentHashMap();
+
+    /**
+     * Construct a new OutputCacheManager.
+     *
+     * @param siteContext The SiteContext
+     */
+
+    public OutputCacheManager(SiteContext siteContext) {
+        this.siteContext = siteContext;
+    }
+
+    /**
+     * Load the output-cache configuration.
+     *
+     * @param configuration The site configuration
+     * @throws ConfigurationException
+     */
+
+    public void loadConfiguration(Configuration configuration) throws ConfigurationException {
+        Configuration outputCacheElement = configuration.getChild("output-cache");
+        if (outputCacheElement == null) {
+            return;
+        }
+
+        try {
+            maxEntries = Integer.parseInt(outputCacheElement.getAttribute("max-entries",
+                    String.valueOf(DEFAULT_MAX_ENTRIES)));
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("Invalid max-entries value", e, outputCacheElement);
+        }
+        entries.clear();
+
+        try {
+            renderTimeout = Long.parseLong(outputCacheElement.getAttribute("render-timeout",
+                    String.valueOf(DEFAULT_RENDER_TIMEOUT)));
+        } catch (NumberFormatException e) {
+            throw new ConfigurationException("Invalid render-timeout value", e, outputCacheElement);
+        }
+
+        Iterator cacheElements = outputCacheElement.getChildren("cache").iterator();
+        while (cacheElements.hasNext()) {
+            Configuration cacheElement = (Configuration) cacheElements.next();
+            OutputCacheMapping mapping = new OutputCacheMapping(cacheElement.getAttribute("path"));
+
+            try {
+                long ttl = Long.parseLong(cacheElement.getAttribute("ttl", "0"));
+                mapping.setTimeToLive(ttl * 1000);
+            } catch (NumberFormatException e) {
+                throw new ConfigurationException("Invalid ttl value", e, cacheElement);
+            }
+
+            Iterator headers = cacheElement.getChildren("vary-by-header").iterator();
+            while (headers.hasNext()) {
+                mapping.getVaryByHeaders().add(((Configuration) headers.next()).getValue().trim());
+            }
+
+            Iterator parameters = cacheElement.getChildren("vary-by-parameter").iterator();
+            while (parameters.hasNext()) {
+                mapping.getVaryByParameters().add(((Configuration) parameters.next()).getValue().trim());
+            }
+
+            mapping.setVaryByLocale("true".equalsIgnoreCase(
+                    cacheElement.getChildValue("vary-by-locale", "false").trim()));
+
+            mappings.add(mapping.getPath(), mapping);
+
+            if (log.isDebugEnabled())
+                log.debug("Output cache enabled for path: " + mapping.getPath());
+        }
+    }
+
+    /**
+     * Get the OutputCacheMapping for the given path or null if the output
+     * of the path is not cached.
+     *
+     * @param path The request path
+     * @return The OutputCacheMapping or null
+     */
+
+    public OutputCacheMapping getMapping(String path) {
+        return (OutputCacheMapping) mappings.getFirstMatch(path);
+    }
+
+    /**
+     * Get the cached output stored under the given key.  Expired entries and
+     * entries whose dependencies were modified are evicted and null is
+     * returned.
+     *
+     * @param key The cache key
+     * @return The OutputCacheEntry or null
+     */
+
+    public OutputCacheEntry get(String key) {
+        OutputCacheEntry entry = (OutputCacheEntry) entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+
+        if (!isValid(entry)) {
+            entries.remove(key, entry);
+            return null;
+        }
+
+        entry.setLastAccess(clock.incrementAndGet());
+        return entry;
+    }
+
+    /**
+     * Store the rendered output under the given key.
+     *
+     * @param key   The cache key
+     * @param entry The OutputCacheEntry
+     */
+
+    public void put(String key, OutputCacheEntry entry) {
+        entry.setLastAccess(clock.incrementAndGet());
+        entries.put(key, entry);
+        if (entries.size() > maxEntries) {
+            evict();
+        }
+    }
+
+    /**
+     * Called after a cache miss, before rendering the page.  The first
+     * request rendering a key returns true immediately and must call
+     * <code>endRender()</code> once done.  Concurrent requests for the same
+     * key wait for that render to complete, or for the render timeout, and
+     * return false; they should look up the cache again before rendering
+     * the page themselves.
+     *
+     * @param key The cache key
+     * @return True if the calling request renders the page
+     */
+
+    public boolean beginRender(String key) {
+        CountDownLatch latch = new CountDownLatch(1);
+        CountDownLatch running = (CountDownLatch) renders.putIfAbsent(key, latch);
+        if (running == null) {
+            return true;
+        }
+
+        try {
+            running.await(renderTimeout, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return false;
+    }
+
+    /**
+     * Release the requests waiting for the render of the given key.
+     *
+     * @param key The cache key
+     */
+
+    public void endRender(String key) {
+        CountDownLatch latch = (CountDownLatch) renders.remove(key);
+        if (latch != null) {
+            latch.countDown();
+        }
+    }
+
+    /**
+     * Remove all the cached output.
+     */
+
+    public void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Get the number of pages currently cached.
+     *
+     * @return The number of cached pages
+     */
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Record the repository content used while rendering the current page.
+     * Nothing is recorded unless the current page output is being captured
+     * for the cache.
+     *
+     * @param context    The current context
+     * @param repository The Repository
+     * @param path       The content path
+     */
+
+    public static void recordDependency(JPublishContext context, Repository repository, String path) {
+        List dependencies = (List) context.get(DEPENDENCIES);
+        if (dependencies == null) {
+            return;
+        }
+
+        long lastModified = -1;
+        try {
+            lastModified = repository.getLastModified(path);
+        } catch (Exception e) {
+            log.warn("Cannot read the LastModified for: " + path);
+        }
+
+        dependencies.add(new OutputCacheEntry.RepositoryDependency(
+                repository.getName(), path, lastModified));
+    }
+
+    private boolean isValid(OutputCacheEntry entry) {
+        if (entry.isExpired(System.currentTimeMillis())) {
+            return false;
+        }
+
+        try {
+            PageInstance pageInstance = siteContext.getPageManager().getPage(entry.getPath());
+            if (pageInstance != entry.getPageInstance()) {
+                return false;
+            }
+
+            long templateLastModified = siteContext.getTemplateManager()
+                    .getTemplate(entry.getTemplatePath()).getLastModified();
+            if (templateLastModified != entry.getTemplateLastModified()) {
+                return false;
+            }
+
+            Iterator dependencies = entry.getDependencies().iterator();
+            while (dependencies.hasNext()) {
+                OutputCacheEntry.RepositoryDependency dependency =
+                        (OutputCacheEntry.RepositoryDependency) dependencies.next();
+                Repository repository = siteContext.getRepository(dependency.getRepositoryName());
+                if (repository == null ||
+                        repository.getLastModified(dependency.getPath()) != dependency.getLastModified()) {
+                    return false;
+                }
+            }
+        } catch (Exception e) {
+            if (log.isDebugEnabled())
+                log.debug("Cached output no longer valid: " + entry.getPath() + ", " + e.getMessage());
+            return false;
+        }
+
+        return true;
+    }
+
+    private synchronized void evict() {
+        int size = entries.size();
+        if (size <= maxEntries) {
+            return;
+        }
+
+        // evict a batch, so the scan does not run again on every put
+        long[] accesses = new long[size];
+        int count = 0;
+        Iterator cached = entries.values().iterator();
+        while (cached.hasNext() && count < size) {
+            accesses[count++] = ((OutputCacheEntry) cached.next()).getLastAccess();
+        }
+        if (count == 0) {
+            return;
+        }
+        Arrays.sort(accesses, 0, count);
+
+        int evicted = Math.max(count - maxEntries, maxEntries / EVICTION_RATIO);
+        long threshold = accesses[Math.min(evicted, count) - 1];
+
+        if (log.isDebugEnabled())
+            log.debug("Evicting " + evicted + " cached pages");
+
+        cached = entries.values().iterator();
+        while (cached.hasNext()) {
+            if (((OutputCacheEntry) cached.next()).getLastAccess() <= threshold) {
+                cached.remove();
+            }
+        }
+    }
+
+}
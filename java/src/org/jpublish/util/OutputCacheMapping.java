@@ -0,0 +1,192 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.jpublish.util;
+
+import javax.servlet.http.HttpServletRequest;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Maps a request path pattern to the rules used for caching the rendered
+ * output of the matching pages.  The mapping decides which parts of the
+ * request take part in the cache key: request headers, request parameters
+ * and the request locale.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class OutputCacheMapping {
+
+    private String path;
+    private long timeToLive = 0;
+    private boolean varyByLocale = false;
+    private List varyByHeaders = new ArrayList();
+    private List varyByParameters = new ArrayList();
+
+    /**
+     * Construct a new OutputCacheMapping for the given path.  The path can
+     * include the '*' wildcard.
+     *
+     * @param path The path pattern
+     */
+
+    public OutputCacheMapping(String path) {
+        this.path = path;
+    }
+
+    /**
+     * Get the path pattern.
+     *
+     * @return The path pattern
+     */
+
+    public String getPath() {
+        return path;
+    }
+
+    /**
+     * Get the time, in milliseconds, a rendered page is kept in the cache.
+     * A value of 0 means the page is kept until one of its dependencies
+     * is modified.
+     *
+     * @return The time to live in milliseconds
+     */
+
+    public long getTimeToLive() {
+        return timeToLive;
+    }
+
+    /**
+     * Set the time, in milliseconds, a rendered page is kept in the cache.
+     *
+     * @param timeToLive The time to live in milliseconds
+     */
+
+    public void setTimeToLive(long timeToLive) {
+        this.timeToLive = timeToLive;
+    }
+
+    /**
+     * Return true if the request locale is part of the cache key.
+     *
+     * @return True if the cache varies by locale
+     */
+
+    public boolean isVaryByLocale() {
+        return varyByLocale;
+    }
+
+    /**
+     * Set to true to make the request locale part of the cache key.
+     *
+     * @param varyByLocale True to vary by locale
+     */
+
+    public void setVaryByLocale(boolean varyByLocale) {
+        this.varyByLocale = varyByLocale;
+    }
+
+    /**
+     * Get the List of request header names which are part of the cache key.
+     *
+     * @return The header names
+     */
+
+    public List getVaryByHeaders() {
+        return varyByHeaders;
+    }
+
+    /**
+     * Get the List of request parameter names which are part of the cache
+     * key.  The '*' name will include all the request parameters.
+     *
+     * @return The parameter names
+     */
+
+    public List getVaryByParameters() {
+        return varyByParameters;
+    }
+
+    /**
+     * Build the cache key for the given request.  Each part of the key is
+     * prefixed with its length, or is a single <code>-</code> when the value
+     * is absent, and a parameter is followed by the number of its values,
+     * therefore no request value can be mistaken for another part of the key.
+     *
+     * @param requestPath The real request path
+     * @param request     The HTTP request
+     * @param formatParameterName The name of the format parameter or null
+     * @return The cache key
+     */
+
+    public String getKey(String requestPath, HttpServletRequest request, String formatParameterName) {
+        StringBuffer key = new StringBuffer(64);
+        appendKeyPart(key, requestPath);
+
+        if (formatParameterName != null && formatParameterName.length() > 0) {
+            appendParameter(key, request, formatParameterName);
+        }
+
+        Iterator parameters = varyByParameters.iterator();
+        while (parameters.hasNext()) {
+            String name = (String) parameters.next();
+            if (PathUtilities.WILDCARD.equals(name)) {
+                appendKeyPart(key, request.getQueryString());
+            } else {
+                appendParameter(key, request, name);
+            }
+        }
+
+        Iterator headers = varyByHeaders.iterator();
+        while (headers.hasNext()) {
+            String name = (String) headers.next();
+            appendKeyPart(key, name);
+            appendKeyPart(key, request.getHeader(name));
+        }
+
+        if (varyByLocale) {
+            appendKeyPart(key, request.getLocale());
+        }
+
+        return key.toString();
+    }
+
+    private void appendParameter(StringBuffer key, HttpServletRequest request, String name) {
+        appendKeyPart(key, name);
+        String[] values = request.getParameterValues(name);
+        if (values == null) {
+            key.append('-');
+        } else {
+            key.append(values.length).append('#');
+            for (int i = 0; i < values.length; i++) {
+                appendKeyPart(key, values[i]);
+            }
+        }
+    }
+
+    private static void appendKeyPart(StringBuffer key, Object value) {
+        if (value == null) {
+            key.append('-');
+        } else {
+            String text = value.toString();
+            key.append(text.length()).append(':').append(text);
+        }
+    }
+
+}
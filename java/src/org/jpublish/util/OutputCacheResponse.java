@@ -0,0 +1,122 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.jpublish.util;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import java.io.IOException;
+
+/**
+ * Response wrapper used while rendering a page mapped in the output cache.
+ * A cached page is replayed with its body and content type only, therefore
+ * the wrapper records whether the actions or the template set a status
+ * other than 200, sent an error or a redirect, added a cookie or set any
+ * other header; such a page is sent to the client but not cached.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class OutputCacheResponse extends HttpServletResponseWrapper {
+
+    private boolean cacheable = true;
+
+    /**
+     * Construct a new OutputCacheResponse.
+     *
+     * @param response The wrapped response
+     */
+
+    public OutputCacheResponse(HttpServletResponse response) {
+        super(response);
+    }
+
+    /**
+     * Return true if the page rendered with this response can be cached
+     * and served again with its body and content type only.
+     *
+     * @return True if the response is cacheable
+     */
+
+    public boolean isCacheable() {
+        return cacheable;
+    }
+
+    public void setStatus(int status) {
+        if (status != SC_OK) {
+            cacheable = false;
+        }
+        super.setStatus(status);
+    }
+
+    public void setStatus(int status, String message) {
+        cacheable = false;
+        super.setStatus(status, message);
+    }
+
+    public void sendError(int status) throws IOException {
+        cacheable = false;
+        super.sendError(status);
+    }
+
+    public void sendError(int status, String message) throws IOException {
+        cacheable = false;
+        super.sendError(status, message);
+    }
+
+    public void sendRedirect(String location) throws IOException {
+        cacheable = false;
+        super.sendRedirect(location);
+    }
+
+    public void addCookie(Cookie cookie) {
+        cacheable = false;
+        super.addCookie(cookie);
+    }
+
+    public void setHeader(String name, String value) {
+        cacheable = false;
+        super.setHeader(name, value);
+    }
+
+    public void addHeader(String name, String value) {
+        cacheable = false;
+        super.addHeader(name, value);
+    }
+
+    public void setDateHeader(String name, long date) {
+        cacheable = false;
+        super.setDateHeader(name, date);
+    }
+
+    public void addDateHeader(String name, long date) {
+        cacheable = false;
+        super.addDateHeader(name, date);
+    }
+
+    public void setIntHeader(String name, int value) {
+        cacheable = false;
+        super.setIntHeader(name, value);
+    }
+
+    public void addIntHeader(String name, int value) {
+        cacheable = false;
+        super.addIntHeader(name, value);
+    }
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.jpublish.util;
+
+import java.util.List;
+
+/**
+ * A List of path mapped elements backed by a {@link PathMatcher}.  The
+ * list can still be modified by modules at any time, for example for adding
+ * path actions; the PathMatcher is compiled again the first time the list is
+ * queried after a structural modification.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class PathIndexedList extends VersionedList {
+
+    /**
+     * Extract the path pattern of an element of the list.
+     */
+
+    public interface PathResolver {
+        String getPath(Object element);
+    }
+
+    private PathResolver pathResolver;
+    private volatile PathMatcher matcher;
+    private volatile int matcherModCount = -1;
+
+    /**
+     * Construct a new PathIndexedList.
+     *
+     * @param pathResolver Resolver used for extracting the path pattern of each element
+     */
+
+    public PathIndexedList(PathResolver pathResolver) {
+        this.pathResolver = pathResolver;
+    }
+
+    /**
+     * Get all the elements whose path pattern matches the given path, in
+     * the list order.
+     *
+     * @param path The request path
+     * @return An unmodifiable List of elements, never null
+     */
+
+    public List getMatches(String path) {
+        return getMatcher().getMatches(path);
+    }
+
+    /**
+     * Get the first element whose path pattern matches the given path.
+     *
+     * @param path The request path
+     * @return The element or null
+     */
+
+    public Object getFirstMatch(String path) {
+        return getMatcher().getFirstMatch(path);
+    }
+
+    private PathMatcher getMatcher() {
+        PathMatcher current = matcher;
+        if (current == null || matcherModCount != modCount) {
+            synchronized (this) {
+                int currentModCount = modCount;
+                current = new PathMatcher();
+                for (int i = 0; i < size(); i++) {
+                    Object element = get(i);
+                    current.add(pathResolver.getPath(element), element);
+                }
+                matcher = current;
+                matcherModCount = currentModCount;
+            }
+        }
+        return current;
+    }
+
+}
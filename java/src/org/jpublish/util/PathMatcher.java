@@ -0,0 +1,236 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.jpublish.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Compiled index of path patterns.  Patterns follow the same rules as
+ * {@link PathUtilities#match(String, String)}: a pattern without a wildcard
+ * must be equal to the path, otherwise the path must start with the text
+ * before the first '*' and end with the text after it.
+ * <p/>
+ * Exact patterns are kept in a hash map and the text before the wildcard is
+ * stored in a character trie, so all the patterns matching a path are found
+ * by walking the path once, instead of testing every pattern.  The values are
+ * returned in the order their patterns were added.  The results of the
+ * requested paths are remembered in a lock-free memo, cleared when full.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class PathMatcher {
+
+    public static final int DEFAULT_MEMO_SIZE = 1024;
+
+    private static final Comparator ORDER = new Comparator() {
+        public int compare(Object o1, Object o2) {
+            return ((Entry) o1).index - ((Entry) o2).index;
+        }
+    };
+
+    private Map exactEntries = new HashMap();
+    private Node root = new Node();
+    private int size = 0;
+    private int memoSize;
+    private ConcurrentMap memo = new ConcurrentHashMap();
+
+    /**
+     * Construct a new PathMatcher using the default memo size.
+     */
+
+    public PathMatcher() {
+        this(DEFAULT_MEMO_SIZE);
+    }
+
+    /**
+     * Construct a new PathMatcher.
+     *
+     * @param memoSize The maximum number of paths whose matches are remembered
+     */
+
+    public PathMatcher(int memoSize) {
+        this.memoSize = memoSize;
+    }
+
+    /**
+     * Add a pattern and the value returned when a path matches it.  Patterns
+     * should be added when the configuration is loaded, before the matcher
+     * is shared between threads.
+     *
+     * @param pattern The path pattern
+     * @param value   The value
+     */
+
+    public void add(String pattern, Object value) {
+        int wildcardIndex = pattern.indexOf(PathUtilities.WILDCARD);
+        if (wildcardIndex == -1) {
+            List entries = (List) exactEntries.get(pattern);
+            if (entries == null) {
+                entries = new ArrayList(1);
+                exactEntries.put(pattern, entries);
+            }
+            entries.add(new Entry(size++, null, value));
+        } else {
+            String preMatch = pattern.substring(0, wildcardIndex);
+            String postMatch = pattern.substring(wildcardIndex + 1);
+
+            Node node = root;
+            for (int i = 0; i < preMatch.length(); i++) {
+                node = node.getOrCreateChild(preMatch.charAt(i));
+            }
+            node.entries.add(new Entry(size++, postMatch, value));
+        }
+
+        memo.clear();
+    }
+
+    /**
+     * Get all the values whose patterns match the given path, in the order
+     * the patterns were added.
+     *
+     * @param path The request path
+     * @return An unmodifiable List of values, never null
+     */
+
+    public List getMatches(String path) {
+        List matches = (List) memo.get(path);
+        if (matches == null) {
+            matches = findMatches(path);
+            if (memo.size() >= memoSize) {
+                memo.clear();
+            }
+            memo.put(path, matches);
+        }
+        return matches;
+    }
+
+    /**
+     * Get the value of the first pattern matching the given path.
+     *
+     * @param path The request path
+     * @return The value or null if no pattern matches
+     */
+
+    public Object getFirstMatch(String path) {
+        List matches = getMatches(path);
+        return matches.isEmpty() ? null : matches.get(0);
+    }
+
+    /**
+     * Return true if at least one pattern matches the given path.
+     *
+     * @param path The request path
+     * @return True if the path matches
+     */
+
+    public boolean matches(String path) {
+        return !getMatches(path).isEmpty();
+    }
+
+    /**
+     * Get the number of patterns in this matcher.
+     *
+     * @return The number of patterns
+     */
+
+    public int size() {
+        return size;
+    }
+
+    private List findMatches(String path) {
+        List found = new ArrayList();
+
+        List exact = (List) exactEntries.get(path);
+        if (exact != null) {
+            found.addAll(exact);
+        }
+
+        Node node = root;
+        collect(node, path, found);
+        for (int i = 0; i < path.length() && node != null; i++) {
+            node = node.getChild(path.charAt(i));
+            if (node != null) {
+                collect(node, path, found);
+            }
+        }
+
+        if (found.isEmpty()) {
+            return Collections.EMPTY_LIST;
+        }
+
+        Collections.sort(found, ORDER);
+        List values = new ArrayList(found.size());
+        for (int i = 0; i < found.size(); i++) {
+            values.add(((Entry) found.get(i)).value);
+        }
+        return Collections.unmodifiableList(values);
+    }
+
+    private void collect(Node node, String path, List found) {
+        for (int i = 0; i < node.entries.size(); i++) {
+            Entry entry = (Entry) node.entries.get(i);
+            if (path.endsWith(entry.postMatch)) {
+                found.add(entry);
+            }
+        }
+    }
+
+    private static class Entry {
+        private int index;
+        private String postMatch;
+        private Object value;
+
+        Entry(int index, String postMatch, Object value) {
+            this.index = index;
+            this.postMatch = postMatch;
+            this.value = value;
+        }
+    }
+
+    private static class Node {
+        private Map children;
+        private List entries = new ArrayList(0);
+
+        Node getChild(char c) {
+            return children == null ? null : (Node) children.get(Character.valueOf(c));
+        }
+
+        Node getOrCreateChild(char c) {
+            if (children == null) {
+                children = new HashMap();
+            }
+
+            Character key = Character.valueOf(c);
+            Node child = (Node) children.get(key);
+            if (child == null) {
+                child = new Node();
+                children.put(key, child);
+            }
+            return child;
+        }
+    }
+
+}
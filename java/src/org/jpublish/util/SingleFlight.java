@@ -0,0 +1,93 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.jpublish.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Coalesces concurrent executions of the same load.  The first thread asking
+ * for a key runs the loader, while the other threads asking for the same key
+ * in the meantime wait for, and share, its result or its exception.  Nothing
+ * is cached once the load is complete; callers keep using their own caches
+ * and call this class only on a cache miss.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class SingleFlight {
+
+    private ConcurrentMap inFlight = new ConcurrentHashMap();
+
+    /**
+     * Run the loader for the given key, unless another thread is already
+     * running a loader for the same key, in which case wait for its result.
+     *
+     * @param key    The load key
+     * @param loader The loader
+     * @return The loaded object
+     * @throws Exception Any exception thrown by the loader
+     */
+
+    public Object execute(Object key, Callable loader) throws Exception {
+        FutureTask task = new FutureTask(loader);
+        FutureTask running = (FutureTask) inFlight.putIfAbsent(key, task);
+
+        if (running == null) {
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+            running = task;
+        }
+
+        return getResult(running);
+    }
+
+    /**
+     * Get the number of loads in progress.
+     *
+     * @return The number of loads in progress
+     */
+
+    public int size() {
+        return inFlight.size();
+    }
+
+    private Object getResult(FutureTask task) throws Exception {
+        try {
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw e;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+}
@@ -19,6 +19,7 @@ package org.jpublish.util;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
+import org.jpublish.JPublishContext;
 
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
@@ -41,6 +42,17 @@ public class URLUtilities {
 
     private static Log log = LogFactory.getLog(URLUtilities.class);
 
+    /**
+     * Builds the URLUtilities of a context, from its request and response,
+     * when they are first read.
+     */
+
+    public static final JPublishContext.ValueSupplier SUPPLIER = new JPublishContext.ValueSupplier() {
+        public Object get(JPublishContext context) {
+            return new URLUtilities(context.getRequest(), context.getResponse());
+        }
+    };
+
     private HttpServletRequest request;
     private HttpServletResponse response;
 
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2004-2007 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.jpublish.util;
+
+import java.util.ArrayList;
+
+/**
+ * An ArrayList exposing the number of structural modifications it went
+ * through, so that the data derived from its content can tell when it must
+ * be computed again.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class VersionedList extends ArrayList {
+
+    /**
+     * Get the version of the list, which increases with each element added
+     * or removed.
+     *
+     * @return The list version
+     */
+
+    public int getVersion() {
+        return modCount;
+    }
+
+}
@@ -25,19 +25,39 @@ import org.jpublish.SiteContext;
 import org.jpublish.util.FileCopyUtils;
 import org.jpublish.view.ViewRenderException;
 import org.jpublish.view.ViewRenderer;
-import org.jruby.RubyInstanceConfig;
 import org.jruby.embed.EvalFailedException;
+import org.jruby.embed.InvokeFailedException;
 import org.jruby.embed.LocalContextScope;
 import org.jruby.embed.ScriptingContainer;
-import org.jruby.javasupport.JavaEmbedUtils;
 
 import java.io.*;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * ViewRenderer which renders haml templates using support from JRuby
  * <p/>
+ * The templates are rendered by a pool of JRuby runtimes, each used by one
+ * thread at a time.  Every runtime compiles a template into a
+ * <code>Haml::Engine</code> once per path and last modified time, and
+ * renders it against a scope object reading the values of the
+ * JPublishContext: a template refers to the page as <code>page</code> and
+ * to the context itself as <code>context</code>.
+ * <pre>
+ * &lt;view-renderer classname="org.jpublish.view.haml.HamlViewRenderer"&gt;
+ *     &lt;jruby_home&gt;/opt/jruby&lt;/jruby_home&gt;
+ *     &lt;pool-size&gt;4&lt;/pool-size&gt;
+ *     &lt;haml-init&gt;require 'rubygems'; require 'haml'&lt;/haml-init&gt;
+ * &lt;/view-renderer&gt;
+ * </pre>
+ * The haml-init element replaces the script run once by every runtime to
+ * load Haml; the pool size defaults to the number of processors.  The haml
+ * element, which held the script run for every render, is no longer
+ * supported.
+ * <p/>
  * See: http://github.com/nex3/haml for more details about haml
  *
  * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
@@ -47,24 +67,42 @@ import java.util.List;
 public class HamlViewRenderer implements ViewRenderer {
     protected static final Log log = LogFactory.getLog(HamlViewRenderer.class);
 
-    private ScriptingContainer container;
-    private Configuration scriptingContainerConfiguration;
+    public static final String UTF_8 = "utf-8";
+    public static final int DEFAULT_POOL_SIZE = Runtime.getRuntime().availableProcessors();
+    public static final int MAX_TEMPLATES = 256;
 
-    private String jrubyhome = "";  // will be addressed before the final version
+    /**
+     * the scope the templates are rendered against; the names not defined
+     * by Haml are looked up in the JPublishContext
+     */
+    private static final String SCOPE_RB = "class JPublishHamlScope\n" +
+            "  def initialize(context)\n" +
+            "    @context = context\n" +
+            "  end\n" +
+            "  def context\n" +
+            "    @context\n" +
+            "  end\n" +
+            "  def method_missing(name, *args)\n" +
+            "    key = name.to_s\n" +
+            "    return @context.get(key) if args.empty? && @context.containsKey(key)\n" +
+            "    super\n" +
+            "  end\n" +
+            "  def respond_to?(name, include_private = false)\n" +
+            "    @context.containsKey(name.to_s) || super\n" +
+            "  end\n" +
+            "end\n";
+
+    private String jrubyhome = null;
     private String haml_rb = "require 'java'\n" +
             "require 'rubygems'\n" +
             "require 'date'\n" +
-            "require 'haml'\n" +
-            "Haml::Engine.new( haml_template).render.to_s";
+            "require 'haml'\n";
 
-    private JavaEmbedUtils.EvalUnit haml_rb_unit;
+    private int poolSize = DEFAULT_POOL_SIZE;
+    private BlockingQueue runtimes;
+    private AtomicInteger runtimeCount = new AtomicInteger();
 
     private SiteContext siteContext;
-    public static final String UTF_8 = "utf-8";
-    public static final String $HAML_TEMPLATE_KEY = "$haml_template";
-    public static final String $ = "$";
-    public static final String $CONTEXT = $ + "context";
-    private static final String JRUBY_CONTEXT_INSTANCE = "$jruby_context_instance";
 
     /**
      * Set the SiteContext.
@@ -77,12 +115,18 @@ public class HamlViewRenderer implements ViewRenderer {
     }
 
     /**
-     * Initialize the ViewRenderer.
+     * Initialize the ViewRenderer.  The first runtime is started right
+     * away, the others when the concurrent requests need them.
      *
      * @throws Exception Any Exception
      */
 
     public void init() throws Exception {
+        runtimes = new ArrayBlockingQueue(poolSize);
+        runtimeCount.set(1);
+        runtimes.offer(new HamlRuntime());
+
+        log.info("haml enabled, " + poolSize + " JRuby runtimes at most ... have fun!");
     }
 
     /**
@@ -99,24 +143,15 @@ public class HamlViewRenderer implements ViewRenderer {
     public void render(JPublishContext context, String path, Reader in,
                        Writer out) throws IOException, ViewRenderException {
 
-        String template = FileCopyUtils.copyToString(in); //faster than processing the Reader inside the script
-        // thread safe, right?? Promise??
-        Object keys[] = context.getKeys(); // the keys must be Strings only
-
-        // transfer the JPublish context to JRuby
-        for (Object key : keys) {
-            container.put($ + key, context.get((String) key));
-        }
-
-        container.put($CONTEXT, context); // pass our jpublish context too
-        container.put($HAML_TEMPLATE_KEY, template); // put our template too
-
+        HamlRuntime runtime = borrowRuntime();
         try {
-            FileCopyUtils.copy(haml_rb_unit.run().asJavaString(), out); //send it
-            container.clear();
+            out.write(runtime.render(runtime.getEngine(path, in), context));
         } catch (EvalFailedException e) {
-            FileCopyUtils.copy(String.format("[EvalFailedException] %s", e.getMessage()), out);
-            e.printStackTrace(); //will be disabled in the final version
+            renderError(path, e, out);
+        } catch (InvokeFailedException e) {
+            renderError(path, e, out);
+        } finally {
+            runtimes.offer(runtime);
         }
     }
 
@@ -145,31 +180,149 @@ public class HamlViewRenderer implements ViewRenderer {
     public void loadConfiguration(Configuration configuration)
             throws ConfigurationException {
 
-        List<String> loadPaths = new ArrayList<String>();
-        // SINGLETHREAD is not threadsafe: http://www.ruby-forum.com/topic/206056#new
-        container = new ScriptingContainer(LocalContextScope.THREADSAFE);
-        scriptingContainerConfiguration = configuration;
+        jrubyhome = configuration.getChildValue("jruby_home");
+
+        if (configuration.getChild("haml") != null) {
+            throw new ConfigurationException("The haml element is no longer supported: the templates are " +
+                    "compiled by the renderer, use haml-init for the script loading Haml", configuration);
+        }
+
+        String userHamlScript = configuration.getChildValue("haml-init");
+        if (userHamlScript != null) {
+            haml_rb = userHamlScript; //just a bit of inversion of control
+        }
+
+        String poolSizeValue = configuration.getChildValue("pool-size");
+        if (poolSizeValue != null) {
+            try {
+                poolSize = Integer.parseInt(poolSizeValue.trim());
+            } catch (NumberFormatException e) {
+                throw new ConfigurationException("Invalid pool-size value: " + poolSizeValue, e, configuration);
+            }
+            if (poolSize < 1) {
+                throw new ConfigurationException("The pool-size must be at least 1", configuration);
+            }
+        }
+    }
+
+    /**
+     * Take an idle runtime from the pool, starting a new one while the pool
+     * is not full, or wait for a runtime to be returned.
+     *
+     * @return The HamlRuntime
+     * @throws ViewRenderException
+     */
+
+    private HamlRuntime borrowRuntime() throws ViewRenderException {
+        HamlRuntime runtime = (HamlRuntime) runtimes.poll();
+        if (runtime != null) {
+            return runtime;
+        }
+
+        if (runtimeCount.incrementAndGet() <= poolSize) {
+            try {
+                return new HamlRuntime();
+            } catch (RuntimeException e) {
+                runtimeCount.decrementAndGet();
+                throw new ViewRenderException("Cannot start a JRuby runtime: " + e.getMessage(), e);
+            }
+        }
+        runtimeCount.decrementAndGet();
+
+        try {
+            return (HamlRuntime) runtimes.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new ViewRenderException("Interrupted while waiting for a JRuby runtime", e);
+        }
+    }
+
+    private void renderError(String path, RuntimeException e, Writer out) throws IOException {
+        log.error(path + ", haml rendering exception: " + e.getMessage(), e);
+        FileCopyUtils.copy(String.format("[%s] %s", e.getClass().getSimpleName(), e.getMessage()), out);
+    }
+
+    /**
+     * Get the last modified time of the template, or 0 when it has none,
+     * for instance the text rendered by the components.
+     *
+     * @param path The path to the template
+     * @return The last modified time
+     */
+
+    private long getLastModified(String path) {
+        try {
+            return siteContext.getLastModified(path);
+        } catch (Exception e) {
+            return 0;
+        }
+    }
 
-        RubyInstanceConfig config = container.getProvider().getRubyInstanceConfig();
+    /**
+     * A JRuby runtime with Haml loaded, together with the templates it
+     * compiled.  A runtime is used by one thread at a time.
+     */
 
-        if (scriptingContainerConfiguration != null) {
+    private class HamlRuntime {
 
-            jrubyhome = scriptingContainerConfiguration.getChildValue("jruby_home");
+        private ScriptingContainer container;
+        private Object engineClass;
+        private Object scopeClass;
+        private Map templates = new HashMap();
 
+        HamlRuntime() {
+            container = new ScriptingContainer(LocalContextScope.SINGLETHREAD);
             if (jrubyhome != null) {
-                config.setJRubyHome(jrubyhome);
-                loadPaths.add(jrubyhome);
+                container.getProvider().getRubyInstanceConfig().setJRubyHome(jrubyhome);
+            }
+
+            container.runScriptlet(haml_rb);
+            container.runScriptlet(SCOPE_RB);
+            engineClass = container.runScriptlet("Haml::Engine");
+            scopeClass = container.runScriptlet("JPublishHamlScope");
+        }
+
+        /**
+         * Get the Haml::Engine compiled from the template, compiling it if
+         * the template was not compiled yet or was modified since.
+         */
+
+        Object getEngine(String path, Reader in) throws IOException {
+            long lastModified = getLastModified(path);
+            if (lastModified > 0) {
+                CompiledTemplate compiled = (CompiledTemplate) templates.get(path);
+                if (compiled != null && compiled.lastModified == lastModified) {
+                    return compiled.engine;
+                }
             }
 
-            String userHamlScript = scriptingContainerConfiguration.getChildValue("haml");
-            if (userHamlScript != null) {
-                haml_rb = userHamlScript; //just a bit of inversion of control
+            String template = FileCopyUtils.copyToString(in);
+            Object engine = container.callMethod(engineClass, "new", new Object[]{template}, Object.class);
+
+            if (lastModified > 0) {
+                if (templates.size() >= MAX_TEMPLATES) {
+                    templates.clear();
+                }
+                templates.put(path, new CompiledTemplate(lastModified, engine));
             }
+            return engine;
         }
 
-        haml_rb_unit = container.parse(haml_rb);
+        String render(Object engine, JPublishContext context) {
+            Object scope = container.callMethod(scopeClass, "new", new Object[]{context}, Object.class);
+            return container.callMethod(engine, "render", new Object[]{scope}, String.class);
+        }
+    }
 
-        log.info("haml enabled ... have fun!");
+    private static class CompiledTemplate {
+
+        private long lastModified;
+        private Object engine;
+
+        CompiledTemplate(long lastModified, Object engine) {
+            this.lastModified = lastModified;
+            this.engine = engine;
+        }
     }
 
 }
@@ -0,0 +1,94 @@
+/*
+ *
+ * Copyright 2007 Florin T.PATRASCU
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ */
+
+package org.jpublish.view.stringtemplate;
+
+import org.jpublish.JPublishContext;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Read-only Map view of a JPublishContext, given to the StringTemplate
+ * templates as their attributes.  The values are read from the context
+ * when the templates ask for them, nothing is copied.
+ *
+ * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
+ */
+
+public class JPublishContextMap extends AbstractMap {
+
+    private JPublishContext context;
+
+    /**
+     * Construct a new JPublishContextMap.
+     *
+     * @param context The JPublishContext
+     */
+
+    public JPublishContextMap(JPublishContext context) {
+        this.context = context;
+    }
+
+    public Object get(Object key) {
+        return key instanceof String ? context.get((String) key) : null;
+    }
+
+    public boolean containsKey(Object key) {
+        return key instanceof String && context.containsKey(key);
+    }
+
+    public int size() {
+        return context.getKeys().length;
+    }
+
+    public Set entrySet() {
+        return new AbstractSet() {
+            public Iterator iterator() {
+                final Object[] keys = context.getKeys();
+                return new Iterator() {
+                    private int index = 0;
+
+                    public boolean hasNext() {
+                        return index < keys.length;
+                    }
+
+                    public Object next() {
+                        if (index >= keys.length) {
+                            throw new NoSuchElementException();
+                        }
+                        String key = (String) keys[index++];
+                        return new SimpleImmutableEntry(key, context.get(key));
+                    }
+
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            public int size() {
+                return JPublishContextMap.this.size();
+            }
+        };
+    }
+
+}
@@ -37,9 +37,17 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * A simple StringTemplate viewer
+ * <p/>
+ * The templates read the JPublishContext through a read-only Map view and
+ * are written straight to the response Writer.  One StringTemplateGroup is
+ * created for the template root and one for every repository, once, when
+ * the first view is rendered: the repositories are configured after the
+ * view renderer.
  *
  * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
  * @since $Revision$ (created: Aug 18, 2007 1:56:15 PM)
@@ -51,8 +59,14 @@ public class StringTemplateViewRenderer implements ViewRenderer {
     private SiteContext siteContext;
     private int refreshInterval = 0;
     private Class lexer;
-    private boolean initialized;
-    private Map stGroups = new HashMap();
+    private volatile Map stGroups;
+
+    /**
+     * the group and the template name of the paths rendered so far
+     */
+    private ConcurrentMap targets = new ConcurrentHashMap();
+    public static final int MAX_TARGETS = 1024;
+
     private static final String TEMPLATE_PROTOCOL_NAME = "template";
     private static final String DEFAULT_TEMPLATE_LEXER = "org.antlr.stringtemplate.language.DefaultTemplateLexer";
 
@@ -88,29 +102,31 @@ public class StringTemplateViewRenderer implements ViewRenderer {
     public void render(JPublishContext context, String path, Reader in, Writer out)
             throws ViewRenderException, IOException {
 
-        CharacterEncodingMap characterEncodingMap = siteContext.getCharacterEncodingManager().getMap(path);
-        String encoding = characterEncodingMap.getPageEncoding();
+        if (log.isDebugEnabled())
+            log.debug("render(" + path + ")");
 
-        if (!initialized) {
-            preInit();
-            initialized = true;
-        }
+        Target target = getTarget(path);
+        StringTemplate st = target.group.getInstanceOf(target.name, new JPublishContextMap(context));
+        st.write(target.group.getStringTemplateWriter(out));
+    }
 
-        if (log.isDebugEnabled()) {
-            log.debug("render(" + path + ")");
-            log.debug("Character encoding: " + encoding);
-        }
+    /**
+     * Get the template group and the template name for the given path,
+     * parsing the path the first time it is rendered.
+     *
+     * @param path The path to the template
+     * @return The Target
+     * @throws ViewRenderException
+     */
 
-        Map model = new HashMap();
-        Object[] keys = context.getKeys();
-        for (int i = 0; i < keys.length; i++) {
-            String key = (String) keys[i];
-            model.put(key, context.get(key));
+    private Target getTarget(String path) throws ViewRenderException {
+        Target target = (Target) targets.get(path);
+        if (target != null) {
+            return target;
         }
 
         String stgName = TEMPLATE_PROTOCOL_NAME;
-        String stPath = EMPTY_STRING;
-
+        String stPath;
         try {
             InternalURI uri = InternalURIParser.getInstance().parse(path);
             String protocol = uri.getProtocol();
@@ -120,7 +136,7 @@ public class StringTemplateViewRenderer implements ViewRenderer {
             } else if (protocol.equalsIgnoreCase("repository")) {
                 stgName = ((RepositoryURI) uri).getRepositoryName();
             } else {
-                throw new Exception("Protocol " + protocol + " not supported");
+                throw new ViewRenderException("Protocol " + protocol + " not supported");
             }
 
             stPath = uri.getPath();
@@ -128,13 +144,43 @@ public class StringTemplateViewRenderer implements ViewRenderer {
             if (delim >= 0) {
                 stPath = stPath.substring(0, delim);
             }
+        } catch (ViewRenderException e) {
+            throw e;
         } catch (Exception e) {
-            e.printStackTrace();
+            throw new ViewRenderException("Invalid template path " + path + ": " + e.getMessage(), e);
+        }
+
+        StringTemplateGroup stg = (StringTemplateGroup) getGroups().get(stgName);
+        if (stg == null) {
+            throw new ViewRenderException("No template group for " + path);
         }
 
-        StringTemplateGroup stg = (StringTemplateGroup) stGroups.get(stgName);
-        StringTemplate st = stg.getInstanceOf(stPath, model);
-        FileCopyUtils.copy(st.toString(), out);
+        target = new Target(stg, stPath);
+        if (targets.size() >= MAX_TARGETS) {
+            targets.clear();
+        }
+        targets.put(path, target);
+        return target;
+    }
+
+    /**
+     * Get the template groups, creating them the first time.
+     *
+     * @return The StringTemplateGroups by name
+     */
+
+    private Map getGroups() {
+        Map groups = stGroups;
+        if (groups == null) {
+            synchronized (this) {
+                groups = stGroups;
+                if (groups == null) {
+                    groups = createGroups();
+                    stGroups = groups;
+                }
+            }
+        }
+        return groups;
     }
 
     /**
@@ -183,10 +229,15 @@ public class StringTemplateViewRenderer implements ViewRenderer {
 
     /**
      * this method will create one StringTemplateGroup for every JPublish repository and it will also
-     * create one for the JPublish template repository.
+     * create one for the JPublish template repository, unless they were already created.
      */
     public void preInit() {
-        stGroups.put(TEMPLATE_PROTOCOL_NAME,
+        getGroups();
+    }
+
+    private Map createGroups() {
+        Map groups = new HashMap();
+        groups.put(TEMPLATE_PROTOCOL_NAME,
                 new StringTemplateGroup(
                         TEMPLATE_PROTOCOL_NAME,
                         siteContext.getRealTemplateRoot().getAbsolutePath()));
@@ -195,19 +246,18 @@ public class StringTemplateViewRenderer implements ViewRenderer {
         log.info("StringTemplate initialization begins ...");
         for (int i = 0; i < repositories.size(); i++) {
             Repository repository = (Repository) repositories.get(i);
-            StringTemplateGroup stg = null;
             try {
-                stg = new StringTemplateGroup(repository.getName(),
+                StringTemplateGroup stg = new StringTemplateGroup(repository.getName(),
                         repository.pathToFile(EMPTY_STRING).getAbsolutePath(), lexer);
                 stg.setRefreshInterval(refreshInterval);
+                groups.put(stg.getName(), stg);
             } catch (Exception e) {
-                e.printStackTrace();
+                log.warn("No template group for the repository " + repository.getName() + ": " + e.getMessage());
             }
-            stGroups.put(stg.getName(), stg);
         }
 
         log.info("Available template groups:");
-        Iterator it = stGroups.values().iterator();
+        Iterator it = groups.values().iterator();
         while (it.hasNext()) {
             StringTemplateGroup stg = (StringTemplateGroup) it.next();
             log.info("- group: '" + stg.getName() +
@@ -218,5 +268,17 @@ public class StringTemplateViewRenderer implements ViewRenderer {
         log.info(" templates cache refresh interval: " + refreshInterval);
         log.info("StringTemplate Viewer is now available.");
 
+        return groups;
+    }
+
+    private static class Target {
+
+        private StringTemplateGroup group;
+        private String name;
+
+        Target(StringTemplateGroup group, String name) {
+            this.group = group;
+            this.name = name;
+        }
     }
 }
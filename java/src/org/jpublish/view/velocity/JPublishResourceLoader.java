@@ -26,12 +26,28 @@ import org.apache.velocity.runtime.RuntimeServices;
 import org.apache.velocity.runtime.resource.Resource;
 import org.apache.velocity.runtime.resource.loader.ResourceLoader;
 import org.jpublish.Content;
+import org.jpublish.Repository;
 import org.jpublish.SiteContext;
+import org.jpublish.Template;
+import org.jpublish.util.InternalURI;
+import org.jpublish.util.InternalURIParser;
+import org.jpublish.util.RepositoryURI;
 
+import java.io.ByteArrayInputStream;
 import java.io.InputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * Custom resource loader for the Velocity engine.
+ * <p/>
+ * The templates and the repository content are already held in memory as
+ * text by the TemplateManager and the repositories; the loader encodes
+ * that text once per last modified time, in the ENCODING Velocity is told
+ * to read the resources with, and serves every load from the encoded
+ * bytes.  The resource names are parsed once, and the loader takes no
+ * lock, so the threads rendering in parallel do not wait on each other.
  *
  * @author Anthony Eden
  * @author Florin
@@ -42,11 +58,24 @@ public class JPublishResourceLoader extends ResourceLoader {
 
     private static final String VM_GLOBAL_LIBRARY = "VM_global_library.vm";
     private static final Log log = LogFactory.getLog(JPublishResourceLoader.class);
+
+    /**
+     * the encoding of the streams served by the loader
+     */
+    public static final String ENCODING = "UTF-8";
+
+    public static final int MAX_SOURCES = 1024;
+
     /**
      * cache interim solutin until we'll unify the concept of page cache
      */
     private SiteContext siteContext;
 
+    /**
+     * the sources of the resources loaded so far, by resource name
+     */
+    private final ConcurrentMap sources = new ConcurrentHashMap();
+
     /**
      * Set the SiteContext.
      *
@@ -99,15 +128,14 @@ public class JPublishResourceLoader extends ResourceLoader {
     }
 
     /**
-     * Get the InputStream for the resource.
-     * added synchronizatin for tests; Florin
+     * Get the InputStream for the resource, encoded with ENCODING.
      *
      * @param name The resource name
      * @return The InputStream
      * @throws ResourceNotFoundException
      */
 
-    public synchronized InputStream getResourceStream(String name) throws ResourceNotFoundException {
+    public InputStream getResourceStream(String name) throws ResourceNotFoundException {
         if (VM_GLOBAL_LIBRARY.equals(name)) {
             if (log.isDebugEnabled())
                 log.debug("Loading global library");
@@ -118,7 +146,13 @@ public class JPublishResourceLoader extends ResourceLoader {
         if (log.isDebugEnabled())
             log.debug("getResourceStream(" + name + ")");
 
-        return getContent(name).getInputStream();
+        try {
+            return new ByteArrayInputStream(getSource(name).getData());
+        } catch (ResourceNotFoundException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new ResourceNotFoundException("Cannot load " + name + ": " + e.getMessage());
+        }
     }
 
     /**
@@ -145,9 +179,9 @@ public class JPublishResourceLoader extends ResourceLoader {
         }
 
         try {
-            return siteContext.getLastModified(resource.getName());
+            return getSource(resource.getName()).getLastModified();
         } catch (Exception e) {
-            e.printStackTrace();
+            log.warn("Cannot get the last modified time of " + resource.getName() + ": " + e.getMessage());
             return -1;
         }
     }
@@ -163,4 +197,104 @@ public class JPublishResourceLoader extends ResourceLoader {
         return siteContext.getContent(name);
     }
 
+    /**
+     * Get the source of the named resource, parsing the name the first time
+     * it is asked for.
+     *
+     * @param name The resource name
+     * @return The Source
+     * @throws Exception
+     */
+
+    private Source getSource(String name) throws Exception {
+        Source source = (Source) sources.get(name);
+        if (source == null) {
+            InternalURI uri = InternalURIParser.getInstance().parse(name);
+            String protocol = uri.getProtocol();
+
+            if (protocol.equalsIgnoreCase("template")) {
+                source = new Source(uri.getPath(), null);
+
+            } else if (protocol.equalsIgnoreCase("repository")) {
+                String repositoryName = ((RepositoryURI) uri).getRepositoryName();
+                Repository repository = siteContext.getRepository(repositoryName);
+                if (repository == null) {
+                    throw new ResourceNotFoundException("Repository " + repositoryName
+                            + " not found, cannot load " + name);
+                }
+                source = new Source(uri.getPath(), repository);
+
+            } else {
+                throw new ResourceNotFoundException("Protocol " + protocol + " not supported: " + name);
+            }
+
+            if (sources.size() >= MAX_SOURCES) {
+                sources.clear();
+            }
+            sources.put(name, source);
+        }
+        return source;
+    }
+
+    /**
+     * A template or a repository item, together with its text encoded at
+     * its last modified time.
+     */
+
+    private class Source {
+
+        private String path;
+        private Repository repository;
+        private volatile EncodedText encodedText;
+
+        Source(String path, Repository repository) {
+            this.path = path;
+            this.repository = repository;
+        }
+
+        long getLastModified() throws Exception {
+            if (repository == null) {
+                return siteContext.getTemplateManager().getTemplate(path).getLastModified();
+            }
+            return repository.getLastModified(path);
+        }
+
+        byte[] getData() throws Exception {
+            Template template = null;
+            long lastModified;
+            if (repository == null) {
+                template = siteContext.getTemplateManager().getTemplate(path);
+                lastModified = template.getLastModified();
+            } else {
+                lastModified = repository.getLastModified(path);
+            }
+
+            // an unknown last modified time cannot tell a change
+            EncodedText current = encodedText;
+            if (current != null && lastModified > 0 && current.lastModified == lastModified) {
+                return current.data;
+            }
+
+            String text = template != null ? template.getText() : repository.get(path);
+            byte[] data = encode(text);
+            encodedText = new EncodedText(lastModified, data);
+            return data;
+        }
+    }
+
+    private static class EncodedText {
+
+        private long lastModified;
+        private byte[] data;
+
+        EncodedText(long lastModified, byte[] data) {
+            this.lastModified = lastModified;
+            this.data = data;
+        }
+    }
+
+    private static byte[] encode(String text) throws UnsupportedEncodingException {
+        return text == null ? new byte[0] : text.getBytes(ENCODING);
+    }
+
 }
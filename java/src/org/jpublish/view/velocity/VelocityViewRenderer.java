@@ -24,22 +24,36 @@ import com.atlassian.util.profiling.UtilTimerStack;
 import org.apache.commons.collections.ExtendedProperties;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.velocity.app.VelocityEngine;
+import org.apache.velocity.Template;
+import org.apache.velocity.exception.ParseErrorException;
 import org.apache.velocity.exception.VelocityException;
 import org.apache.velocity.runtime.RuntimeConstants;
+import org.apache.velocity.runtime.RuntimeInstance;
+import org.apache.velocity.runtime.parser.ParseException;
 import org.jpublish.JPublishContext;
+import org.jpublish.Repository;
 import org.jpublish.SiteContext;
-import org.jpublish.util.CharacterEncodingMap;
+import org.jpublish.repository.filesystem.AbstractFileSystemRepository;
+import org.jpublish.util.InternalURI;
+import org.jpublish.util.InternalURIParser;
+import org.jpublish.util.RepositoryURI;
 import org.jpublish.view.ViewRenderException;
 import org.jpublish.view.ViewRenderer;
 
 import javax.servlet.ServletContext;
 import java.io.*;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * ViewRenderer which uses the Velocity template engine from the Apache
  * Jakarta group to render content.
+ * <p/>
+ * When the site evaluates the Velocity templates, the templates are parsed
+ * from the Reader given by the caller, so they keep the character encoding
+ * the caller decoded them with; the parsed templates are cached per path
+ * and parsed again only when their last modified time changes.
  *
  * @author Anthony Eden
  * @author <a href="mailto:florin.patrascu@gmail.com">Florin T.PATRASCU</a>
@@ -57,12 +71,18 @@ public class VelocityViewRenderer implements ViewRenderer {
     };
 
     private SiteContext siteContext;
-    private final VelocityEngine velocityEngine = new VelocityEngine();
+    private final RuntimeInstance velocityRuntime = new RuntimeInstance();
     private Properties velocityProperties = new Properties();
 
     private boolean resourceCacheEnabled = false;
     private int resourceCacheInterval = 2;
 
+    /**
+     * the templates parsed in the evaluateVelocityTemplates mode, by path
+     */
+    private final ConcurrentMap evaluatedTemplates = new ConcurrentHashMap();
+    public static final int MAX_EVALUATED_TEMPLATES = 1024;
+
     /**
      * Set the SiteContext.
      *
@@ -116,10 +136,14 @@ public class VelocityViewRenderer implements ViewRenderer {
         // it may be necessary to put caching support here, in which case
         // the cache parameters should be specified in the view config.
 
-        ExtendedProperties eprops = new ExtendedProperties();
-        eprops.putAll(velocityProperties);
+        // convertProperties() registers each key; keys copied with putAll() are
+        // ignored when the runtime combines its configuration
+        ExtendedProperties eprops = ExtendedProperties.convertProperties(velocityProperties);
         eprops.addProperty(RuntimeConstants.RESOURCE_LOADER, "jpublish");
 
+        // the loader serves the resources in its own encoding, #parse and #include included
+        eprops.setProperty(RuntimeConstants.INPUT_ENCODING, JPublishResourceLoader.ENCODING);
+
         eprops.setProperty("jpublish.resource.loader.description", "JPublish internal resource loader.");
         eprops.setProperty("jpublish.resource.loader.class", "org.jpublish.view.velocity.JPublishResourceLoader");
         eprops.setProperty("jpublish.resource.loader.siteContext", siteContext);
@@ -130,11 +154,11 @@ public class VelocityViewRenderer implements ViewRenderer {
                     Integer.toString(getResourceCacheInterval()));
         }
 
-        // Apply properties to VelocityEngine.
-        velocityEngine.setExtendedProperties(eprops);
+        // Apply properties to the Velocity runtime.
+        velocityRuntime.setConfiguration(eprops);
         try {
-            velocityEngine.init();
-            velocityEngine.setApplicationAttribute(ServletContext.class.getName(), siteContext.getServletContext());
+            velocityRuntime.init();
+            velocityRuntime.setApplicationAttribute(ServletContext.class.getName(), siteContext.getServletContext());
         }
         catch (IOException ex) {
             throw ex;
@@ -149,7 +173,7 @@ public class VelocityViewRenderer implements ViewRenderer {
             log.error("Why does VelocityEngine throw a generic checked exception, after all?", ex);
             throw new VelocityException(ex.getMessage());
         }
-        log.info("Resource loader: " + velocityEngine.getProperty(VelocityEngine.RESOURCE_LOADER));
+        log.info("Resource loader: " + velocityRuntime.getProperty(RuntimeConstants.RESOURCE_LOADER));
 
     }
 
@@ -167,22 +191,27 @@ public class VelocityViewRenderer implements ViewRenderer {
     public void render(JPublishContext context, String path, Reader in, Writer out)
             throws IOException, ViewRenderException {
 
-        CharacterEncodingMap characterEncodingMap = siteContext.getCharacterEncodingManager().getMap(path);
-        String encoding = characterEncodingMap.getPageEncoding();
-
-        if (log.isDebugEnabled()) {
+        if (log.isDebugEnabled())
             log.debug("render(" + path + ")");
-            log.debug("Character encoding: " + encoding);
-        }
 
+        boolean profiling = SiteContext.getProfiling();
         try {
-            UtilTimerStack.push(" ==> /" + path);
+            if (profiling) {
+                UtilTimerStack.push(" ==> /" + path);
+            }
             VelocityViewContext viewContext = new VelocityViewContext(context);
-            if (context.get("evaluateVelocityTemplates") != null)
+            if (context.get("evaluateVelocityTemplates") != null) {
                 //Florin 15 Feb 2005
-                velocityEngine.evaluate(viewContext, out, path, in);
-            else
-                velocityEngine.mergeTemplate(path, encoding, viewContext, out);
+                Template template = getEvaluatedTemplate(path, in);
+                if (template != null) {
+                    template.merge(viewContext, out);
+                } else {
+                    velocityRuntime.evaluate(viewContext, out, path, in);
+                }
+            } else {
+                // the text is already decoded, the loader hands it over in its own encoding
+                velocityRuntime.getTemplate(path, JPublishResourceLoader.ENCODING).merge(viewContext, out);
+            }
 
         } catch (IOException e) {
             log.error(path + ", IO exception: " + e.getMessage());
@@ -192,8 +221,86 @@ public class VelocityViewRenderer implements ViewRenderer {
             log.error(path + ", rendering exception: " + e.getMessage());
             throw new ViewRenderException(e);
         } finally {
-            UtilTimerStack.pop(" ==> /" + path);
+            if (profiling) {
+                UtilTimerStack.pop(" ==> /" + path);
+            }
+        }
+    }
+
+    /**
+     * Get the parsed template to evaluate for the given path, parsing it
+     * from the Reader if it was not parsed yet or was modified since.
+     * Returns null when the last modified time of the path is not known
+     * without a costly lookup, for instance the content of the database or
+     * web repositories and the text rendered by the components, which is
+     * then evaluated as is.
+     *
+     * @param path The path to the template
+     * @param in   The Reader to read the template from
+     * @return The parsed Template or null
+     * @throws Exception
+     */
+
+    private Template getEvaluatedTemplate(String path, Reader in) throws Exception {
+        long lastModified;
+        try {
+            lastModified = getCachedLastModified(path);
+        } catch (Exception e) {
+            lastModified = 0;
+        }
+        if (lastModified <= 0) {
+            return null;
+        }
+
+        Template template = (Template) evaluatedTemplates.get(path);
+        if (template != null && template.getLastModified() == lastModified) {
+            return template;
+        }
+
+        if (log.isDebugEnabled())
+            log.debug("Parsing template: " + path);
+
+        template = new Template();
+        template.setRuntimeServices(velocityRuntime);
+        template.setName(path);
+        template.setEncoding(JPublishResourceLoader.ENCODING);
+        try {
+            template.setData(velocityRuntime.parse(in, path));
+        } catch (ParseException e) {
+            throw new ParseErrorException(e);
+        }
+        template.initDocument();
+        template.setLastModified(lastModified);
+
+        if (evaluatedTemplates.size() >= MAX_EVALUATED_TEMPLATES) {
+            evaluatedTemplates.clear();
+        }
+        evaluatedTemplates.put(path, template);
+        return template;
+    }
+
+    /**
+     * Get the last modified time of a template or of a file system
+     * repository content, which the TemplateManager and the
+     * FileChangeMonitor answer from their caches.
+     *
+     * @param path The path to the template
+     * @return The last modified time or 0 for the other sources
+     * @throws Exception
+     */
+
+    private long getCachedLastModified(String path) throws Exception {
+        InternalURI uri = InternalURIParser.getInstance().parse(path);
+        if (uri.getProtocol().equalsIgnoreCase("template")) {
+            return siteContext.getLastModified(path);
+        }
+        if (uri.getProtocol().equalsIgnoreCase("repository")) {
+            Repository repository = siteContext.getRepository(((RepositoryURI) uri).getRepositoryName());
+            if (repository instanceof AbstractFileSystemRepository) {
+                return repository.getLastModified(uri.getPath());
+            }
         }
+        return 0;
     }
 
     /**